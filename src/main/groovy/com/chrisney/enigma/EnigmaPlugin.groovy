@@ -26,9 +26,17 @@ class EnigmaPlugin implements Plugin<Project> {
         // Generate random hash key, if not defined
         if (TextUtils.isEmpty(extension.hash))
             extension.hash = Utils.randomHashKey()
+        def randomHash = extension.hash
 
         project.afterEvaluate {
 
+            // Deterministic mode, or encrypted files written into an output folder (incremental 'encrypt' task):
+            // the same hash key at each build, if not defined
+            boolean incremental = extension.outOfTree || extension.outputDir != null
+            if ((extension.deterministic || incremental) && extension.hash == randomHash) {
+                extension.hash = Utils.loadOrCreateHashKey(new File(project.rootDir, ".gradle/enigma/hash.key"))
+            }
+
             // Search custom Encryption task:
             def customEncryptTask = null
             if (extension.encryptionTaskName != null) {
@@ -38,6 +46,19 @@ class EnigmaPlugin implements Plugin<Project> {
                 }
             }
 
+            if (extension.outOfTree) {
+                configureOutOfTree(project, extension, customEncryptTask)
+                return
+            }
+
+            // Output folder: the source files are never modified (no backup, no Enigma code injected, no restore)
+            if (extension.outputDir != null) {
+                createEncryptTask(project, extension, customEncryptTask, 'encrypt',
+                        project.rootDir.absolutePath + extension.outputDir)
+                project.tasks.getByName('preBuild').dependsOn('encrypt')
+                return
+            }
+
             project.task('cleanBackup', type: CleanBackupTask) {
                 enabled = extension.enabled
                 rootProject = project.rootDir.absolutePath
@@ -49,6 +70,9 @@ class EnigmaPlugin implements Plugin<Project> {
                 enabled = extension.enabled
                 rootProject = project.rootDir.absolutePath
                 pathSrc = project.rootDir.absolutePath + extension.srcJava
+                maxParallelism = extension.maxParallelism
+                workerIsolation = extension.workerIsolation
+                backupFormat = extension.backupFormat
                 debug = extension.debug
             }
 
@@ -61,23 +85,15 @@ class EnigmaPlugin implements Plugin<Project> {
                 debug = extension.debug
             }
 
-            project.task('encrypt', type: EnigmaTask) {
-                enabled = extension.enabled
-                rootProject = project.rootDir.absolutePath
-                pathSrc = project.rootDir.absolutePath + extension.srcJava
-                hash = extension.hash
-                ignoredClasses = extension.ignoredClasses
-                classes = extension.classes
-                customFunction = extension.customFunction
-                customEncryptionTask = customEncryptTask
-                injectFakeKeys = extension.injectFakeKeys
-                debug = extension.debug
-            }
+            createEncryptTask(project, extension, customEncryptTask, 'encrypt', null)
 
             project.task('restore', type: RestoreTask) {
                 enabled = extension.enabled
                 rootProject = project.rootDir.absolutePath
                 pathSrc = project.rootDir.absolutePath + extension.srcJava
+                maxParallelism = extension.maxParallelism
+                workerIsolation = extension.workerIsolation
+                backupFormat = extension.backupFormat
                 debug = extension.debug
             }
 
@@ -95,4 +111,72 @@ class EnigmaPlugin implements Plugin<Project> {
             }
         }
     }
+
+    /**
+     * Create an encryption task
+     * @param project Project
+     * @param extension Options of the plugin
+     * @param customEncryptTask Custom Encryption task (can be null)
+     * @param name Name of the task
+     * @param outputDir Directory of the encrypted files (null: the files are encrypted in place)
+     * @return Encryption task
+     */
+    private static EnigmaTask createEncryptTask(Project project, EnigmaPluginExtension extension,
+                                                def customEncryptTask, String name, String outputDir) {
+        EnigmaTask task = project.task(name, type: EnigmaTask) as EnigmaTask
+        task.enabled = extension.enabled
+        task.rootProject = project.rootDir.absolutePath
+        task.pathSrc = project.rootDir.absolutePath + extension.srcJava
+        task.hash = extension.hash
+        task.ignoredClasses = extension.ignoredClasses
+        task.classes = extension.classes
+        task.customFunction = extension.customFunction
+        task.customEncryptionTask = customEncryptTask
+        task.injectFakeKeys = extension.injectFakeKeys
+        task.parseCacheDir = extension.parseCache ? project.buildDir.absolutePath + "/enigma/parse-cache" : null
+        task.parseCacheMaxSize = extension.parseCacheMaxSize
+        task.parallelThreshold = extension.parallelThreshold
+        task.streaming = extension.streaming
+        task.parserEngine = extension.parserEngine
+        task.outputDir = outputDir
+        task.deterministic = extension.deterministic
+        task.abiNeutral = extension.abiNeutral
+        task.maxParallelism = extension.maxParallelism
+        task.workerIsolation = extension.workerIsolation
+        task.backupFormat = extension.backupFormat
+        task.debug = extension.debug
+        return task
+    }
+
+    /**
+     * Out-of-tree mode: the JAVA files of each variant are encrypted into build/generated/enigma/&lt;variant&gt;
+     * (with the Enigma code), and this directory is compiled instead of the source folder.
+     * The source files are never modified: no backup, no restore.
+     * @param project Project
+     * @param extension Options of the plugin
+     * @param customEncryptTask Custom Encryption task (can be null)
+     */
+    private static void configureOutOfTree(Project project, EnigmaPluginExtension extension, def customEncryptTask) {
+        def srcDir = new File(project.rootDir.absolutePath + extension.srcJava).toPath()
+        def configureVariant = { String variantName, compileTask ->
+            def outputDir = new File(project.buildDir, "generated/enigma/" + variantName)
+            def encryptTask = createEncryptTask(project, extension, customEncryptTask,
+                    'encrypt' + variantName.capitalize(), outputDir.absolutePath)
+            compileTask.configure { compile ->
+                compile.dependsOn(encryptTask)
+                compile.exclude { element -> element.file.toPath().startsWith(srcDir) }
+                compile.source(outputDir)
+            }
+        }
+
+        def android = project.extensions.findByName('android')
+        if (android != null) {
+            def variants = android.hasProperty('applicationVariants') ? android.applicationVariants : android.libraryVariants
+            variants.all { variant -> configureVariant(variant.name, variant.javaCompileProvider) }
+        } else {
+            project.plugins.withId('java') {
+                configureVariant('main', project.tasks.named('compileJava'))
+            }
+        }
+    }
 }
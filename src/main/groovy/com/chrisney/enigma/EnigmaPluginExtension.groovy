@@ -30,6 +30,62 @@ class EnigmaPluginExtension {
      * Enable / disable the fake keys injection (honeypot principal)
      */
     boolean injectFakeKeys = true;
+    /**
+     * Enable / disable the persistent cache of parsing results (unchanged files are not parsed again)
+     */
+    boolean parseCache = true;
+    /**
+     * Maximum size of the parsing cache (bytes)
+     */
+    long parseCacheMaxSize = 64L * 1024 * 1024;
+    /**
+     * Minimum size (characters) of a JAVA file parsed and encrypted in parallel (0 to disable)
+     */
+    int parallelThreshold = 1024 * 1024;
+    /**
+     * Enable / disable the streaming mode: files are read, encrypted and written by parts (bounded memory)
+     */
+    boolean streaming = false;
+    /**
+     * Parser engine: "heuristic" (default), "javac" (JDK compiler trees) or "auto" (opt-in: heuristic, javac if its parsing
+     * is not consistent)
+     */
+    String parserEngine = "heuristic";
+    /**
+     * Output folder of the encrypted JAVA files, relative to the root project like srcJava (null: the files are
+     * encrypted in place, and the 'encrypt' task runs at each build). The 'encrypt' task is then incremental and
+     * cacheable (if the hash is not defined, it is generated once and saved in .gradle/enigma/hash.key).
+     */
+    String outputDir = null;
+    /**
+     * Enable / disable the deterministic mode: the same sources always produce the same encrypted files
+     * (fake keys generated from the hash, the path and the content of each file; if not defined, the hash is
+     * generated once and saved in .gradle/enigma/hash.key)
+     */
+    boolean deterministic = false;
+    /**
+     * Enable / disable the ABI neutral injection: the public and protected members of the classes are unchanged
+     * (private fake keys, import of the Enigma class only into the files with encrypted String values)
+     */
+    boolean abiNeutral = false;
+    /**
+     * Enable / disable the out-of-tree mode: the JAVA files of each variant are encrypted into
+     * build/generated/enigma/<variant>, which is compiled instead of srcJava (no backup, no restore; the hash is saved
+     * like with outputDir)
+     */
+    boolean outOfTree = false;
+    /**
+     * Maximum number of files encrypted, backed up or restored in parallel (Gradle workers), 0 for the number of processors
+     */
+    int maxParallelism = 0;
+    /**
+     * Isolation of the Gradle workers: "none" or "classloader" (plugin classes only)
+     */
+    String workerIsolation = "none";
+    /**
+     * Format of the backup: "directory" (a tree of files) or "pack" (one file of compressed contents, with its index)
+     */
+    String backupFormat = "directory";
     /**
      * Enable / disable the DEBUG (verbose) mode
      */
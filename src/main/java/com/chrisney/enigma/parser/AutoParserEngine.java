@@ -0,0 +1,87 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Parser engine which picks an engine per file: the heuristic engine ({@link JavaParser}) below a size threshold,
+ * the javac engine ({@link JavacParserEngine}) above. The heuristic parsing is checked
+ * (see {@link ParserEngines#checkRoundTrip(JavaCode)}): if it is not consistent, the file is parsed again by the
+ * javac engine. If the javac engine is not available or can't parse the file, the heuristic parsing is used.
+ * @author Christopher Ney
+ */
+public class AutoParserEngine implements ParserEngine {
+
+    /**
+     * Default minimum size (characters) of a file parsed by the javac engine first: the heuristic engine is faster
+     * for the usual sizes of files
+     */
+    public static final int DEFAULT_JAVAC_THRESHOLD = Integer.MAX_VALUE;
+
+    /**
+     * Minimum size (characters) of a file parsed by the javac engine first
+     */
+    public int javacThreshold = DEFAULT_JAVAC_THRESHOLD;
+
+    /**
+     * Heuristic engine (its options are used by the javac engine too)
+     */
+    public final JavaParser heuristic = new JavaParser();
+
+    /**
+     * Javac engine (created on first use), and number of files parsed by it
+     */
+    private JavacParserEngine javac = null;
+    private int javacCount = 0;
+
+    @Override
+    public String getName() {
+        return ParserEngines.AUTO;
+    }
+
+    @Override
+    public JavaCode parse(String sourceCode) {
+        return parse(sourceCode, null);
+    }
+
+    /**
+     * Parse JAVA File, with a cache of the heuristic parsing results (and of their checks: a cached file is not scanned)
+     * @param sourceCode JAVA source code
+     * @param cache Cache of the heuristic parsing results (can be null)
+     * @return Code blocks and String values
+     */
+    public synchronized JavaCode parse(String sourceCode, JavaCodeCache cache) {
+        if (sourceCode.length() >= javacThreshold) {
+            JavaCode code = parseJavac(sourceCode);
+            if (code != null) return code;
+        }
+        JavaCode code = (cache != null) ? cache.parse(sourceCode, heuristic, true) : heuristic.parse(sourceCode);
+        if (ParserEngines.checkRoundTrip(code)) return code;
+
+        JavaCode javacCode = parseJavac(sourceCode);
+        return (javacCode != null) ? javacCode : code;
+    }
+
+    /**
+     * @return Number of files parsed by the javac engine
+     */
+    public synchronized int getJavacCount() {
+        return javacCount;
+    }
+
+    /**
+     * Parse a file with the javac engine
+     * @param sourceCode JAVA source code
+     * @return Code blocks and String values, or null if the javac engine is not available or can't parse the file
+     */
+    private JavaCode parseJavac(String sourceCode) {
+        if (!ParserEngines.isJavacAvailable()) return null;
+        if (javac == null) javac = new JavacParserEngine();
+        javac.compactTree = heuristic.compactTree;
+        try {
+            JavaCode code = javac.parse(sourceCode);
+            code.parallelThreshold = heuristic.parallelThreshold;
+            javacCount++;
+            return code;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Incremental scanner of the ends of the blocks of a window of JAVA source code. It follows the parsing rules of
+ * {@link JavaParser} (String values, comments, annotations, brackets counters and sub blocks jumps) without
+ * building blocks: after each end found, the parsing of the window can start again from a clean state.
+ * Characters can be provided progressively (streaming), the scanner waits for the characters needed to decide.
+ * @author Christopher Ney
+ */
+class BlockEndScanner {
+
+    /**
+     * Value for no position
+     */
+    static final int NONE = -1;
+
+    /**
+     * Matching curly brackets, to jump over the sub blocks (null at the top level: no jump)
+     */
+    private final BracketIndex brackets;
+
+    /**
+     * Next index to scan, and previous character (space at the window start)
+     */
+    private int position;
+    private char prevChar = ' ';
+
+    /**
+     * Index of the next none empty character (cache of the lookahead)
+     */
+    private int nextNoneEmptyIndex = NONE;
+
+    private int counterCurlyBrackets = 0;
+    private int counterParenthesis = 0;
+    private int counterBrackets = 0;
+    private int counterAnnotationParenthesis = 0;
+
+    private CodeBlock.BlockType currentBlock = CodeBlock.BlockType.Undefined;
+
+    private int wordStart = NONE;
+    private int blockStart = NONE;
+
+    /**
+     * Constructor
+     * @param from Window start index
+     * @param brackets Matching curly brackets of the source code (nested windows), or null (top level)
+     */
+    BlockEndScanner(int from, BracketIndex brackets) {
+        this.position = from;
+        this.brackets = brackets;
+    }
+
+    /**
+     * Find the end of the next block
+     * @param chars Characters of the source code
+     * @param limit End of the available characters (excluded)
+     * @param complete True if the window ends at the limit, false if more characters will come
+     * @return End position of the block (excluded), or NONE if the limit is reached (or more characters are needed)
+     */
+    int next(char[] chars, int limit, boolean complete) {
+        while (position < limit) {
+            final int i = position;
+
+            // Lookahead: the next character and the next none empty character must be known:
+            if (nextNoneEmptyIndex <= i) {
+                int k = i + 1;
+                while (k < limit && (JavaParser.charClass(chars[k]) & JavaParser.CLASS_EMPTY) != 0) k++;
+                if (k == limit && !complete) return NONE;
+                nextNoneEmptyIndex = k;
+            }
+
+            final char curChar = chars[i];
+            final char nextChar = (i < limit - 1) ? chars[i + 1] : ' ';
+            final char nextNoneEmptyChar = (nextNoneEmptyIndex < limit) ? chars[nextNoneEmptyIndex] : ' ';
+            final int curClass = JavaParser.charClass(curChar);
+            int end = NONE;
+
+            if (currentBlock == CodeBlock.BlockType.Undefined) {
+                if (curChar == '"' && prevChar != '\\') {
+                    currentBlock = CodeBlock.BlockType.StringValue;
+                } else if (curChar == '/' && nextChar == '/') {
+                    currentBlock = CodeBlock.BlockType.CommentLine;
+                } else if (curChar == '/' && nextChar == '*') {
+                    currentBlock = CodeBlock.BlockType.CommentBlock;
+                } else if (curChar == '@' && counterAnnotationParenthesis == 0 && wordStart == NONE) {
+                    currentBlock = CodeBlock.BlockType.Annotation;
+                }
+            } else if (currentBlock == CodeBlock.BlockType.StringValue) {
+                if (curChar == '"' && prevChar != '\\')
+                    currentBlock = CodeBlock.BlockType.Undefined;
+            }
+
+            if (currentBlock != CodeBlock.BlockType.CommentLine && currentBlock != CodeBlock.BlockType.CommentBlock) {
+                switch (curChar) {
+                    case '{': counterCurlyBrackets++; break;
+                    case '}': counterCurlyBrackets--; break;
+                    case '(':
+                        counterParenthesis++;
+                        if (currentBlock == CodeBlock.BlockType.Annotation) counterAnnotationParenthesis++;
+                        break;
+                    case ')':
+                        counterParenthesis--;
+                        if (currentBlock == CodeBlock.BlockType.Annotation) counterAnnotationParenthesis--;
+                        break;
+                    case '[': counterBrackets++; break;
+                    case ']': counterBrackets--; break;
+                    default: break;
+                }
+            }
+
+            if (wordStart == NONE && (curClass & JavaParser.CLASS_BREAK) == 0) {
+                wordStart = i;
+            }
+            if ((curClass & (JavaParser.CLASS_EMPTY | JavaParser.CLASS_BREAK)) != 0
+                    || JavaParser.isEndBlockComment(currentBlock, curChar, prevChar)) {
+                if (wordStart != NONE && blockStart == NONE) blockStart = wordStart;
+                wordStart = NONE;
+            }
+
+            if (blockStart != NONE) {
+                if ((
+                        JavaParser.isEndOfCodeBlock(currentBlock, curChar, nextNoneEmptyChar)
+                        || JavaParser.isEndAnnotation(currentBlock, curChar, nextNoneEmptyChar, counterParenthesis)
+                        || JavaParser.isEndCommentLine(currentBlock, curClass)
+                        || JavaParser.isEndBlockComment(currentBlock, curChar, prevChar)
+                ) && counterCurlyBrackets == 0 && counterParenthesis == 0 && counterBrackets == 0) {
+                    blockStart = NONE;
+                    // Clean state after the end of a block of code (the end of comments and annotations
+                    // changes the state after the end of the block):
+                    if (currentBlock == CodeBlock.BlockType.Undefined && counterAnnotationParenthesis == 0) {
+                        end = i + 1;
+                    }
+                }
+            }
+
+            if (currentBlock == CodeBlock.BlockType.CommentLine) {
+                if ((curClass & JavaParser.CLASS_RETURN) != 0)
+                    currentBlock = CodeBlock.BlockType.Undefined;
+            } else if (currentBlock == CodeBlock.BlockType.CommentBlock) {
+                if (curChar == '/' && prevChar == '*')
+                    currentBlock = CodeBlock.BlockType.Undefined;
+            } else if (currentBlock == CodeBlock.BlockType.Annotation) {
+                if (JavaParser.isEndAnnotation(currentBlock, curChar, nextNoneEmptyChar, counterAnnotationParenthesis))
+                    currentBlock = CodeBlock.BlockType.Undefined;
+            }
+
+            position = i + 1;
+            prevChar = curChar;
+
+            // Jump to the end of a sub block (nested windows only, as the parsing):
+            if (brackets != null && blockStart != NONE && curChar == '{' && counterCurlyBrackets == 1
+                    && (currentBlock == CodeBlock.BlockType.Undefined || currentBlock == CodeBlock.BlockType.Annotation)) {
+                int match = brackets.getMatch(i);
+                if (match > i && match < limit && JavaParser.isSubBlockStart(chars, blockStart, i)) {
+                    position = match;
+                    prevChar = chars[match - 1];
+                }
+            }
+
+            if (end != NONE) return end;
+        }
+        return NONE;
+    }
+
+    /**
+     * Move the positions when the characters are moved in the buffer (streaming)
+     * @param delta Number of characters removed at the start of the buffer
+     */
+    void shift(int delta) {
+        position -= delta;
+        if (nextNoneEmptyIndex != NONE) nextNoneEmptyIndex -= delta;
+        if (wordStart != NONE) wordStart -= delta;
+        if (blockStart != NONE) blockStart -= delta;
+    }
+}
@@ -0,0 +1,167 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Matching curly brackets table of a JAVA source code, built in one pass.
+ * Curly brackets inside String values, characters and comments are ignored.
+ * @author Christopher Ney
+ */
+public class BracketIndex {
+
+    /**
+     * Value for an index which is not an (open) curly bracket of the code
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Value for an open curly bracket without matching close curly bracket
+     */
+    public static final int UNMATCHED = -1;
+
+    /**
+     * For each index: index of the matching close curly bracket if the character is an open curly bracket
+     * of the code, otherwise NONE (or UNMATCHED)
+     */
+    private final int[] matches;
+
+    /**
+     * Constructor
+     * @param matches Matching curly brackets table
+     */
+    private BracketIndex(int[] matches) {
+        this.matches = matches;
+    }
+
+    /**
+     * Return the index of the close curly bracket matching an open curly bracket
+     * @param index Index of the open curly bracket
+     * @return Index of the matching close curly bracket, NONE if the index is not an open curly bracket
+     * of the code, or UNMATCHED if the curly bracket is never closed
+     */
+    public int getMatch(int index) {
+        return matches[index];
+    }
+
+    /**
+     * Build the matching curly brackets table of a source code
+     * @param chars Characters of the source code
+     * @return Matching curly brackets table
+     */
+    public static BracketIndex build(char[] chars) {
+        final int length = chars.length;
+        final int[] matches = new int[length];
+        int[] stack = new int[64];
+        int depth = 0;
+
+        int i = 0;
+        while (i < length) {
+            char c = chars[i];
+            char next = (i + 1 < length) ? chars[i + 1] : ' ';
+            if (c == '/' && next == '/') {
+                i = skipLineComment(chars, i + 2);
+            } else if (c == '/' && next == '*') {
+                i = skipBlockComment(chars, i + 2);
+            } else if (c == '"') {
+                i = skipString(chars, i);
+            } else if (c == '\'') {
+                i = skipCharacter(chars, i + 1);
+            } else {
+                if (c == '{') {
+                    if (depth == stack.length) {
+                        int[] s = new int[stack.length * 2];
+                        System.arraycopy(stack, 0, s, 0, depth);
+                        stack = s;
+                    }
+                    matches[i] = UNMATCHED;
+                    stack[depth++] = i;
+                } else if (c == '}' && depth > 0) {
+                    matches[stack[--depth]] = i;
+                }
+                i++;
+            }
+        }
+        return new BracketIndex(matches);
+    }
+
+    /**
+     * Skip a line comment
+     * @param chars Source code
+     * @param i Index after the comment start
+     * @return Index of the end of line (or end of code)
+     */
+    static int skipLineComment(char[] chars, int i) {
+        while (i < chars.length && chars[i] != '\n' && chars[i] != '\r') i++;
+        return i;
+    }
+
+    /**
+     * Skip a block comment
+     * @param chars Source code
+     * @param i Index after the comment start
+     * @return Index after the comment end (or end of code)
+     */
+    static int skipBlockComment(char[] chars, int i) {
+        while (i + 1 < chars.length && !(chars[i] == '*' && chars[i + 1] == '/')) i++;
+        return Math.min(i + 2, chars.length);
+    }
+
+    /**
+     * Skip a String value (or a text block)
+     * @param chars Source code
+     * @param i Index of the opening double quote
+     * @return Index after the closing double quote (or end of line / code if the String is not closed)
+     */
+    static int skipString(char[] chars, int i) {
+        final int length = chars.length;
+        if (i + 2 < length && chars[i + 1] == '"' && chars[i + 2] == '"') {
+            // Text block:
+            i += 3;
+            while (i < length) {
+                if (chars[i] == '\\') {
+                    i += 2;
+                } else if (chars[i] == '"' && i + 2 < length && chars[i + 1] == '"' && chars[i + 2] == '"') {
+                    return i + 3;
+                } else {
+                    i++;
+                }
+            }
+            return length;
+        }
+        i++;
+        while (i < length) {
+            char c = chars[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i + 1;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Skip a character value
+     * @param chars Source code
+     * @param i Index after the opening simple quote
+     * @return Index after the closing simple quote (or end of line / code if the character is not closed)
+     */
+    static int skipCharacter(char[] chars, int i) {
+        final int length = chars.length;
+        while (i < length) {
+            char c = chars[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '\'') {
+                return i + 1;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+}
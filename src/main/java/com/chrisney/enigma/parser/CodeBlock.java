@@ -4,6 +4,7 @@ import com.chrisney.enigma.utils.SmartArrayList;
 import com.chrisney.enigma.utils.TextUtils;
 import com.chrisney.enigma.utils.Utils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -33,9 +34,17 @@ public class CodeBlock {
     public int innerOffset = 0;
 
     /**
-     * Source code
+     * Source code (materialized on demand, see {@link #getCode()})
      */
-    public String code;
+    private String code;
+
+    /**
+     * Shared source code of the whole file, the block code is the window [sourceStart, sourceEnd] of it
+     * (until the block code is materialized or modified)
+     */
+    private String source;
+    private int sourceStart;
+    private int sourceEnd;
 
     /**
      * Black name for Class or function or Annotation
@@ -63,7 +72,8 @@ public class CodeBlock {
     public SmartArrayList<CodeBlock> subBlocks = new SmartArrayList<>();
 
     /**
-     * Source code of the block split in words (useful for processing)
+     * Source code of the block split in words (useful for processing), empty if dropped after the parsing
+     * (see {@link JavaParser#keepWords})
      */
     public ArrayList<CodeString> words = new ArrayList<>();
 
@@ -87,6 +97,11 @@ public class CodeBlock {
      */
     public boolean injected = false;
 
+    /**
+     * Edit which inserts the code of the block into the source code (injected blocks only)
+     */
+    CodeEdit injection = null;
+
     /**
      * Modifiers (for class attributes and functions)
      */
@@ -136,13 +151,74 @@ public class CodeBlock {
         return end + offset;
     }
 
+    /**
+     * Return the source code of the block
+     * @return Source code of the block
+     */
+    public String getCode() {
+        if (code == null && source != null) {
+            code = source.substring(sourceStart, sourceEnd);
+            source = null;
+        }
+        return code;
+    }
+
+    /**
+     * Set (replace) the source code of the block
+     * @param code New source code of the block
+     */
+    public void setCode(String code) {
+        this.code = code;
+        this.source = null;
+    }
+
+    /**
+     * Define the source code of the block as a window of the shared source code (no copy)
+     * @param source Shared source code
+     * @param start Start index of the block in the shared source code
+     * @param end End index of the block in the shared source code
+     */
+    void setCode(String source, int start, int end) {
+        this.code = null;
+        this.source = source;
+        this.sourceStart = start;
+        this.sourceEnd = end;
+    }
+
+    /**
+     * Return the length of the source code of the block
+     * @return Length of the source code
+     */
+    public int codeLength() {
+        if (code != null) return code.length();
+        return (source != null) ? sourceEnd - sourceStart : 0;
+    }
+
+    /**
+     * Append a part of the source code of the block, without materializing it.
+     * Safe: nothing is appended if indexes are out of bounds (same rules as {@link TextUtils#safeSubstring}).
+     * @param out Output
+     * @param from From index (included)
+     * @param to To index (excluded)
+     * @throws IOException Output error
+     */
+    private void appendCode(Appendable out, int from, int to) throws IOException {
+        int l = codeLength();
+        if (l <= 0 || from <= -1 || to <= -1 || to > l || from >= to) return;
+        if (code != null) {
+            CodeEdits.append(out, code, from, to);
+        } else {
+            CodeEdits.append(out, source, sourceStart + from, sourceStart + to);
+        }
+    }
+
     /**
      * Convert all words to a String value (source code)
      * @return Source code generate from words contains by the block
      */
     public String wordsToString() {
         StringBuilder sb = new StringBuilder();
-        for (CodeString s : words) sb.append(s.value);
+        for (CodeString s : words) sb.append(s.getValue());
         return sb.toString();
     }
 
@@ -152,7 +228,7 @@ public class CodeBlock {
      */
     public void updatePosition(CodeBlock previousBlock) {
         this.start = previousBlock.end;
-        this.end = this.start + this.code.length();
+        this.end = this.start + this.codeLength();
         this.offset = previousBlock.offset;
         this.innerOffset = previousBlock.innerOffset;
     }
@@ -244,28 +320,31 @@ public class CodeBlock {
      * @return Source code of the block
      */
     public String toCode() {
-        return toCode(0);
+        StringBuilder sb = new StringBuilder(codeLength());
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
     }
 
     /**
-     * Generate the source code of the block
-     * @param level Level of the block
-     * @return Source code of the block
+     * Write the source code of the block (and of its sub blocks) directly into an output
+     * @param out Output
+     * @throws IOException Output error
      */
-    private String toCode(int level) {
-
-        StringBuilder sb = new StringBuilder();
+    public void writeTo(Appendable out) throws IOException {
 
         if (!hasChildren()) {
-            sb.append(code);
+            appendCode(out, 0, codeLength());
         } else {
 
             // Add signature code:
             CodeBlock firstBLock = getFirstNoneInjectedBlock();
             if (firstBLock != null) {
                 int prefixEnd = firstBLock.innerOffset + firstBLock.start;
-                String prefix = TextUtils.safeSubstring(code, 0, prefixEnd);
-                if (prefix != null) sb.append(prefix);
+                appendCode(out, 0, prefixEnd);
             }
 
             // For each sub block:
@@ -275,14 +354,13 @@ public class CodeBlock {
                 CodeBlock nextSubBlock = subBlocks.next(i);
 
                 // Add sub code:
-                sb.append(subBlock.toCode(level + 1));
+                subBlock.writeTo(out);
 
                 // Add code between current sub block and next one:
                 if (!subBlock.injected && i < subBlocks.lastIndex()) {
                     int suffixStart = subBlock.innerOffset + subBlock.end;
-                    int suffixEnd = (nextSubBlock != null) ? nextSubBlock.innerOffset + nextSubBlock.start : code.length();
-                    String suffix = TextUtils.safeSubstring(code, suffixStart, suffixEnd);
-                    if (suffix != null) sb.append(suffix);
+                    int suffixEnd = (nextSubBlock != null) ? nextSubBlock.innerOffset + nextSubBlock.start : codeLength();
+                    appendCode(out, suffixStart, suffixEnd);
                 }
             }
 
@@ -290,13 +368,9 @@ public class CodeBlock {
             CodeBlock latestBlock = getLastNoneInjectedBlock();
             if (latestBlock != null) {
                 int suffixStart = latestBlock.innerOffset + latestBlock.end;
-                int suffixEnd = code.length();
-                String suffix = TextUtils.safeSubstring(code, suffixStart, suffixEnd);
-                if (suffix != null) sb.append(suffix);
+                appendCode(out, suffixStart, codeLength());
             }
 
         }
-
-        return sb.toString();
     }
 }
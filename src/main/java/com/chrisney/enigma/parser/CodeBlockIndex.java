@@ -0,0 +1,114 @@
+package com.chrisney.enigma.parser;
+
+import java.util.ArrayList;
+
+/**
+ * Sorted index of the leaf code blocks (blocks without sub blocks) by position in the source code,
+ * to find the block which contains a position in O(log n) instead of walking the whole tree.
+ * Injected blocks are not indexed: they are not part of the original source code.
+ * @author Christopher Ney
+ */
+public class CodeBlockIndex {
+
+    private final CodeBlock[] leaves;
+    private final int[] starts;
+    private final int[] ends;
+    private final int size;
+
+    /**
+     * True if leaves are sorted by position without overlap (binary search allowed)
+     */
+    private final boolean sorted;
+
+    /**
+     * Constructor
+     * @param leaves Leaf blocks (tree order), or null if the leaves are not CodeBlock objects
+     * @param starts Start positions of the leaves
+     * @param ends End positions of the leaves
+     * @param size Number of leaves
+     */
+    CodeBlockIndex(CodeBlock[] leaves, int[] starts, int[] ends, int size) {
+        this.leaves = leaves;
+        this.size = size;
+        this.starts = starts;
+        this.ends = ends;
+        boolean sorted = true;
+        for (int i = 1; i < size; i++) {
+            if (starts[i] < ends[i - 1]) sorted = false;
+        }
+        this.sorted = sorted;
+    }
+
+    /**
+     * Build the index of a code blocks tree
+     * @param blocks Root blocks
+     * @return Index of the leaf blocks
+     */
+    public static CodeBlockIndex build(ArrayList<CodeBlock> blocks) {
+        ArrayList<CodeBlock> leaves = new ArrayList<>();
+        addLeaves(blocks, leaves);
+        int size = leaves.size();
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = leaves.get(i).getStart();
+            ends[i] = leaves.get(i).getEnd();
+        }
+        return new CodeBlockIndex(leaves.toArray(new CodeBlock[0]), starts, ends, size);
+    }
+
+    private static void addLeaves(ArrayList<CodeBlock> blocks, ArrayList<CodeBlock> leaves) {
+        for (CodeBlock block : blocks) {
+            if (block.injected) continue;
+            if (block.hasChildren()) {
+                addLeaves(block.subBlocks, leaves);
+            } else {
+                leaves.add(block);
+            }
+        }
+    }
+
+    /**
+     * Return the leaf block which contains a part of the source code
+     * (the first one in tree order if several blocks contain it)
+     * @param start Start index character
+     * @param end End index character
+     * @return Block if found, otherwise null
+     */
+    public CodeBlock getBlockBetween(int start, int end) {
+        int index = indexOf(start, end);
+        return (index >= 0) ? leaves[index] : null;
+    }
+
+    /**
+     * Return the index of the leaf which contains a part of the source code
+     * (the first one in tree order if several leaves contain it)
+     * @param start Start index character
+     * @param end End index character
+     * @return Index of the leaf (tree order), or -1 if not found
+     */
+    int indexOf(int start, int end) {
+        if (!sorted) {
+            for (int i = 0; i < size; i++) {
+                if (starts[i] <= start && end <= ends[i]) return i;
+            }
+            return -1;
+        }
+
+        // Last leaf starting before the searched part:
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= start) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found >= 0 && end <= ends[found]) return found;
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.chrisney.enigma.parser;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+
+/**
+ * Registry of all code blocks of a tree by type, built in one walk of the tree.
+ * Blocks are kept in tree order (depth-first, parent before children), for all types and by type.
+ * @author Christopher Ney
+ */
+public class CodeBlockRegistry {
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * All blocks (tree order)
+     */
+    private final ArrayList<CodeBlock> blocks = new ArrayList<>();
+
+    /**
+     * Indexes (in the blocks list) of the blocks of each type
+     */
+    private final EnumMap<CodeBlock.BlockType, int[]> indexesByType = new EnumMap<>(CodeBlock.BlockType.class);
+    private final EnumMap<CodeBlock.BlockType, Integer> countByType = new EnumMap<>(CodeBlock.BlockType.class);
+
+    /**
+     * Build the registry of a code blocks tree
+     * @param rootBlocks Root blocks
+     * @return Registry of the blocks
+     */
+    public static CodeBlockRegistry build(ArrayList<CodeBlock> rootBlocks) {
+        CodeBlockRegistry registry = new CodeBlockRegistry();
+        registry.addAll(rootBlocks);
+        return registry;
+    }
+
+    private void addAll(ArrayList<CodeBlock> list) {
+        for (CodeBlock block : list) {
+            add(block);
+            if (block.hasChildren()) addAll(block.subBlocks);
+        }
+    }
+
+    private void add(CodeBlock block) {
+        int[] indexes = indexesByType.get(block.type);
+        int count = countByType.getOrDefault(block.type, 0);
+        if (indexes == null) {
+            indexes = new int[8];
+        } else if (count == indexes.length) {
+            int[] a = new int[count * 2];
+            System.arraycopy(indexes, 0, a, 0, count);
+            indexes = a;
+        }
+        indexes[count] = blocks.size();
+        indexesByType.put(block.type, indexes);
+        countByType.put(block.type, count + 1);
+        blocks.add(block);
+    }
+
+    /**
+     * Return all blocks
+     * @return Code blocks (tree order)
+     */
+    public ArrayList<CodeBlock> getAll() {
+        return new ArrayList<>(blocks);
+    }
+
+    /**
+     * Return the blocks of a type
+     * @param type Type of blocks
+     * @return Code blocks (tree order)
+     */
+    public ArrayList<CodeBlock> get(CodeBlock.BlockType type) {
+        int count = countByType.getOrDefault(type, 0);
+        int[] indexes = indexesByType.getOrDefault(type, EMPTY);
+        ArrayList<CodeBlock> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(blocks.get(indexes[i]));
+        return result;
+    }
+
+    /**
+     * Return the blocks of several types
+     * @param types Types of blocks
+     * @return Code blocks (tree order)
+     */
+    public ArrayList<CodeBlock> get(CodeBlock.BlockType[] types) {
+        if (types.length == 1) return get(types[0]);
+
+        // Merge the sorted indexes of each type:
+        int[][] indexes = new int[types.length][];
+        int[] counts = new int[types.length];
+        int[] positions = new int[types.length];
+        int total = 0;
+        for (int t = 0; t < types.length; t++) {
+            boolean duplicate = false;
+            for (int u = 0; u < t; u++) duplicate |= (types[u] == types[t]);
+            indexes[t] = indexesByType.getOrDefault(types[t], EMPTY);
+            counts[t] = duplicate ? 0 : countByType.getOrDefault(types[t], 0);
+            total += counts[t];
+        }
+        ArrayList<CodeBlock> result = new ArrayList<>(total);
+        for (int n = 0; n < total; n++) {
+            int next = -1;
+            for (int t = 0; t < types.length; t++) {
+                if (positions[t] < counts[t] && (next == -1 || indexes[t][positions[t]] < indexes[next][positions[next]])) {
+                    next = t;
+                }
+            }
+            result.add(blocks.get(indexes[next][positions[next]++]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Represent a modification of the source code: the characters [offset, offset + length[ of the
+ * original source code are replaced by a new value (insertion if length is 0)
+ */
+public class CodeEdit {
+
+    /**
+     * Start position in the original source code
+     */
+    public final int offset;
+
+    /**
+     * Number of characters replaced (0 for an insertion)
+     */
+    public final int length;
+
+    /**
+     * New value
+     */
+    public final String replacement;
+
+    /**
+     * Constructor
+     * @param offset Start position in the original source code
+     * @param length Number of characters replaced
+     * @param replacement New value
+     */
+    public CodeEdit(int offset, int length, String replacement) {
+        this.offset = offset;
+        this.length = length;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Indicate if the edit is an insertion (no character replaced)
+     * @return True if insertion
+     */
+    public boolean isInsertion() {
+        return length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + (offset + length) + "] '" + replacement + "'";
+    }
+}
@@ -0,0 +1,274 @@
+package com.chrisney.enigma.parser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * List of modifications of a source code, sorted by position and applied in one pass.
+ * Edits at the same position are applied in the list order: insertions first, then replacement.
+ * The replaced ranges never overlap: an edit overlapping another one is rejected when added.
+ * The positions in the modified source code are computed from the original positions in O(log n)
+ * (see {@link #getNewPosition(int)}), whatever the number of edits.
+ * @author Christopher Ney
+ */
+public class CodeEdits {
+
+    /**
+     * Edits sorted by position
+     */
+    private final ArrayList<CodeEdit> edits = new ArrayList<>();
+
+    /**
+     * Shifts of the original positions by the edits (null until the first position requested)
+     */
+    private PositionShifts shifts = null;
+
+    /**
+     * Replace a part of the source code
+     * @param offset Start position in the original source code
+     * @param length Number of characters replaced
+     * @param replacement New value
+     * @return Edit
+     */
+    public CodeEdit replace(int offset, int length, String replacement) {
+        return add(indexAfter(offset, true), new CodeEdit(offset, length, replacement));
+    }
+
+    /**
+     * Insert code at a position, after the codes already inserted at the same position
+     * @param offset Position in the original source code
+     * @param code Code to insert
+     * @return Edit
+     */
+    public CodeEdit insert(int offset, String code) {
+        return add(indexAfter(offset, false), new CodeEdit(offset, 0, code));
+    }
+
+    /**
+     * Insert code at a position, before the codes already inserted at the same position
+     * @param offset Position in the original source code
+     * @param code Code to insert
+     * @return Edit
+     */
+    public CodeEdit insertFirst(int offset, String code) {
+        return add(indexBefore(offset), new CodeEdit(offset, 0, code));
+    }
+
+    /**
+     * Insert code just before an inserted code
+     * @param edit Insertion edit
+     * @param code Code to insert
+     * @return Edit
+     */
+    public CodeEdit insertBefore(CodeEdit edit, String code) {
+        return add(indexOf(edit), new CodeEdit(edit.offset, 0, code));
+    }
+
+    /**
+     * Insert code just after an inserted code
+     * @param edit Insertion edit
+     * @param code Code to insert
+     * @return Edit
+     */
+    public CodeEdit insertAfter(CodeEdit edit, String code) {
+        return add(indexOf(edit) + 1, new CodeEdit(edit.offset, 0, code));
+    }
+
+    /**
+     * Return the edits, sorted by position
+     * @return Edits
+     */
+    public ArrayList<CodeEdit> getEdits() {
+        return new ArrayList<>(edits);
+    }
+
+    /**
+     * Indicate if the source code is modified or not
+     * @return True if no edit
+     */
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    /**
+     * Return the position in the modified source code of an original character, after the codes inserted at
+     * its position (the start of a replaced range is the start of its replacement: use {@link #getNewEnd(int)}
+     * for the end of a range)
+     * @param position Position in the original source code
+     * @return Position in the modified source code
+     */
+    public int getNewPosition(int position) {
+        return position + getShifts().getShift(position);
+    }
+
+    /**
+     * Return the end position in the modified source code of an original range: the edits inside the range
+     * are included, the insertions at the end position are not
+     * @param end End position in the original source code (excluded)
+     * @return End position in the modified source code (excluded)
+     */
+    public int getNewEnd(int end) {
+        return end + getShifts().getShift(end - 1);
+    }
+
+    /**
+     * Return the position in the modified source code of the code of an edit
+     * @param edit Edit
+     * @return Start position of the replacement in the modified source code
+     */
+    public int getNewPosition(CodeEdit edit) {
+        int index = indexOf(edit);
+        int position = getNewEnd(edit.offset);
+        // Codes inserted before at the same position:
+        for (int i = indexBefore(edit.offset); i < index; i++) {
+            position += edits.get(i).replacement.length() - edits.get(i).length;
+        }
+        return position;
+    }
+
+    /**
+     * Apply all edits to a part of the original source code, in one pass.
+     * An edit outside of the part is ignored.
+     * The source code is copied by ranges, without intermediate String.
+     * @param source Original source code
+     * @param end End of the part of the source code [0, end[
+     * @param out Output
+     * @throws IOException Output error
+     */
+    public void apply(String source, int end, Appendable out) throws IOException {
+        int position = 0;
+        for (CodeEdit edit : edits) {
+            if (edit.offset + edit.length > end) continue;
+            append(out, source, position, edit.offset);
+            out.append(edit.replacement);
+            position = edit.offset + edit.length;
+        }
+        append(out, source, position, end);
+    }
+
+    /**
+     * Apply all edits to the original source code
+     * @param source Original source code
+     * @return Modified source code
+     */
+    public String apply(String source) {
+        StringBuilder sb = new StringBuilder(source.length() + 16 * edits.size());
+        try {
+            apply(source, source.length(), sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append a part of a String value, without copy when the output is a Writer
+     * @param out Output
+     * @param source String value
+     * @param from From index (included)
+     * @param to To index (excluded)
+     * @throws IOException Output error
+     */
+    static void append(Appendable out, String source, int from, int to) throws IOException {
+        if (from >= to) return;
+        if (out instanceof Writer) {
+            ((Writer) out).write(source, from, to - from);
+        } else {
+            out.append(source, from, to);
+        }
+    }
+
+    /**
+     * Add an edit at an index of the list
+     * @param index Index in the list
+     * @param edit Edit
+     * @return Edit
+     * @throws IllegalArgumentException If the edit overlaps the previous or the next edit: a replaced range
+     * can't intersect another one, nor contain an insertion (except at its start or end)
+     */
+    private CodeEdit add(int index, CodeEdit edit) {
+        // The edits before never overlap: only the nearest ones can
+        if (index > 0) checkOverlap(edits.get(index - 1), edit);
+        if (index < edits.size()) checkOverlap(edit, edits.get(index));
+        if (index == edits.size()) {
+            edits.add(edit);
+        } else {
+            edits.add(index, edit);
+        }
+        if (shifts != null) addShift(shifts, edit);
+        return edit;
+    }
+
+    private static void checkOverlap(CodeEdit previous, CodeEdit next) {
+        if (previous.offset + previous.length > next.offset) {
+            throw new IllegalArgumentException("Overlapping edits: " + previous + " and " + next);
+        }
+    }
+
+    /**
+     * Return the shifts of the positions, built from the edits on the first call, then updated by each edit
+     * @return Shifts of the original positions
+     */
+    private PositionShifts getShifts() {
+        if (shifts == null) {
+            int length = edits.isEmpty() ? 0 : edits.get(edits.size() - 1).offset + edits.get(edits.size() - 1).length;
+            shifts = new PositionShifts(length);
+            for (CodeEdit edit : edits) addShift(shifts, edit);
+        }
+        return shifts;
+    }
+
+    /**
+     * Add the shift of an edit: an insertion shifts its position, a replacement shifts the positions after
+     * its last replaced character
+     * @param shifts Shifts of the positions
+     * @param edit Edit
+     */
+    private static void addShift(PositionShifts shifts, CodeEdit edit) {
+        int delta = edit.replacement.length() - edit.length;
+        shifts.add(edit.isInsertion() ? edit.offset : edit.offset + edit.length - 1, delta);
+    }
+
+    /**
+     * Return the index of the first edit at or after a position
+     * @param offset Position
+     * @return Index in the list
+     */
+    private int indexBefore(int offset) {
+        int low = 0;
+        int high = edits.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (edits.get(middle).offset < offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Return the index after the insertions (and replacements if requested) at a position
+     * @param offset Position
+     * @param afterReplacements True to skip the replacements at the position too
+     * @return Index in the list
+     */
+    private int indexAfter(int offset, boolean afterReplacements) {
+        int size = edits.size();
+        // Fast path: edits are mostly added in order
+        if (size == 0 || edits.get(size - 1).offset < offset) return size;
+        int index = indexBefore(offset);
+        while (index < size) {
+            CodeEdit edit = edits.get(index);
+            if (edit.offset != offset || (!afterReplacements && !edit.isInsertion())) break;
+            index++;
+        }
+        return index;
+    }
+
+    private int indexOf(CodeEdit edit) {
+        for (int i = indexBefore(edit.offset); i < edits.size(); i++) {
+            if (edits.get(i) == edit) return i;
+        }
+        throw new IllegalArgumentException("Unknown edit: " + edit);
+    }
+}
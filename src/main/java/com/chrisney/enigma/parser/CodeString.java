@@ -1,14 +1,54 @@
 package com.chrisney.enigma.parser;
 
 /**
- * Represent a keyword a JAVA code
+ * Represent a keyword a JAVA code.
+ * The word only holds its positions in the source code: its value is read from the source code on demand
+ * (see {@link #getValue()}). If the words are dropped after the parsing (see {@link JavaParser#keepWords}), the
+ * words of one character (punctuation, spaces) are shared instances while parsing (see {@link #ofChar(char)}).
  */
 public class CodeString {
 
     /**
-     * Word value
+     * Position of the shared words of one character (they can be found at many positions)
      */
-    public String value;
+    public static final int NO_POSITION = -1;
+
+    /**
+     * Shared words of single ASCII characters (punctuation and spaces words)
+     */
+    private static final CodeString[] charWords = new CodeString[128];
+
+    static {
+        for (char c = 0; c < charWords.length; c++) charWords[c] = new SharedChar(c);
+    }
+
+    /**
+     * Shared word of one character: its value can't be changed
+     */
+    private static final class SharedChar extends CodeString {
+
+        SharedChar(char c) {
+            super(NO_POSITION);
+            end = NO_POSITION;
+            super.setValue(String.valueOf(c));
+        }
+
+        @Override
+        public void setValue(String value) {
+            throw new UnsupportedOperationException("Shared word of one character");
+        }
+    }
+
+    /**
+     * Source code containing the word (null if the value is set), and its index for the position 0
+     */
+    private String source;
+    private int origin;
+
+    /**
+     * Word value (null if read from the source code)
+     */
+    private String value;
 
     /**
      * Word start position
@@ -43,8 +83,113 @@ public class CodeString {
         this.start = start;
     }
 
+    /**
+     * Constructor of a word read from a source code
+     * @param source Source code
+     * @param origin Index in the source code of the position 0 (example: window start)
+     * @param start Word start position
+     * @param end Word end position
+     */
+    public CodeString(String source, int origin, int start, int end) {
+        this.source = source;
+        this.origin = origin;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Return the shared word of one character (punctuation, space...): its positions are {@link #NO_POSITION}.
+     * The shared words are never exposed by the blocks (their words are dropped at the end of the parsing).
+     * @param c Character
+     * @return Word of the character
+     */
+    static CodeString ofChar(char c) {
+        if (c < charWords.length) return charWords[c];
+        CodeString word = new CodeString(NO_POSITION);
+        word.end = NO_POSITION;
+        word.value = String.valueOf(c);
+        return word;
+    }
+
+    /**
+     * Return the word value (a new String for each call if read from the source code)
+     * @return Word value
+     */
+    public String getValue() {
+        if (value == null && source != null) return source.substring(origin + start, origin + end);
+        return value;
+    }
+
+    /**
+     * Set the word value (the value is no more read from the source code)
+     * @param value Word value
+     */
+    public void setValue(String value) {
+        this.value = value;
+        this.source = null;
+    }
+
+    /**
+     * @return Number of characters of the word value
+     */
+    public int length() {
+        if (value != null) return value.length();
+        return (source != null) ? end - start : 0;
+    }
+
+    /**
+     * Character of the word value
+     * @param index Index in the word value
+     * @return Character
+     */
+    public char charAt(int index) {
+        if (value != null) return value.charAt(index);
+        return source.charAt(origin + start + index);
+    }
+
+    /**
+     * Compare the word value, without reading it
+     * @param s String to compare
+     * @return True if the word value is equal to the String
+     */
+    public boolean equalsValue(String s) {
+        if (value != null) return value.equals(s);
+        return source != null && s.length() == end - start && source.startsWith(s, origin + start);
+    }
+
+    /**
+     * Compare the word value ignoring the case, without reading it
+     * @param s String to compare
+     * @return True if the word value is equal to the String, ignoring the case
+     */
+    public boolean equalsValueIgnoreCase(String s) {
+        if (value != null) return value.equalsIgnoreCase(s);
+        return source != null && s.length() == end - start && source.regionMatches(true, origin + start, s, 0, s.length());
+    }
+
+    /**
+     * Test the start of the word value, without reading it
+     * @param prefix Prefix
+     * @return True if the word value starts with the prefix
+     */
+    public boolean startsWith(String prefix) {
+        if (value != null) return value.startsWith(prefix);
+        return source != null && prefix.length() <= end - start && source.startsWith(prefix, origin + start);
+    }
+
+    /**
+     * @return True if the word value is null, empty or only made of spaces
+     */
+    public boolean isBlank() {
+        int length = length();
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
     @Override
     public String toString() {
-        return "[" + start + ", " + end + "] '" + value + "'";
+        return "[" + start + ", " + end + "] '" + getValue() + "'";
     }
 }
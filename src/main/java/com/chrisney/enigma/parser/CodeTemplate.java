@@ -0,0 +1,223 @@
+package com.chrisney.enigma.parser;
+
+import com.chrisney.enigma.utils.SmartArrayList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snippet of JAVA code parsed only once, then cloned with parameters values for each injection.
+ * Parameters are written $1 to $9 in the snippet (example: "public static final String $1 = \"$2\";"),
+ * they must be placed where the parsing doesn't depend on their value (names, String values...).
+ * @author Christopher Ney
+ */
+public class CodeTemplate {
+
+    /**
+     * Maximum number of templates kept in cache
+     */
+    private static final int MAX_TEMPLATES = 64;
+
+    /**
+     * Parsed templates (least recently used are removed first)
+     */
+    private static final Map<String, CodeTemplate> templates = new LinkedHashMap<String, CodeTemplate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CodeTemplate> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+    };
+
+    /**
+     * Source code of the snippet (with parameters)
+     */
+    private final String pattern;
+
+    /**
+     * Positions and indexes (0 for $1) of the parameters in the snippet, sorted by position
+     */
+    private final int[] parameterPositions;
+    private final int[] parameterIndexes;
+
+    /**
+     * Number of parameters
+     */
+    private final int parameterCount;
+
+    /**
+     * Parsed snippet (prototype, never modified)
+     */
+    private final ArrayList<CodeBlock> blocks;
+
+    /**
+     * Constructor
+     * @param pattern Source code of the snippet
+     * @param parameterCount Number of parameters ($1 to $9)
+     */
+    private CodeTemplate(String pattern, int parameterCount) {
+        if (parameterCount < 0 || parameterCount > 9) {
+            throw new IllegalArgumentException("Invalid number of parameters: " + parameterCount);
+        }
+        this.pattern = pattern;
+        this.parameterCount = parameterCount;
+
+        int count = 0;
+        int[] positions = new int[4];
+        int[] indexes = new int[4];
+        for (int i = 0; parameterCount > 0 && i + 1 < pattern.length(); i++) {
+            int index = getParameterIndex(pattern, i);
+            if (index >= 0) {
+                if (count == positions.length) {
+                    int[] p = new int[count * 2];
+                    int[] x = new int[count * 2];
+                    System.arraycopy(positions, 0, p, 0, count);
+                    System.arraycopy(indexes, 0, x, 0, count);
+                    positions = p;
+                    indexes = x;
+                }
+                positions[count] = i;
+                indexes[count] = index;
+                count++;
+                i++;
+            }
+        }
+        this.parameterPositions = new int[count];
+        this.parameterIndexes = new int[count];
+        System.arraycopy(positions, 0, parameterPositions, 0, count);
+        System.arraycopy(indexes, 0, parameterIndexes, 0, count);
+
+        JavaParser javaParser = new JavaParser();
+        this.blocks = javaParser.parse(pattern).getRootBlocks();
+    }
+
+    /**
+     * Return the template of a snippet (parsed only at the first call)
+     * @param pattern Source code of the snippet, with parameters $1 to $9
+     * @param parameterCount Number of parameters (0 if the snippet must be used as it)
+     * @return Template
+     */
+    public static CodeTemplate get(String pattern, int parameterCount) {
+        String key = parameterCount + ":" + pattern;
+        synchronized (templates) {
+            CodeTemplate template = templates.get(key);
+            if (template == null) {
+                template = new CodeTemplate(pattern, parameterCount);
+                templates.put(key, template);
+            }
+            return template;
+        }
+    }
+
+    /**
+     * Create a new code from the template
+     * @param values Values of the parameters ($1, $2...)
+     * @return Code blocks of the snippet
+     */
+    public JavaCode newCode(String... values) {
+        if (values.length != parameterCount) {
+            throw new IllegalArgumentException("Expected " + parameterCount + " parameters, found " + values.length);
+        }
+        String source = replaceParameters(pattern, 0, pattern.length(), values);
+        ArrayList<CodeBlock> result = new ArrayList<>(blocks.size());
+        for (CodeBlock block : blocks) result.add(copy(block, null, source, values));
+        return new JavaCode(result, new ArrayList<>(), source);
+    }
+
+    /**
+     * Copy a block of the template (and its sub blocks) for the source code with the parameters values
+     * @param block Block of the template
+     * @param parentCopy Copy of the parent block (null for root blocks)
+     * @param source Source code with the parameters values
+     * @param values Values of the parameters
+     * @return Copy of the block
+     */
+    private CodeBlock copy(CodeBlock block, CodeBlock parentCopy, String source, String[] values) {
+        CodeBlock c = new CodeBlock();
+        int start = block.getStart();
+        c.offset = mapPosition(block.offset, values);
+        c.start = mapPosition(start, values) - c.offset;
+        c.end = mapPosition(block.getEnd(), values) - c.offset;
+        c.innerOffset = (parentCopy != null) ? c.offset - parentCopy.getStart() : block.innerOffset;
+        c.setCode(source, c.getStart(), c.getEnd());
+        c.name = replaceParameters(block.name, values);
+        c.returnType = replaceParameters(block.returnType, values);
+        c.type = block.type;
+        c.parentType = block.parentType;
+        c.modifier = block.modifier;
+        c.hasParent = block.hasParent;
+
+        for (CodeString word : block.words) {
+            CodeString w = new CodeString(source, c.offset, mapPosition(block.offset + word.start, values) - c.offset,
+                    mapPosition(block.offset + word.end, values) - c.offset);
+            w.isInstruction = word.isInstruction;
+            w.isType = word.isType;
+            w.isCaseValue = word.isCaseValue;
+            c.words.add(w);
+        }
+
+        if (block.subIndexes != null) {
+            int copyStart = c.getStart();
+            c.subIndexes = new SmartArrayList<>();
+            for (CodePosition position : block.subIndexes) {
+                c.subIndexes.add(new CodePosition(mapPosition(start + position.start, values) - copyStart,
+                        mapPosition(start + position.end, values) - copyStart));
+            }
+        }
+
+        for (CodeBlock subBlock : block.subBlocks) c.subBlocks.add(copy(subBlock, c, source, values));
+        return c;
+    }
+
+    /**
+     * Convert a position in the snippet to the position in the source code with the parameters values
+     * @param position Position in the snippet
+     * @param values Values of the parameters
+     * @return Position in the source code with the parameters values
+     */
+    private int mapPosition(int position, String[] values) {
+        int shift = 0;
+        for (int i = 0; i < parameterPositions.length && parameterPositions[i] + 2 <= position; i++) {
+            shift += values[parameterIndexes[i]].length() - 2;
+        }
+        return position + shift;
+    }
+
+    /**
+     * Replace the parameters of a String value (name, word...) in one pass
+     * @param value String value (can be null)
+     * @param values Values of the parameters
+     * @return String value with the parameters values
+     */
+    private String replaceParameters(String value, String[] values) {
+        if (value == null || parameterCount == 0 || value.indexOf('$') < 0) return value;
+        return replaceParameters(value, 0, value.length(), values);
+    }
+
+    private String replaceParameters(String value, int from, int to, String[] values) {
+        if (parameterCount == 0) return value.substring(from, to);
+        StringBuilder sb = new StringBuilder(to - from + 32);
+        for (int i = from; i < to; i++) {
+            int index = (i + 1 < to) ? getParameterIndex(value, i) : -1;
+            if (index >= 0) {
+                sb.append(values[index]);
+                i++;
+            } else {
+                sb.append(value.charAt(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the parameter index at a position of a String value
+     * @param value String value
+     * @param i Position
+     * @return Index of the parameter (0 for $1), or -1 if there is no parameter at this position
+     */
+    private int getParameterIndex(String value, int i) {
+        if (value.charAt(i) != '$') return -1;
+        int index = value.charAt(i + 1) - '1';
+        return (index >= 0 && index < parameterCount) ? index : -1;
+    }
+}
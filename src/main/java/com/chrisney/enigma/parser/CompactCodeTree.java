@@ -0,0 +1,524 @@
+package com.chrisney.enigma.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact representation of a code blocks tree (struct of arrays): each block is a node, an int identifier,
+ * and its properties are stored in primitive arrays instead of a {@link CodeBlock} object with its lists.
+ * The node {@link #ROOT} is the whole source code, its children are the root blocks. The parsed nodes are
+ * numbered in tree order (parent before children), the injected nodes are appended and linked at their position.
+ * Positions are characters indexes in the source code (start included, end excluded).
+ * The tree is read with the nodes identifiers, or with a {@link Cursor}.
+ * @author Christopher Ney
+ */
+public class CompactCodeTree {
+
+    /**
+     * Node of the whole source code (parent of the root blocks)
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Value for no node (and no position)
+     */
+    public static final int NONE = -1;
+
+    private static final CodeBlock.BlockType[] blockTypes = CodeBlock.BlockType.values();
+    private static final CodeBlock.Modifier[] modifierValues = CodeBlock.Modifier.values();
+
+    /**
+     * Number of nodes
+     */
+    private int size = 0;
+
+    /**
+     * Positions of the nodes in the source code (NONE for the injected nodes)
+     */
+    private int[] starts;
+    private int[] ends;
+
+    /**
+     * Types and modifiers (ordinal values, -1 for no modifier) of the nodes
+     */
+    private byte[] types;
+    private byte[] modifiers;
+
+    /**
+     * Links between the nodes (NONE if no node)
+     */
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+
+    /**
+     * Names and returned types of the nodes (null for most of them)
+     */
+    private String[] names;
+    private String[] returnTypes;
+
+    /**
+     * Blocks of the injected nodes (code and insertion edit)
+     */
+    private final HashMap<Integer, CodeBlock> injectedBlocks = new HashMap<>();
+
+    /**
+     * Index of the leaf nodes by position (built on demand, reset when nodes are injected)
+     */
+    private CodeBlockIndex leafIndex = null;
+    private int[] leafNodes = null;
+
+    /**
+     * Constructor
+     * @param sourceLength Length of the source code
+     * @param capacity Expected number of blocks
+     */
+    CompactCodeTree(int sourceLength, int capacity) {
+        capacity = Math.max(capacity + 1, 16);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        types = new byte[capacity];
+        modifiers = new byte[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        names = new String[capacity];
+        returnTypes = new String[capacity];
+        newNode(NONE, 0, sourceLength, CodeBlock.BlockType.Undefined, null, null, null);
+    }
+
+    /**
+     * Build the compact tree of a code blocks tree
+     * @param blocks Root blocks
+     * @param sourceLength Length of the source code
+     * @return Compact tree
+     */
+    public static CompactCodeTree build(ArrayList<CodeBlock> blocks, int sourceLength) {
+        CompactCodeTree tree = new CompactCodeTree(sourceLength, count(blocks));
+        tree.addAll(ROOT, blocks);
+        return tree;
+    }
+
+    private static int count(ArrayList<CodeBlock> blocks) {
+        int count = blocks.size();
+        for (CodeBlock block : blocks) {
+            if (!block.injected) count += count(block.subBlocks);
+        }
+        return count;
+    }
+
+    private void addAll(int parent, ArrayList<CodeBlock> blocks) {
+        for (CodeBlock block : blocks) {
+            if (block.injected) {
+                addInjected(parent, lastChildren[parent], block);
+            } else {
+                int node = add(parent, block.getStart(), block.getEnd(), block.type, block.modifier, block.name, block.returnType);
+                addAll(node, block.subBlocks);
+            }
+        }
+    }
+
+    /**
+     * Add a parsed block as the last child of a node
+     * @param parent Parent node
+     * @param start Start position
+     * @param end End position
+     * @param type Block type
+     * @param modifier Modifier (can be null)
+     * @param name Name (can be null)
+     * @param returnType Returned type (can be null)
+     * @return New node
+     */
+    int add(int parent, int start, int end, CodeBlock.BlockType type, CodeBlock.Modifier modifier, String name, String returnType) {
+        int node = newNode(parent, start, end, type, modifier, name, returnType);
+        link(node, parent, lastChildren[parent]);
+        return node;
+    }
+
+    /**
+     * Add an injected block (without position in the source code)
+     * @param parent Parent node
+     * @param previous Previous sibling node, or NONE to add the block as the first child
+     * @param block Injected block
+     * @return New node
+     */
+    int addInjected(int parent, int previous, CodeBlock block) {
+        int node = newNode(parent, NONE, NONE, block.type, block.modifier, block.name, block.returnType);
+        link(node, parent, previous);
+        injectedBlocks.put(node, block);
+        leafIndex = null;
+        leafNodes = null;
+        return node;
+    }
+
+    private int newNode(int parent, int start, int end, CodeBlock.BlockType type, CodeBlock.Modifier modifier,
+                        String name, String returnType) {
+        if (size == starts.length) grow();
+        int node = size++;
+        starts[node] = start;
+        ends[node] = end;
+        types[node] = (byte) type.ordinal();
+        modifiers[node] = (byte) ((modifier != null) ? modifier.ordinal() : -1);
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        names[node] = name;
+        returnTypes[node] = returnType;
+        return node;
+    }
+
+    /**
+     * Link a node to its parent, after a sibling
+     * @param node Node
+     * @param parent Parent node
+     * @param previous Previous sibling, or NONE for the first child
+     */
+    private void link(int node, int parent, int previous) {
+        if (previous == NONE) {
+            nextSiblings[node] = firstChildren[parent];
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[node] = nextSiblings[previous];
+            nextSiblings[previous] = node;
+        }
+        if (nextSiblings[node] == NONE) lastChildren[parent] = node;
+    }
+
+    private void grow() {
+        int capacity = starts.length * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        types = Arrays.copyOf(types, capacity);
+        modifiers = Arrays.copyOf(modifiers, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        names = Arrays.copyOf(names, capacity);
+        returnTypes = Arrays.copyOf(returnTypes, capacity);
+    }
+
+    /**
+     * @return Number of nodes (root node included)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Start position of a node
+     * @param node Node
+     * @return Start position of a node (NONE if injected)
+     */
+    public int getStart(int node) {
+        return starts[node];
+    }
+
+    /**
+     * End position of a node
+     * @param node Node
+     * @return End position of a node (NONE if injected)
+     */
+    public int getEnd(int node) {
+        return ends[node];
+    }
+
+    /**
+     * Type of a node
+     * @param node Node
+     * @return Type of a node
+     */
+    public CodeBlock.BlockType getType(int node) {
+        return blockTypes[types[node]];
+    }
+
+    /**
+     * Modifier of a node
+     * @param node Node
+     * @return Modifier of a node (null if none)
+     */
+    public CodeBlock.Modifier getModifier(int node) {
+        return (modifiers[node] >= 0) ? modifierValues[modifiers[node]] : null;
+    }
+
+    /**
+     * Name of a node
+     * @param node Node
+     * @return Name of a node (class, function, import...)
+     */
+    public String getName(int node) {
+        return names[node];
+    }
+
+    /**
+     * Type name of the object returned by a function node
+     * @param node Node
+     * @return Type name of the object returned by a function node
+     */
+    public String getReturnType(int node) {
+        return returnTypes[node];
+    }
+
+    /**
+     * Parent of a node
+     * @param node Node
+     * @return Parent of a node (NONE for the root node)
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * First child of a node
+     * @param node Node
+     * @return First child of a node (NONE if no children)
+     */
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * Last child of a node
+     * @param node Node
+     * @return Last child of a node (NONE if no children)
+     */
+    public int getLastChild(int node) {
+        return lastChildren[node];
+    }
+
+    /**
+     * Next sibling of a node
+     * @param node Node
+     * @return Next sibling of a node (NONE if last child)
+     */
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * Indicate if a node has children
+     * @param node Node
+     * @return Indicate if a node has children
+     */
+    public boolean hasChildren(int node) {
+        return firstChildren[node] != NONE;
+    }
+
+    /**
+     * Indicate if a node is injected by programming (no position in the source code)
+     * @param node Node
+     * @return True if injected
+     */
+    public boolean isInjected(int node) {
+        return node != ROOT && starts[node] == NONE;
+    }
+
+    /**
+     * Return the block of an injected node
+     * @param node Node
+     * @return Injected block, or null if the node is not injected
+     */
+    CodeBlock getInjectedBlock(int node) {
+        return isInjected(node) ? injectedBlocks.get(node) : null;
+    }
+
+    /**
+     * Return the next node in tree order (parent before children)
+     * @param node Node
+     * @return Next node, or NONE at the end of the tree
+     */
+    public int next(int node) {
+        if (firstChildren[node] != NONE) return firstChildren[node];
+        while (node != ROOT) {
+            if (nextSiblings[node] != NONE) return nextSiblings[node];
+            node = parents[node];
+        }
+        return NONE;
+    }
+
+    /**
+     * Return the nodes of some types
+     * @param types Types of blocks
+     * @return Nodes (tree order)
+     */
+    public int[] getNodesByTypes(CodeBlock.BlockType... types) {
+        int[] nodes = new int[8];
+        int count = 0;
+        for (int node = next(ROOT); node != NONE; node = next(node)) {
+            byte type = this.types[node];
+            for (CodeBlock.BlockType t : types) {
+                if (t.ordinal() == type) {
+                    if (count == nodes.length) nodes = Arrays.copyOf(nodes, count * 2);
+                    nodes[count++] = node;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Return the leaf node (node without children, not injected) which contains a part of the source code
+     * (the first one in tree order if several nodes contain it)
+     * @param start Start index character
+     * @param end End index character
+     * @return Node if found, otherwise NONE
+     */
+    public int getLeafBetween(int start, int end) {
+        if (leafIndex == null) {
+            int[] leaves = new int[Math.max(size, 1)];
+            int count = 0;
+            for (int node = next(ROOT); node != NONE; node = next(node)) {
+                if (firstChildren[node] == NONE && !isInjected(node)) leaves[count++] = node;
+            }
+            int[] leafStarts = new int[count];
+            int[] leafEnds = new int[count];
+            for (int i = 0; i < count; i++) {
+                leafStarts[i] = starts[leaves[i]];
+                leafEnds[i] = ends[leaves[i]];
+            }
+            leafNodes = leaves;
+            leafIndex = new CodeBlockIndex(null, leafStarts, leafEnds, count);
+        }
+        int index = leafIndex.indexOf(start, end);
+        return (index >= 0) ? leafNodes[index] : NONE;
+    }
+
+    /**
+     * Build the code blocks of the tree (the blocks of the injected nodes are reused)
+     * @param sourceCode Source code
+     * @return Root blocks
+     */
+    public ArrayList<CodeBlock> toBlocks(String sourceCode) {
+        return toBlocks(ROOT, sourceCode);
+    }
+
+    private ArrayList<CodeBlock> toBlocks(int parent, String sourceCode) {
+        ArrayList<CodeBlock> blocks = new ArrayList<>();
+        for (int node = firstChildren[parent]; node != NONE; node = nextSiblings[node]) {
+            CodeBlock block = getInjectedBlock(node);
+            if (block == null) {
+                block = new CodeBlock();
+                if (parent == ROOT) {
+                    block.start = starts[node];
+                    block.end = ends[node];
+                } else {
+                    block.offset = starts[node];
+                    block.start = 0;
+                    block.end = ends[node] - starts[node];
+                    block.innerOffset = starts[node] - starts[parent];
+                    block.hasParent = true;
+                    block.parentType = getType(parent);
+                }
+                block.type = getType(node);
+                block.modifier = getModifier(node);
+                block.name = names[node];
+                block.returnType = returnTypes[node];
+                block.setCode(sourceCode, starts[node], ends[node]);
+                block.subBlocks.addAll(toBlocks(node, sourceCode));
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /**
+     * Return a new cursor on the root node
+     * @return Cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Cursor moving on the nodes of the tree, without allocation
+     */
+    public class Cursor {
+
+        private int node = ROOT;
+
+        /**
+         * @return Current node
+         */
+        public int getNode() {
+            return node;
+        }
+
+        /**
+         * Move to a node
+         * @param node Node
+         */
+        public void moveTo(int node) {
+            this.node = node;
+        }
+
+        /**
+         * Move to the first child of the current node
+         * @return False if the node has no children (the cursor doesn't move)
+         */
+        public boolean toFirstChild() {
+            return moveIfFound(firstChildren[node]);
+        }
+
+        /**
+         * Move to the next sibling of the current node
+         * @return False if the node is the last child (the cursor doesn't move)
+         */
+        public boolean toNextSibling() {
+            return moveIfFound(nextSiblings[node]);
+        }
+
+        /**
+         * Move to the parent of the current node
+         * @return False if the node is the root node (the cursor doesn't move)
+         */
+        public boolean toParent() {
+            return moveIfFound(parents[node]);
+        }
+
+        private boolean moveIfFound(int target) {
+            if (target == NONE) return false;
+            node = target;
+            return true;
+        }
+
+        /**
+         * @return Start position of the current node
+         */
+        public int getStart() {
+            return starts[node];
+        }
+
+        /**
+         * @return End position of the current node
+         */
+        public int getEnd() {
+            return ends[node];
+        }
+
+        /**
+         * @return Type of the current node
+         */
+        public CodeBlock.BlockType getType() {
+            return CompactCodeTree.this.getType(node);
+        }
+
+        /**
+         * @return Name of the current node
+         */
+        public String getName() {
+            return names[node];
+        }
+
+        /**
+         * @return True if the current node is injected
+         */
+        public boolean isInjected() {
+            return CompactCodeTree.this.isInjected(node);
+        }
+    }
+}
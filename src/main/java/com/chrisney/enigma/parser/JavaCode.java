@@ -5,24 +5,48 @@ import com.chrisney.enigma.utils.TextUtils;
 import com.chrisney.enigma.utils.Utils;
 import org.gradle.api.DefaultTask;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 /**
- * Map a Java file
+ * Map a Java file.
+ * A code is modified by one thread at a time; distinct codes can be transformed in parallel
+ * (the only shared state, the parsed templates of the injected code, is never modified).
  */
 public class JavaCode {
 
     /**
      * Enable or disable the position/offset update mechanism.
+     * @deprecated The positions of the blocks are never shifted: the edits are recorded at the original
+     * positions, and the positions in the generated code are computed on demand in O(log n)
+     * (see {@link #getOutputStart(CodeBlock)}, {@link #getOutputEnd(CodeBlock)} and {@link #getOutputPosition(int)}).
      */
+    @Deprecated
     public static final boolean UPDATE_OFFSETS = false;
 
     /**
-     * Root blocks of codes
+     * Templates of the injected code ($1, $2: parameters)
+     */
+    private static final String IMPORT_TEMPLATE = "\nimport $1;";
+    private static final String FAKE_ATTRIBUTE_TEMPLATE = "\n\n    public static final String $1 = \"$2\";";
+    private static final String PRIVATE_FAKE_ATTRIBUTE_TEMPLATE = "\n\n    private static final String $1 = \"$2\";";
+    private static final String FAKE_CODE_TEMPLATE = "\n        if ($1.isEmpty()) $1.getClass().toString();";
+
+    /**
+     * Root blocks of codes (null while the blocks are a compact tree)
      */
     private ArrayList<CodeBlock> rootCodeBlocks;
 
+    /**
+     * Compact tree of the blocks (null if the blocks are CodeBlock objects): the String values encryption,
+     * the code injection and the code generation run directly on it. The CodeBlock objects are built only if
+     * they are requested (see {@link #getAllBlocks()}), then the compact tree is dropped.
+     */
+    private CompactCodeTree compactTree = null;
+
     /**
      * All String values
      */
@@ -33,6 +57,39 @@ public class JavaCode {
      */
     private String sourceCode;
 
+    /**
+     * Index of the leaf blocks by position (built on demand, reset when blocks are added)
+     */
+    private CodeBlockIndex blockIndex = null;
+
+    /**
+     * Registry of the blocks by type (built on demand, reset when blocks are added)
+     */
+    private CodeBlockRegistry blockRegistry = null;
+
+    /**
+     * Modifications of the source code (injected code and encrypted String values), applied by {@link #toCode()}
+     */
+    private final CodeEdits edits = new CodeEdits();
+
+    /**
+     * Minimum size (characters) of a source code whose String values are encrypted in parallel,
+     * 0 to always encrypt sequentially
+     */
+    public int parallelThreshold = JavaParser.DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * ABI neutral injection: the fake attribute is private and injected into a class (not an interface), the fake
+     * code into a function of this class. The public and protected members of the classes are unchanged: the
+     * dependent classes are not compiled again.
+     */
+    public boolean abiNeutral = false;
+
+    /**
+     * Result of the check of the parsing (see {@link ParserEngines#checkRoundTrip(JavaCode)}), null if not checked
+     */
+    Boolean roundTrip = null;
+
     /**
      * Constructor
      * @param blocks Blocks of codes
@@ -45,6 +102,90 @@ public class JavaCode {
         this.sourceCode = sourceCode;
     }
 
+    /**
+     * Constructor
+     * @param tree Compact tree of the blocks of codes
+     * @param strings String values
+     * @param sourceCode Original source code
+     */
+    public JavaCode(CompactCodeTree tree, ArrayList<CodeString> strings, String sourceCode) {
+        this.compactTree = tree;
+        this.codeStrings = strings;
+        this.sourceCode = sourceCode;
+    }
+
+    /**
+     * Original source code
+     * @return Source code
+     */
+    public String getSourceCode() {
+        return this.sourceCode;
+    }
+
+    /**
+     * Root blocks of codes (built from the compact tree if needed)
+     * @return Root blocks
+     */
+    ArrayList<CodeBlock> getRootBlocks() {
+        if (compactTree != null) {
+            rootCodeBlocks = compactTree.toBlocks(sourceCode);
+            compactTree = null;
+            resetIndexes();
+        }
+        return this.rootCodeBlocks;
+    }
+
+    /**
+     * Compact tree of the blocks of codes
+     * @return Compact tree, or null if the blocks are CodeBlock objects
+     */
+    public CompactCodeTree getCompactTree() {
+        return this.compactTree;
+    }
+
+    /**
+     * Modifications of the source code (applied by {@link #toCode()})
+     * @return Edits
+     */
+    public CodeEdits getEdits() {
+        return this.edits;
+    }
+
+    /**
+     * Return the position in the generated code (see {@link #toCode()}) of a character of the source code
+     * @param position Position in the source code
+     * @return Position in the generated code
+     */
+    public int getOutputPosition(int position) {
+        return edits.getNewPosition(position);
+    }
+
+    /**
+     * Return the start position of a block in the generated code (see {@link #toCode()})
+     * @param block Block (original or injected)
+     * @return Start position in the generated code, or -1 if the block has no position (not injected)
+     */
+    public int getOutputStart(CodeBlock block) {
+        if (block.injected) {
+            if (block.injection == null) return -1;
+            return edits.getNewPosition(block.injection);
+        }
+        return edits.getNewPosition(block.getStart());
+    }
+
+    /**
+     * Return the end position of a block in the generated code (see {@link #toCode()})
+     * @param block Block (original or injected)
+     * @return End position (excluded) in the generated code, or -1 if the block has no position (not injected)
+     */
+    public int getOutputEnd(CodeBlock block) {
+        if (block.injected) {
+            if (block.injection == null) return -1;
+            return edits.getNewPosition(block.injection) + block.injection.replacement.length();
+        }
+        return edits.getNewEnd(block.getEnd());
+    }
+
     /**
      * All String values
      * @return String values
@@ -58,44 +199,35 @@ public class JavaCode {
      * @return Code blocks
      */
     public ArrayList<CodeBlock> getAllBlocks() {
-        return this.getAllBlocks(this.rootCodeBlocks);
+        return getBlockRegistry().getAll();
     }
 
     /**
-     * Return all code blocks
-     * @param blocks blocks
-     * @return Code blocks
+     * Return the registry of the blocks by type
+     * @return Registry of the blocks
      */
-    private ArrayList<CodeBlock> getAllBlocks(ArrayList<CodeBlock> blocks) {
-        if (blocks == null) return null;
-        ArrayList<CodeBlock> result = new ArrayList<>();
-        for (CodeBlock block : blocks) {
-            result.add(block);
-            if (Utils.arrayNotEmpty(block.subBlocks)) {
-                ArrayList<CodeBlock> r = getAllBlocks(block.subBlocks);
-                if (Utils.arrayNotEmpty(r)) result.addAll(r);
-            }
-        }
-        return result;
+    private CodeBlockRegistry getBlockRegistry() {
+        if (blockRegistry == null) blockRegistry = CodeBlockRegistry.build(getRootBlocks());
+        return blockRegistry;
+    }
+
+    /**
+     * Reset the indexes of the blocks (must be called each time the blocks tree is modified)
+     */
+    private void resetIndexes() {
+        blockIndex = null;
+        blockRegistry = null;
     }
 
     /**
      * Return of block of code from a start & end characters indexes.
-     * @param blocks Blocks to search
      * @param start Start index character
      * @param end End index character
      * @return Block if found, otherwise null
      */
-    private CodeBlock getBlockBetween(ArrayList<CodeBlock> blocks, int start, int end) {
-        for (CodeBlock block : blocks) {
-            if (Utils.arrayNotEmpty(block.subBlocks)) {
-                CodeBlock b = getBlockBetween(block.subBlocks, start, end);
-                if (b != null) return b;
-            } else if (block.getStart() <= start && end <= block.getEnd()) {
-                return block;
-            }
-        }
-        return null;
+    private CodeBlock getBlockBetween(int start, int end) {
+        if (blockIndex == null) blockIndex = CodeBlockIndex.build(getRootBlocks());
+        return blockIndex.getBlockBetween(start, end);
     }
 
     /**
@@ -129,7 +261,7 @@ public class JavaCode {
      * @return Code blocks
      */
     public ArrayList<CodeBlock> getBlocksByType(CodeBlock.BlockType type) {
-        return getBlocksByType(new CodeBlock.BlockType[] {type}, this.rootCodeBlocks);
+        return getBlockRegistry().get(type);
     }
 
     /**
@@ -138,52 +270,45 @@ public class JavaCode {
      * @return Code blocks
      */
     public ArrayList<CodeBlock> getBlocksByTypes(CodeBlock.BlockType[] types) {
-        return getBlocksByType(types, this.rootCodeBlocks);
+        return getBlockRegistry().get(types);
     }
 
-
     /**
-     * Return code blocks from type (recursive)
-     * @param types Types of block
-     * @param blocks block (recursive)
-     * @return Code blocks
+     * Add a package name import.
+     * @param packageName Package name to import
      */
-    private ArrayList<CodeBlock> getBlocksByType(CodeBlock.BlockType[] types,  ArrayList<CodeBlock> blocks) {
-        if (blocks == null) return null;
-        ArrayList<CodeBlock> result = new ArrayList<>();
-        for (CodeBlock block : blocks) {
-            if (Utils.arrayContains(types, block.type)) {
-                result.add(block);
-            }
-            if (Utils.arrayNotEmpty(block.subBlocks)) {
-                ArrayList<CodeBlock> r = getBlocksByType(types, block.subBlocks);
-                if (Utils.arrayNotEmpty(r)) result.addAll(r);
-            }
-        }
-        return result;
+    public void addImport(String packageName) {
+        addImport(packageName, false);
     }
 
     /**
      * Add a package name import.
      * @param packageName Package name to import
+     * @param isPart True if the code is a part of a file (not at the start of the file)
+     * @return True if import added
      */
-    public void addImport(String packageName) {
-
-        String code = "\nimport " + packageName.trim() + ";";
+    boolean addImport(String packageName, boolean isPart) {
 
-        JavaParser javaParser = new JavaParser();
-        JavaCode javaCode = javaParser.parse(code);
+        String name = packageName.trim();
+        JavaCode javaCode = isQualifiedName(name)
+                ? CodeTemplate.get(IMPORT_TEMPLATE, 1).newCode(name)
+                : CodeTemplate.get("\nimport " + name + ";", 0).newCode();
         CodeBlock blockImport = javaCode.getImports().get(0);
 
-        if (!addBlockAtPosition(this.rootCodeBlocks, blockImport, InsertPosition.AtTheEnd, CodeBlock.BlockType.Import)) {
-            addBlockAtPosition(this.rootCodeBlocks, blockImport, InsertPosition.RightAfter, CodeBlock.BlockType.Package);
+        // Latest import (the first block of a file is never used):
+        int lowestIndex = isPart ? 0 : 1;
+        if (compactTree != null) {
+            return addNodeAtPosition(CompactCodeTree.ROOT, blockImport, InsertPosition.AtTheEnd, CodeBlock.BlockType.Import, lowestIndex)
+                    || addNodeAtPosition(CompactCodeTree.ROOT, blockImport, InsertPosition.RightAfter, CodeBlock.BlockType.Package, 0);
         }
+        return addBlockAtPosition(this.rootCodeBlocks, blockImport, InsertPosition.AtTheEnd, CodeBlock.BlockType.Import, lowestIndex)
+                || addBlockAtPosition(this.rootCodeBlocks, blockImport, InsertPosition.RightAfter, CodeBlock.BlockType.Package);
     }
 
     /**
      * Add an attribute in the class (or an interface)
      * @param attributeCode Attribute to add
-     * @return True if attribute added
+     * @return True if attribute added (false if no class has sub blocks: code is injected between existing sub blocks)
      */
     public boolean addAttribute(String attributeCode) {
         return addAttribute(attributeCode, null);
@@ -193,20 +318,39 @@ public class JavaCode {
      * Add an attribute in the class
      * @param attributeCode Attribute to add
      * @param className Class (or interface) where integrate the attribute
-     * @return True if attribute added
+     * @return True if attribute added (false if the class has no sub blocks)
      */
     public boolean addAttribute(String attributeCode, String className) {
-        CodeBlock blockClass = null;
-        CodeBlock.BlockType[] types = new CodeBlock.BlockType[] {
-                CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface};
-        for (CodeBlock block : getBlocksByTypes(types)) {
-            if (className == null || className.equals(block.name))
-                blockClass = block;
+        return addAttribute(className, false, CodeTemplate.get("\n\n    " + attributeCode.trim(), 0));
+    }
+
+    /**
+     * Add an attribute in the class
+     * @param className Class (or interface) where integrate the attribute
+     * @param classOnly True to exclude the interfaces
+     * @param template Template of the attribute
+     * @param values Values of the template parameters
+     * @return True if attribute added
+     */
+    private boolean addAttribute(String className, boolean classOnly, CodeTemplate template, String... values) {
+        if (compactTree != null) {
+            int classNode = getInjectionNode(className, classOnly);
+            if (classNode == CompactCodeTree.NONE) return false;
+
+            CodeBlock block = template.newCode(values).getAllBlocks().get(0);
+            block.hasParent = true;
+            block.parentType = compactTree.getType(classNode);
+
+            if (!addNodeAtPosition(classNode, block, InsertPosition.AtTheEnd, CodeBlock.BlockType.Attribute, 1)) {
+                addNodeAtFirst(classNode, block);
+            }
+            return true;
         }
+
+        CodeBlock blockClass = getInjectionClass(className, classOnly);
         if (blockClass == null) return false;
 
-        JavaParser javaParser = new JavaParser();
-        JavaCode javaCode = javaParser.parse("\n\n    " + attributeCode.trim());
+        JavaCode javaCode = template.newCode(values);
         CodeBlock block = javaCode.getAllBlocks().get(0);
         block.hasParent = true;
         block.parentType = blockClass.type;
@@ -220,7 +364,7 @@ public class JavaCode {
     /**
      * Add a function into the default class
      * @param functionCode Function to add
-     * @return True if function added
+     * @return True if function added (false if no class has sub blocks: code is injected between existing sub blocks)
      */
     public boolean addFunction(String functionCode) {
         return addFunction(functionCode, null);
@@ -230,29 +374,64 @@ public class JavaCode {
      * Add a function into a specific class
      * @param functionCode Function to add
      * @param className Class name where to add the function
-     * @return True if function added
+     * @return True if function added (false if the class has no sub blocks)
      */
     public boolean addFunction(String functionCode, String className) {
-        CodeBlock blockClass = null;
-        CodeBlock.BlockType[] types = new CodeBlock.BlockType[] {
-                CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface};
-        for (CodeBlock block : getBlocksByTypes(types)) {
-            if (className == null || className.equals(block.name))
-                blockClass = block;
-        }
-        if (blockClass == null) return false;
+        int classNode = (compactTree != null) ? getInjectionNode(className, false) : CompactCodeTree.NONE;
+        CodeBlock blockClass = (compactTree != null) ? null : getInjectionClass(className, false);
+        if (blockClass == null && classNode == CompactCodeTree.NONE) return false;
 
-        JavaParser javaParser = new JavaParser();
-        JavaCode javaCode = javaParser.parse("\n\n    " + functionCode.trim());
+        JavaCode javaCode = CodeTemplate.get("\n\n    " + functionCode.trim(), 0).newCode();
         CodeBlock block = javaCode.getAllBlocks().get(0);
         block.hasParent = true;
         block.type = CodeBlock.BlockType.Function;
-        block.parentType = blockClass.type;
 
-        addBlockAtTheEnd(blockClass.subBlocks, block);
+        if (blockClass != null) {
+            block.parentType = blockClass.type;
+            addBlockAtTheEnd(blockClass.subBlocks, block);
+        } else {
+            block.parentType = compactTree.getType(classNode);
+            addNodeAtTheEnd(classNode, block);
+        }
         return true;
     }
 
+    /**
+     * Return the class (or interface) where code can be injected
+     * @param className Class name, or null for the latest class of the file
+     * @param classOnly True to exclude the interfaces
+     * @return Class block, or null if not found
+     */
+    private CodeBlock getInjectionClass(String className, boolean classOnly) {
+        CodeBlock blockClass = null;
+        CodeBlock.BlockType[] types = classOnly ? new CodeBlock.BlockType[] {CodeBlock.BlockType.Class}
+                : new CodeBlock.BlockType[] {CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface};
+        for (CodeBlock block : getBlocksByTypes(types)) {
+            // Code can be injected only between existing sub blocks:
+            if (block.hasChildren() && (className == null || className.equals(block.name)))
+                blockClass = block;
+        }
+        return blockClass;
+    }
+
+    /**
+     * Return the node of the class (or interface) where code can be injected (compact tree)
+     * @param className Class name, or null for the latest class of the file
+     * @param classOnly True to exclude the interfaces
+     * @return Class node, or NONE if not found
+     */
+    private int getInjectionNode(String className, boolean classOnly) {
+        int classNode = CompactCodeTree.NONE;
+        int[] nodes = classOnly ? compactTree.getNodesByTypes(CodeBlock.BlockType.Class)
+                : compactTree.getNodesByTypes(CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface);
+        for (int node : nodes) {
+            // Code can be injected only between existing sub blocks:
+            if (compactTree.hasChildren(node) && (className == null || className.equals(compactTree.getName(node))))
+                classNode = node;
+        }
+        return classNode;
+    }
+
     /**
      * Insert positions for block of code
      */
@@ -268,33 +447,15 @@ public class JavaCode {
      * @param newBlock Block of code to insert
      */
     private void addBlockAtFirst(ArrayList<CodeBlock> blocks, CodeBlock newBlock) {
+        resetIndexes();
         newBlock.injected = true;
 
         if (blocks.size() > 0) {
-            if (UPDATE_OFFSETS) {
-                CodeBlock firstBlock = blocks.get(0);
-                newBlock.start = 0;
-                newBlock.end = newBlock.code.length();
-                newBlock.offset = firstBlock.offset;
-                newBlock.innerOffset = firstBlock.innerOffset;
-            }
-
-            Utils.insertInArray(blocks, 0, newBlock);
-
-            if (UPDATE_OFFSETS) {
-                for (int i = 1; i < blocks.size(); i++) {
-                    // Shift block offsets:
-                    CodeBlock block = blocks.get(i);
-                    block.start = block.start + newBlock.code.length();
-                    block.end = block.end + newBlock.code.length();
-                }
-            }
+            newBlock.injection = insertCodeBefore(blocks.get(0), newBlock.toCode());
+            blocks.add(0, newBlock);
         } else {
-            if (UPDATE_OFFSETS) {
-                newBlock.start = 0;
-                newBlock.end = newBlock.code.length();
-            }
-            Utils.insertInArray(blocks, 0, newBlock);
+            // No position available to insert the code (empty parent):
+            blocks.add(newBlock);
         }
     }
 
@@ -304,16 +465,138 @@ public class JavaCode {
      * @param newBlock Block of code to insert
      */
     private void addBlockAtTheEnd(ArrayList<CodeBlock> blocks, CodeBlock newBlock) {
+        resetIndexes();
+        newBlock.injected = true;
+        CodeBlock lastBlock = getLastBlock(blocks);
+        if (lastBlock != null) newBlock.injection = insertCodeAfter(lastBlock, newBlock.toCode());
+        blocks.add(newBlock);
+    }
+
+    /**
+     * Return the last block of a list, ignoring the trailing injected blocks without position
+     * @param blocks Blocks
+     * @return Last block, or null if not found
+     */
+    private CodeBlock getLastBlock(ArrayList<CodeBlock> blocks) {
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            CodeBlock block = blocks.get(i);
+            if (!block.injected || block.injection != null) return block;
+        }
+        return null;
+    }
+
+    /**
+     * Record the insertion of a code just before a block
+     * @param block Block (original or injected)
+     * @param code Code to insert
+     * @return Insertion edit, or null if the block has no position
+     */
+    private CodeEdit insertCodeBefore(CodeBlock block, String code) {
+        if (block.injected) return (block.injection != null) ? edits.insertBefore(block.injection, code) : null;
+        return edits.insert(block.getStart(), code);
+    }
+
+    /**
+     * Record the insertion of a code just after a block
+     * @param block Block (original or injected)
+     * @param code Code to insert
+     * @return Insertion edit, or null if the block has no position
+     */
+    private CodeEdit insertCodeAfter(CodeBlock block, String code) {
+        if (block.injected) return (block.injection != null) ? edits.insertAfter(block.injection, code) : null;
+        return edits.insertFirst(block.getEnd(), code);
+    }
+
+    /**
+     * Add a block of code as the first child of a node (compact tree)
+     * @param parent Parent node
+     * @param newBlock Block of code to insert
+     */
+    private void addNodeAtFirst(int parent, CodeBlock newBlock) {
         newBlock.injected = true;
-        if (UPDATE_OFFSETS) {
-            if (blocks.size() > 0) {
-                CodeBlock lastBlock = blocks.get(blocks.size() - 1);
-                newBlock.updatePosition(lastBlock);
-            } else {
-                newBlock.end = newBlock.code.length();
+        int first = compactTree.getFirstChild(parent);
+        if (first != CompactCodeTree.NONE) newBlock.injection = insertCodeBefore(first, newBlock.toCode());
+        compactTree.addInjected(parent, CompactCodeTree.NONE, newBlock);
+    }
+
+    /**
+     * Add a block of code as the last child of a node (compact tree)
+     * @param parent Parent node
+     * @param newBlock Block of code to insert
+     */
+    private void addNodeAtTheEnd(int parent, CodeBlock newBlock) {
+        newBlock.injected = true;
+
+        // Last child, ignoring the trailing injected nodes without position:
+        int lastNode = CompactCodeTree.NONE;
+        for (int node = compactTree.getFirstChild(parent); node != CompactCodeTree.NONE; node = compactTree.getNextSibling(node)) {
+            CodeBlock injected = compactTree.getInjectedBlock(node);
+            if (injected == null || injected.injection != null) lastNode = node;
+        }
+        if (lastNode != CompactCodeTree.NONE) newBlock.injection = insertCodeAfter(lastNode, newBlock.toCode());
+        compactTree.addInjected(parent, compactTree.getLastChild(parent), newBlock);
+    }
+
+    /**
+     * Add a block of code at a position into the children of a node (compact tree)
+     * @param parent Parent node
+     * @param newBlock Block of code to insert
+     * @param position Insert position
+     * @param type Type of the node where insert the new block
+     * @param lowestIndex Lowest index of the node where insert the new block at the end
+     * @return True if inserted
+     */
+    private boolean addNodeAtPosition(int parent, CodeBlock newBlock, InsertPosition position, CodeBlock.BlockType type, int lowestIndex) {
+        newBlock.injected = true;
+
+        // Latest node of the type (at the end), or the first one:
+        int found = CompactCodeTree.NONE;
+        int foundPrevious = CompactCodeTree.NONE;
+        int previous = CompactCodeTree.NONE;
+        int index = 0;
+        for (int node = compactTree.getFirstChild(parent); node != CompactCodeTree.NONE; node = compactTree.getNextSibling(node)) {
+            if (compactTree.getType(node) == type
+                    && ((position == InsertPosition.AtTheEnd) ? index >= lowestIndex : found == CompactCodeTree.NONE)) {
+                found = node;
+                foundPrevious = previous;
             }
+            previous = node;
+            index++;
         }
-        blocks.add(newBlock);
+        if (found == CompactCodeTree.NONE) return false;
+
+        if (position == InsertPosition.JustBefore) {
+            newBlock.injection = insertCodeBefore(found, newBlock.toCode());
+            compactTree.addInjected(parent, foundPrevious, newBlock);
+        } else {
+            newBlock.injection = insertCodeAfter(found, newBlock.toCode());
+            compactTree.addInjected(parent, found, newBlock);
+        }
+        return true;
+    }
+
+    /**
+     * Record the insertion of a code just before a node (compact tree)
+     * @param node Node (original or injected)
+     * @param code Code to insert
+     * @return Insertion edit, or null if the node has no position
+     */
+    private CodeEdit insertCodeBefore(int node, String code) {
+        CodeBlock injected = compactTree.getInjectedBlock(node);
+        if (injected != null) return insertCodeBefore(injected, code);
+        return edits.insert(compactTree.getStart(node), code);
+    }
+
+    /**
+     * Record the insertion of a code just after a node (compact tree)
+     * @param node Node (original or injected)
+     * @param code Code to insert
+     * @return Insertion edit, or null if the node has no position
+     */
+    private CodeEdit insertCodeAfter(int node, String code) {
+        CodeBlock injected = compactTree.getInjectedBlock(node);
+        if (injected != null) return insertCodeAfter(injected, code);
+        return edits.insertFirst(compactTree.getEnd(node), code);
     }
 
     /**
@@ -324,55 +607,48 @@ public class JavaCode {
      * @param type Type to insert new block
      */
     private boolean addBlockAtPosition(ArrayList<CodeBlock> blocks, CodeBlock newBlock, InsertPosition position, CodeBlock.BlockType type) {
-        boolean inserted = false;
+        return addBlockAtPosition(blocks, newBlock, position, type, 1);
+    }
+
+    /**
+     * Add a block of code at a position into the blocks list
+     * @param blocks Code to edit
+     * @param newBlock Block of code to insert
+     * @param position Insert position
+     * @param type Type of the block where insert the new block
+     * @param lowestIndex Lowest index of the block where insert the new block at the end
+     * @return True if inserted
+     */
+    private boolean addBlockAtPosition(ArrayList<CodeBlock> blocks, CodeBlock newBlock, InsertPosition position, CodeBlock.BlockType type, int lowestIndex) {
+        resetIndexes();
         newBlock.injected = true;
 
         if (position == InsertPosition.AtTheEnd) {
-            for (int i = blocks.size() - 1; i > 0; i--) {
-
-                CodeBlock block = blocks.get(i);
-
+            for (int i = blocks.size() - 1; i >= lowestIndex; i--) {
                 // Insert new block ar right position:
-                if (!inserted && block.type == type) {
-                    if (UPDATE_OFFSETS) newBlock.updatePosition(block);
-                    Utils.insertInArray(blocks, i + 1, newBlock);
-                    if (!UPDATE_OFFSETS) return true;
-                    i++;
-                    inserted = true;
-                } else if (inserted) {
-                    // Shift block offsets:
-                    block.start = block.start + newBlock.code.length();
-                    block.end = block.end + newBlock.code.length();
+                if (blocks.get(i).type == type) {
+                    newBlock.injection = insertCodeAfter(blocks.get(i), newBlock.toCode());
+                    blocks.add(i + 1, newBlock);
+                    return true;
                 }
             }
         } else {
             for (int i = 0; i < blocks.size(); i++) {
-
-                CodeBlock block = blocks.get(i);
-
                 // Insert new block at right position:
-                if (!inserted && block.type == type) {
+                if (blocks.get(i).type == type) {
                     if (position == InsertPosition.JustBefore) {
-                        if (UPDATE_OFFSETS) newBlock.updatePosition(block);
-                        Utils.insertInArray(blocks, i, newBlock);
-                        if (!UPDATE_OFFSETS) return true;
-                        inserted = true;
+                        newBlock.injection = insertCodeBefore(blocks.get(i), newBlock.toCode());
+                        blocks.add(i, newBlock);
+                        return true;
                     } else if (position == InsertPosition.RightAfter) {
-                        if (UPDATE_OFFSETS) newBlock.updatePosition(block);
-                        Utils.insertInArray(blocks, i + 1, newBlock);
-                        if (!UPDATE_OFFSETS) return true;
-                        i++;
-                        inserted = true;
+                        newBlock.injection = insertCodeAfter(blocks.get(i), newBlock.toCode());
+                        blocks.add(i + 1, newBlock);
+                        return true;
                     }
-                } else if (inserted) {
-                    // Shift block offsets:
-                    block.start = block.start + newBlock.code.length();
-                    block.end = block.end + newBlock.code.length();
                 }
             }
         }
-
-        return inserted;
+        return false;
     }
 
     /**
@@ -380,10 +656,19 @@ public class JavaCode {
      * Important: only if a class exists into the JAVA code
      */
     public void injectFakeKeys() {
-        String fakeParamName = TextUtils.getRandomString(10, TextUtils.PARAM_CHARACTERS);
+        injectFakeKeys(new Random());
+    }
+
+    /**
+     * Inject fake code: fake attribute
+     * Important: only if a class exists into the JAVA code
+     * @param random Random generator of the attribute name and value (seeded for a reproducible code)
+     */
+    public void injectFakeKeys(Random random) {
+        String fakeParamName = TextUtils.getRandomString(10, TextUtils.PARAM_CHARACTERS, random);
 
-        int sizeValue = Utils.getRandomNumberInRange(10, 30);
-        String randomValue = TextUtils.getRandomString(sizeValue, TextUtils.KEY_CHARACTERS);
+        int sizeValue = Utils.getRandomNumberInRange(10, 30, random);
+        String randomValue = TextUtils.getRandomString(sizeValue, TextUtils.KEY_CHARACTERS, random);
 
         injectFakeKeys(fakeParamName, randomValue);
     }
@@ -395,33 +680,87 @@ public class JavaCode {
      * @param randomValue Attribute value
      */
     public void injectFakeKeys(String fakeParamName, String randomValue) {
-        ArrayList<CodeBlock> classBlocks = getBlocksByType(CodeBlock.BlockType.Class);
-        ArrayList<CodeBlock> functions = getFunctions();
+        if (hasBlocks(CodeBlock.BlockType.Class) && hasBlocks(CodeBlock.BlockType.Function)) {
+            injectFakeAttribute(fakeParamName, randomValue);
+            injectFakeCode(fakeParamName);
+        }
+    }
 
-        if (Utils.arrayNotEmpty(classBlocks) && Utils.arrayNotEmpty(functions)) {
+    /**
+     * Inject the fake attribute into the latest class (or interface)
+     * @param fakeParamName Attribute name
+     * @param randomValue Attribute value
+     * @return True if attribute added
+     */
+    boolean injectFakeAttribute(String fakeParamName, String randomValue) {
+        String template = abiNeutral ? PRIVATE_FAKE_ATTRIBUTE_TEMPLATE : FAKE_ATTRIBUTE_TEMPLATE;
+        if (isQualifiedName(fakeParamName) && isStringContent(randomValue)) {
+            return addAttribute(null, abiNeutral, CodeTemplate.get(template, 2), fakeParamName, randomValue);
+        } else {
+            String code = template.replace("$1", fakeParamName).replace("$2", randomValue);
+            return addAttribute(null, abiNeutral, CodeTemplate.get(code, 0));
+        }
+    }
 
-            // Generate fake code:
-            String fakeAttribute = getFakeAttribute(fakeParamName, randomValue);
-            CodeBlock fakeCode = getFakeCode(fakeParamName);
+    /**
+     * Inject the fake code (which is calling the fake attribute) into the first function with code
+     * (of the class of the fake attribute if the injection is ABI neutral: the attribute is private)
+     * @param fakeParamName Attribute name
+     * @return True if fake code added
+     */
+    boolean injectFakeCode(String fakeParamName) {
+        int from = 0;
+        int to = Integer.MAX_VALUE;
+        if (abiNeutral) {
+            int classNode = (compactTree != null) ? getInjectionNode(null, true) : CompactCodeTree.NONE;
+            CodeBlock blockClass = (compactTree != null) ? null : getInjectionClass(null, true);
+            if (blockClass == null && classNode == CompactCodeTree.NONE) return false;
+            from = (blockClass != null) ? blockClass.getStart() : compactTree.getStart(classNode);
+            to = (blockClass != null) ? blockClass.getEnd() : compactTree.getEnd(classNode);
+        }
 
-            // Inject attribute:
-            addAttribute(fakeAttribute);
+        if (compactTree != null) {
+            for (int functionNode : compactTree.getNodesByTypes(CodeBlock.BlockType.Function)) {
+                if (compactTree.hasChildren(functionNode)
+                        && compactTree.getStart(functionNode) >= from && compactTree.getEnd(functionNode) <= to) {
+                    CodeBlock fakeCode = getFakeCode(fakeParamName);
+                    if (compactTree.getType(compactTree.getLastChild(functionNode)) == CodeBlock.BlockType.Return) {
+                        addNodeAtFirst(functionNode, fakeCode);
+                    } else {
+                        addNodeAtTheEnd(functionNode, fakeCode);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            // Search a function where inject fake code:
-            for (CodeBlock blockFunction : functions) {
+        // Search a function where inject fake code:
+        for (CodeBlock blockFunction : getFunctions()) {
 
-                if (blockFunction.hasChildren()) {
+            if (blockFunction.hasChildren() && blockFunction.getStart() >= from && blockFunction.getEnd() <= to) {
 
-                    CodeBlock lastLineOfCode = blockFunction.subBlocks.last();
-                    if (lastLineOfCode.type == CodeBlock.BlockType.Return) {
-                        addBlockAtFirst(blockFunction.subBlocks, fakeCode);
-                    } else {
-                        addBlockAtTheEnd(blockFunction.subBlocks, fakeCode);
-                    }
-                    break;
+                CodeBlock fakeCode = getFakeCode(fakeParamName);
+                CodeBlock lastLineOfCode = blockFunction.subBlocks.last();
+                if (lastLineOfCode.type == CodeBlock.BlockType.Return) {
+                    addBlockAtFirst(blockFunction.subBlocks, fakeCode);
+                } else {
+                    addBlockAtTheEnd(blockFunction.subBlocks, fakeCode);
                 }
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Indicate if the code contains blocks of a type
+     * @param type Type of blocks
+     * @return True if found
+     */
+    private boolean hasBlocks(CodeBlock.BlockType type) {
+        if (compactTree != null) return compactTree.getNodesByTypes(type).length > 0;
+        return Utils.arrayNotEmpty(getBlocksByType(type));
     }
 
     /**
@@ -430,33 +769,54 @@ public class JavaCode {
      * @return Fake Java code
      */
     private CodeBlock getFakeCode(String paramName) {
-        String code = "\n        if (" + paramName + ".isEmpty()) " + paramName + ".getClass().toString();";
-        JavaParser javaParser = new JavaParser();
-        JavaCode javaCode = javaParser.parse(code);
+        JavaCode javaCode = isQualifiedName(paramName)
+                ? CodeTemplate.get(FAKE_CODE_TEMPLATE, 1).newCode(paramName)
+                : CodeTemplate.get(FAKE_CODE_TEMPLATE.replace("$1", paramName), 0).newCode();
         CodeBlock block = javaCode.getAllBlocks().get(0);
         block.hasParent = true;
         return block;
     }
 
     /**
-     * Generate a fake Java attribute
-     * @param paramName Name of this fake attribute
-     * @return Fake Java attribute
+     * Indicate if a value is a (qualified) name, which can replace a template parameter without changing the parsing
+     * @param value Value
+     * @return True if the value is a name (example: com.chrisney.enigma.EnigmaUtils)
+     */
+    private static boolean isQualifiedName(String value) {
+        if (TextUtils.isEmpty(value) || !Character.isJavaIdentifierStart(value.charAt(0))) return false;
+        for (int i = 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isJavaIdentifierPart(c) && c != '.' && c != '*') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indicate if a value can be the content of a String value, without changing the parsing
+     * @param value Value
+     * @return True if the value contains no double quote, backslash or end of line
      */
-    private String getFakeAttribute(String paramName, String randomValue) {
-        return "public static final String " + paramName + " = \"" + randomValue + "\";";
+    private static boolean isStringContent(String value) {
+        if (value == null) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n' || c == '\r') return false;
+        }
+        return true;
     }
 
     /**
      * Encrypt all string values
      * @param key Secrete key for encryption
      * @param functionName Name of the decryption method
+     * @return Number of String values encrypted
      * @throws Exception Encryption error
      */
-    public void encryptStrings(String key, String functionName) throws Exception {
+    public int encryptStrings(String key, String functionName) throws Exception {
 
-        int stringOffset = 0;
-        CodeBlock block = null;
+        int blockStart = CompactCodeTree.NONE;
+        int blockEnd = CompactCodeTree.NONE;
+        ArrayList<CodeString> selected = new ArrayList<>();
 
         // For each String value:
         for (CodeString cs : getStringValues()) {
@@ -465,39 +825,66 @@ public class JavaCode {
             if (cs.isCaseValue) continue;
 
             // Search the code block which contains the string value:
-            if (block == null || !(block.getStart() <= cs.start && cs.end <= block.getEnd())) {
-                block = getBlockBetween(this.rootCodeBlocks, cs.start, cs.end);
-                stringOffset = 0;
+            if (!(blockStart <= cs.start && cs.end <= blockEnd)) {
+                blockStart = blockEnd = CompactCodeTree.NONE;
+                if (compactTree != null) {
+                    int node = compactTree.getLeafBetween(cs.start, cs.end);
+                    if (node != CompactCodeTree.NONE) {
+                        blockStart = compactTree.getStart(node);
+                        blockEnd = compactTree.getEnd(node);
+                    }
+                } else {
+                    CodeBlock block = getBlockBetween(cs.start, cs.end);
+                    if (block != null) {
+                        blockStart = block.getStart();
+                        blockEnd = block.getEnd();
+                    }
+                }
             }
 
             // If code block found:
-            if (block != null) {
-                int bStart = cs.start - (block.start + block.offset);
-                int bEnd = cs.end - (block.start + block.offset);
-                // System.out.println(cs.value + " == " + block.code.substring(bStart, bEnd));
-
-                // Get the string value en encrypt it:
-                String value = cs.value.substring(1, cs.value.length() - 1);
-                String encrypted = encryptString(value, key, functionName, null);
-
-                // Inject the Enigma signature function:
-                StringBuilder builder = new StringBuilder();
-                builder.append(block.code, 0, bStart + stringOffset);
-                builder.append(encrypted);
-                builder.append(block.code, bEnd  + stringOffset, block.code.length());
-
-                // Compute the length difference due to the code modification:
-                int originalLength = cs.value.length();
-                int encryptedLength = encrypted.length();
-                int lengthDiff = (encryptedLength - originalLength);
-
-                // System.out.println(builder.toString());
-                block.code = builder.toString();
-                // block.end += lengthDiff;
-
-                stringOffset += lengthDiff;
+            if (blockEnd != CompactCodeTree.NONE) selected.add(cs);
+        }
+
+        // Get the string values and encrypt them (in parallel for a big source code):
+        String[] encrypted = new String[selected.size()];
+        if (parallelThreshold > 0 && sourceCode.length() >= parallelThreshold && encrypted.length > 1) {
+            try {
+                IntStream.range(0, encrypted.length).parallel().forEach(i -> {
+                    try {
+                        encrypted[i] = encryptString(selected.get(i), key, functionName);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            } catch (IllegalStateException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
             }
+        } else {
+            for (int i = 0; i < encrypted.length; i++) encrypted[i] = encryptString(selected.get(i), key, functionName);
         }
+
+        // Replace the string values by the Enigma signature function:
+        for (int i = 0; i < encrypted.length; i++) {
+            CodeString cs = selected.get(i);
+            edits.replace(cs.start, cs.end - cs.start, encrypted[i]);
+        }
+        return encrypted.length;
+    }
+
+    /**
+     * Encrypt a String value of the code, to Enigma ciphering style
+     * @param cs String value (with double quotes)
+     * @param key Secrete key encryption
+     * @param functionName Name of the decryption method
+     * @return String value encrypted with Enigma ciphering style
+     * @throws Exception Encryption error
+     */
+    private String encryptString(CodeString cs, String key, String functionName) throws Exception {
+        String value = cs.getValue();
+        value = value.substring(1, value.length() - 1);
+        return encryptString(value, key, functionName, null);
     }
 
     /**
@@ -569,25 +956,73 @@ public class JavaCode {
     }
 
     /**
-     * Source code formatted
+     * Source code formatted: the original source code with all the modifications applied in one pass
      * @return Print the source code formatted
      */
     public String toCode() {
-        StringBuilder sb = new StringBuilder();
-        for(CodeBlock block : getAllBlocks()) {
-            if (!block.hasParent) sb.append(block.toCode());
+        StringBuilder sb = new StringBuilder(sourceCode.length() + 1024);
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
-        // End Of File
-        sb.append("\n");
         return sb.toString();
     }
 
+    /**
+     * Write the source code formatted directly into an output (a Writer, a StringBuilder...).
+     * The original source code is copied by ranges: no intermediate String is built.
+     * @param out Output
+     * @throws IOException Output error
+     */
+    public void writeTo(Appendable out) throws IOException {
+        // Ignore the spaces after the last block of code:
+        int end = sourceCode.length();
+        while (end > 0 && sourceCode.charAt(end - 1) <= ' ') end--;
+        if (compactTree != null) {
+            int lastEnd = CompactCodeTree.NONE;
+            for (int node = compactTree.getFirstChild(CompactCodeTree.ROOT); node != CompactCodeTree.NONE;
+                 node = compactTree.getNextSibling(node)) {
+                if (!compactTree.isInjected(node)) lastEnd = compactTree.getEnd(node);
+            }
+            if (lastEnd != CompactCodeTree.NONE) end = Math.max(end, Math.min(lastEnd, sourceCode.length()));
+        } else {
+            for (int i = rootCodeBlocks.size() - 1; i >= 0; i--) {
+                CodeBlock block = rootCodeBlocks.get(i);
+                if (!block.injected) {
+                    end = Math.max(end, Math.min(block.getEnd(), sourceCode.length()));
+                    break;
+                }
+            }
+        }
+
+        edits.apply(sourceCode, end, out);
+        // End Of File
+        out.append('\n');
+    }
+
+    /**
+     * Write the whole source code formatted, without the end of file (the code is a part of a file)
+     * @param out Output
+     * @throws IOException Output error
+     */
+    void writePartTo(Appendable out) throws IOException {
+        edits.apply(sourceCode, sourceCode.length(), out);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        if (this.rootCodeBlocks != null) {
+        if (this.compactTree != null) {
+            for (int node = compactTree.getFirstChild(CompactCodeTree.ROOT); node != CompactCodeTree.NONE;
+                 node = compactTree.getNextSibling(node)) {
+                CodeBlock injected = compactTree.getInjectedBlock(node);
+                sb.append((injected != null) ? injected.getCode()
+                        : sourceCode.substring(compactTree.getStart(node), compactTree.getEnd(node)));
+            }
+        } else if (this.rootCodeBlocks != null) {
             for(CodeBlock block : this.rootCodeBlocks) {
-                sb.append(block.code);
+                sb.append(block.getCode());
             }
         }
         return sb.toString();
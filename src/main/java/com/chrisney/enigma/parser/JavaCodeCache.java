@@ -0,0 +1,447 @@
+package com.chrisney.enigma.parser;
+
+import com.chrisney.enigma.utils.SmartArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of parsing results, keyed by a hash of the source code content.
+ * Each entry is a compact binary file of the code blocks tree (positions, types, names) and of the String
+ * values positions (and the result of the check of the parsing, if checked), so an unchanged file is never parsed
+ * twice, whatever the encryption key is.
+ * The cache size is limited: least recently used entries are removed first.
+ * @author Christopher Ney
+ */
+public class JavaCodeCache {
+
+    /**
+     * File format version: must be increased each time the parser output changes
+     */
+    private static final int VERSION = 2;
+
+    private static final int MAGIC = 0x454E4743; // "ENGC"
+    private static final String EXTENSION = ".jcc";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * Default maximum size of the cache directory (bytes)
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final CodeBlock.BlockType[] blockTypes = CodeBlock.BlockType.values();
+    private static final CodeBlock.Modifier[] modifiers = CodeBlock.Modifier.values();
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Current size of the cache directory (bytes), -1 if not yet computed
+     */
+    private long size = -1;
+
+    /**
+     * Constructor
+     * @param directory Cache directory
+     * @param maxSize Maximum size of the cache directory (bytes)
+     */
+    public JavaCodeCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Return the parsing result of a source code from the cache, or parse it and cache the result.
+     * @param sourceCode JAVA source code
+     * @param parser Parser used if the source code is not cached
+     * @return Code blocks
+     */
+    public JavaCode parse(String sourceCode, JavaParser parser) {
+        return parse(sourceCode, parser, false);
+    }
+
+    /**
+     * Return the parsing result of a source code from the cache, or parse it and cache the result.
+     * @param sourceCode JAVA source code
+     * @param parser Parser used if the source code is not cached
+     * @param checkRoundTrip True to check the parsing (see {@link ParserEngines#checkRoundTrip(JavaCode)}) before
+     *                       caching it: the result of the check is cached too
+     * @return Code blocks
+     */
+    public JavaCode parse(String sourceCode, JavaParser parser, boolean checkRoundTrip) {
+        String key = getKey(sourceCode);
+        JavaCode code = get(key, sourceCode, parser.compactTree);
+        if (code == null || (checkRoundTrip && code.roundTrip == null)) {
+            if (code == null) code = parser.parse(sourceCode);
+            if (checkRoundTrip) ParserEngines.checkRoundTrip(code);
+            put(key, code);
+        }
+        return code;
+    }
+
+    /**
+     * Return the cache key of a source code (hash of its content)
+     * @param sourceCode JAVA source code
+     * @return Cache key
+     */
+    public static String getKey(String sourceCode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(sourceCode.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read a parsing result from the cache. A corrupted entry is removed and considered as missing.
+     * @param key Cache key of the source code
+     * @param sourceCode JAVA source code
+     * @return Code blocks, or null if not cached
+     */
+    public JavaCode get(String key, String sourceCode) {
+        return get(key, sourceCode, false);
+    }
+
+    /**
+     * Read a parsing result from the cache. A corrupted entry is removed and considered as missing.
+     * @param key Cache key of the source code
+     * @param sourceCode JAVA source code
+     * @param compact True to read the blocks as a compact tree (see {@link CompactCodeTree})
+     * @return Code blocks, or null if not cached
+     */
+    public synchronized JavaCode get(String key, String sourceCode, boolean compact) {
+        File file = getFile(key);
+        if (!file.exists()) return null;
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            JavaCode code = read(data, sourceCode, compact);
+            if (code != null) {
+                // Most recently used entry:
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                return code;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Corrupted or unreadable entry: parse again
+        }
+        delete(file);
+        return null;
+    }
+
+    /**
+     * Write a parsing result into the cache (must be called before any modification of the code)
+     * @param key Cache key of the source code
+     * @param code Code blocks
+     */
+    public synchronized void put(String key, JavaCode code) {
+        try {
+            byte[] data = write(code);
+            if (!directory.exists() && !directory.mkdirs() && !directory.exists()) return;
+            File file = getFile(key);
+            // Unique temporary file: several caches (one per worker) can write the same entry
+            File temp = File.createTempFile(key, TEMP_EXTENSION, directory);
+            Files.write(temp.toPath(), data);
+            long previousLength = file.exists() ? file.length() : 0;
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            size = getSize() + data.length - previousLength;
+            if (size > maxSize) evict();
+        } catch (IOException e) {
+            System.out.println("⚠️ Cannot write parsing cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the cache entry file of a key
+     * @param key Cache key
+     * @return Cache entry file
+     */
+    private File getFile(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    /**
+     * Return the current size of the cache directory
+     * @return Size (bytes)
+     */
+    private long getSize() {
+        if (size < 0) {
+            size = 0;
+            for (File file : listEntries()) size += file.length();
+        }
+        return size;
+    }
+
+    /**
+     * List the cache entries
+     * @return Cache entries files
+     */
+    private File[] listEntries() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return (files != null) ? files : new File[0];
+    }
+
+    /**
+     * Remove the least recently used entries, until the cache size is lower than 90% of the maximum size
+     */
+    private void evict() {
+        File[] files = listEntries();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long target = maxSize - maxSize / 10;
+        size = 0;
+        for (File file : files) size += file.length();
+        for (File file : files) {
+            if (size <= target) break;
+            long length = file.length();
+            if (delete(file)) size -= length;
+        }
+    }
+
+    private static boolean delete(File file) {
+        try {
+            return Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serialize the parsing result
+     * @param code Code blocks
+     * @return Binary data
+     * @throws IOException I/O Exception
+     */
+    static byte[] write(JavaCode code) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(code.getSourceCode().length());
+        CompactCodeTree tree = code.getCompactTree();
+        if (tree != null) {
+            writeNodes(out, tree, CompactCodeTree.ROOT);
+        } else {
+            writeBlocks(out, code.getRootBlocks());
+        }
+        ArrayList<CodeString> strings = code.getStringValues();
+        writeVarInt(out, strings.size());
+        for (CodeString s : strings) {
+            writeVarInt(out, s.start);
+            writeVarInt(out, s.end - s.start);
+            out.writeBoolean(s.isCaseValue);
+        }
+        out.writeByte((code.roundTrip == null) ? -1 : code.roundTrip ? 1 : 0);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBlocks(DataOutputStream out, ArrayList<CodeBlock> blocks) throws IOException {
+        writeVarInt(out, blocks.size());
+        for (CodeBlock block : blocks) {
+            writeVarInt(out, block.start);
+            writeVarInt(out, block.end - block.start);
+            writeVarInt(out, block.offset);
+            writeVarInt(out, block.innerOffset);
+            out.writeByte(block.type.ordinal());
+            out.writeByte(block.parentType.ordinal());
+            out.writeByte(block.modifier != null ? block.modifier.ordinal() : -1);
+            out.writeBoolean(block.hasParent);
+            writeString(out, block.name);
+            writeString(out, block.returnType);
+            if (block.subIndexes == null) {
+                writeVarInt(out, 0);
+            } else {
+                writeVarInt(out, block.subIndexes.size() + 1);
+                for (CodePosition position : block.subIndexes) {
+                    writeVarInt(out, position.start + 1);
+                    writeVarInt(out, position.end + 1);
+                }
+            }
+            writeBlocks(out, block.subBlocks);
+        }
+    }
+
+    /**
+     * Serialize the nodes of a compact tree, with the same fields as the blocks (the window of a nested
+     * block starts at the block, without sub windows)
+     */
+    private static void writeNodes(DataOutputStream out, CompactCodeTree tree, int parent) throws IOException {
+        int count = 0;
+        for (int node = tree.getFirstChild(parent); node != CompactCodeTree.NONE; node = tree.getNextSibling(node)) count++;
+        writeVarInt(out, count);
+        boolean isRoot = (parent == CompactCodeTree.ROOT);
+        for (int node = tree.getFirstChild(parent); node != CompactCodeTree.NONE; node = tree.getNextSibling(node)) {
+            int start = tree.getStart(node);
+            writeVarInt(out, isRoot ? start : 0);
+            writeVarInt(out, tree.getEnd(node) - start);
+            writeVarInt(out, isRoot ? 0 : start);
+            writeVarInt(out, isRoot ? 0 : start - tree.getStart(parent));
+            out.writeByte(tree.getType(node).ordinal());
+            out.writeByte(isRoot ? CodeBlock.BlockType.Undefined.ordinal() : tree.getType(parent).ordinal());
+            out.writeByte(tree.getModifier(node) != null ? tree.getModifier(node).ordinal() : -1);
+            out.writeBoolean(!isRoot);
+            writeString(out, tree.getName(node));
+            writeString(out, tree.getReturnType(node));
+            writeVarInt(out, 0);
+            writeNodes(out, tree, node);
+        }
+    }
+
+    /**
+     * Deserialize a parsing result
+     * @param data Binary data
+     * @param sourceCode JAVA source code
+     * @return Code blocks, or null if data are not valid
+     * @throws IOException I/O Exception (corrupted data)
+     */
+    static JavaCode read(byte[] data, String sourceCode) throws IOException {
+        return read(data, sourceCode, false);
+    }
+
+    /**
+     * Deserialize a parsing result
+     * @param data Binary data
+     * @param sourceCode JAVA source code
+     * @param compact True to read the blocks as a compact tree
+     * @return Code blocks, or null if data are not valid
+     * @throws IOException I/O Exception (corrupted data)
+     */
+    static JavaCode read(byte[] data, String sourceCode, boolean compact) throws IOException {
+        if (data.length < 20) return null;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (ByteBuffer.wrap(data, data.length - 8, 8).getLong() != crc.getValue()) return null;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != sourceCode.length()) return null;
+
+        int length = sourceCode.length();
+        ArrayList<CodeBlock> blocks = null;
+        CompactCodeTree tree = null;
+        if (compact) {
+            tree = new CompactCodeTree(length, length / 32);
+            readNodes(in, tree, CompactCodeTree.ROOT, length);
+        } else {
+            blocks = readBlocks(in, sourceCode);
+        }
+        int count = readVarInt(in);
+        ArrayList<CodeString> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = readVarInt(in);
+            CodeString s = new CodeString(sourceCode, 0, start, start + readVarInt(in));
+            s.isCaseValue = in.readBoolean();
+            if (s.start < 0 || s.end > length) return null;
+            strings.add(s);
+        }
+        byte roundTrip = in.readByte();
+        JavaCode code = compact ? new JavaCode(tree, strings, sourceCode) : new JavaCode(blocks, strings, sourceCode);
+        code.roundTrip = (roundTrip < 0) ? null : roundTrip == 1;
+        return code;
+    }
+
+    private static void readNodes(DataInputStream in, CompactCodeTree tree, int parent, int length) throws IOException {
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            int start = readVarInt(in);
+            int end = start + readVarInt(in);
+            int offset = readVarInt(in);
+            readVarInt(in); // inner offset
+            CodeBlock.BlockType type = blockTypes[in.readByte()];
+            in.readByte(); // parent type
+            byte modifier = in.readByte();
+            in.readBoolean(); // has parent
+            String name = readString(in);
+            String returnType = readString(in);
+            int subIndexes = readVarInt(in);
+            for (int j = 1; j < subIndexes; j++) {
+                readVarInt(in);
+                readVarInt(in);
+            }
+            if (offset + end > length) throw new IOException("Invalid block position");
+            int node = tree.add(parent, offset + start, offset + end, type,
+                    (modifier >= 0) ? modifiers[modifier] : null, name, returnType);
+            readNodes(in, tree, node, length);
+        }
+    }
+
+    private static ArrayList<CodeBlock> readBlocks(DataInputStream in, String sourceCode) throws IOException {
+        int count = readVarInt(in);
+        ArrayList<CodeBlock> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CodeBlock block = new CodeBlock();
+            block.start = readVarInt(in);
+            block.end = block.start + readVarInt(in);
+            block.offset = readVarInt(in);
+            block.innerOffset = readVarInt(in);
+            block.type = blockTypes[in.readByte()];
+            block.parentType = blockTypes[in.readByte()];
+            byte modifier = in.readByte();
+            block.modifier = (modifier >= 0) ? modifiers[modifier] : null;
+            block.hasParent = in.readBoolean();
+            block.name = readString(in);
+            block.returnType = readString(in);
+            int subIndexes = readVarInt(in);
+            if (subIndexes > 0) {
+                block.subIndexes = new SmartArrayList<>();
+                for (int j = 1; j < subIndexes; j++) {
+                    block.subIndexes.add(new CodePosition(readVarInt(in) - 1, readVarInt(in) - 1));
+                }
+            }
+            if (block.getEnd() > sourceCode.length()) throw new IOException("Invalid block position");
+            block.setCode(sourceCode, block.getStart(), block.getEnd());
+            block.subBlocks.addAll(readBlocks(in, sourceCode));
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Write a positive integer with a variable length (7 bits per byte)
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid variable length integer");
+    }
+}
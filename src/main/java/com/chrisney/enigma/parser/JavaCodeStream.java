@@ -0,0 +1,328 @@
+package com.chrisney.enigma.parser;
+
+import com.chrisney.enigma.utils.TextUtils;
+import com.chrisney.enigma.utils.Utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Streaming transformation of a JAVA file: the source code is read by parts of whole top level blocks, each part
+ * is parsed, transformed and written as soon as possible, then dropped. The memory used is bounded by the
+ * biggest top level block (a class) instead of the size of the file.
+ * The transformations are the same as {@link JavaCode#addImport(String)}, {@link JavaCode#encryptStrings(String, String)}
+ * and {@link JavaCode#injectFakeKeys(String, String)} on the whole file. A part is kept in memory only while it
+ * can receive injected code: for example the latest class, until the end of the file.
+ * The import is added after the latest import declared before the first class (any valid JAVA file).
+ * @author Christopher Ney
+ */
+public class JavaCodeStream {
+
+    /**
+     * Default minimum size of a part of code (characters): small top level blocks are grouped
+     */
+    public static final int DEFAULT_PART_SIZE = 64 * 1024;
+
+    /**
+     * Size of the reading buffer (characters)
+     */
+    private static final int READ_SIZE = 8 * 1024;
+
+    /**
+     * Minimum size of a part of code (characters)
+     */
+    public int partSize = DEFAULT_PART_SIZE;
+
+    /**
+     * If the source code contains one of these values, the transformation is aborted (example: code already encrypted)
+     */
+    public String[] abortValues = null;
+
+    /**
+     * ABI neutral injection (see {@link JavaCode#abiNeutral}): the fake attribute and the fake code are injected
+     * together, into the latest class of the file
+     */
+    public boolean abiNeutral = false;
+
+    private final JavaParser parser;
+
+    private String importName = null;
+    private String key = null;
+    private String functionName = null;
+    private String fakeParamName = null;
+    private String fakeValue = null;
+
+    /**
+     * Parts of code parsed, not yet written
+     */
+    private final ArrayList<JavaCode> pendingParts = new ArrayList<>();
+
+    /**
+     * Parts which can receive the import, the fake attribute and the fake code (null if none or already done)
+     */
+    private JavaCode importPart;
+    private JavaCode attributePart;
+    private JavaCode fakeCodePart;
+
+    /**
+     * First part of the file
+     */
+    private JavaCode firstPart;
+
+    private boolean importDone;
+    private boolean fakeCodeDone;
+    private boolean hasClass;
+    private boolean hasFunction;
+
+    /**
+     * Constructor
+     * @param parser Parser of the parts of code
+     */
+    public JavaCodeStream(JavaParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Add a package name import
+     * @param packageName Package name to import
+     */
+    public void addImport(String packageName) {
+        this.importName = packageName;
+    }
+
+    /**
+     * Encrypt all string values
+     * @param key Secrete key encryption
+     * @param functionName Name of the decryption method
+     */
+    public void encryptStrings(String key, String functionName) {
+        this.key = key;
+        this.functionName = functionName;
+    }
+
+    /**
+     * Inject fake code: fake attribute (random name and value)
+     */
+    public void injectFakeKeys() {
+        injectFakeKeys(new Random());
+    }
+
+    /**
+     * Inject fake code: fake attribute (random name and value)
+     * @param random Random generator of the attribute name and value (seeded for a reproducible code)
+     */
+    public void injectFakeKeys(Random random) {
+        int sizeValue = Utils.getRandomNumberInRange(10, 30, random);
+        injectFakeKeys(TextUtils.getRandomString(10, TextUtils.PARAM_CHARACTERS, random),
+                TextUtils.getRandomString(sizeValue, TextUtils.KEY_CHARACTERS, random));
+    }
+
+    /**
+     * Inject fake code: fake attribute
+     * @param fakeParamName Attribute name
+     * @param randomValue Attribute value
+     */
+    public void injectFakeKeys(String fakeParamName, String randomValue) {
+        this.fakeParamName = fakeParamName;
+        this.fakeValue = randomValue;
+    }
+
+    /**
+     * Read, transform and write a JAVA source code
+     * @param in Input source code
+     * @param out Output source code
+     * @return True if transformed, false if aborted (see {@link #abortValues}): the output is incomplete
+     * @throws Exception Reading, writing or encryption error
+     */
+    public boolean transform(Reader in, Writer out) throws Exception {
+        pendingParts.clear();
+        importPart = attributePart = fakeCodePart = firstPart = null;
+        importDone = (importName == null);
+        fakeCodeDone = hasClass = hasFunction = false;
+
+        char[] buffer = new char[Math.max(partSize, READ_SIZE) + READ_SIZE];
+        int length = 0;
+        int partStart = 0;
+        boolean complete = false;
+        BlockEndScanner scanner = new BlockEndScanner(0, null);
+
+        while (!complete) {
+            // Move the current part at the start of the buffer, and make room to read:
+            if (partStart > 0) {
+                System.arraycopy(buffer, partStart, buffer, 0, length - partStart);
+                scanner.shift(partStart);
+                length -= partStart;
+                partStart = 0;
+            }
+            if (buffer.length - length < READ_SIZE) {
+                char[] b = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, b, 0, length);
+                buffer = b;
+            }
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) complete = true;
+            else length += n;
+
+            // Parse and transform the parts of whole top level blocks:
+            for (int end = scanner.next(buffer, length, complete); end != BlockEndScanner.NONE;
+                 end = scanner.next(buffer, length, complete)) {
+                if (end - partStart >= partSize) {
+                    if (!addPart(new String(buffer, partStart, end - partStart), out)) return false;
+                    partStart = end;
+                }
+            }
+        }
+
+        // Last part (end of file):
+        if (!addPart(new String(buffer, partStart, length - partStart), out)) return false;
+        finish();
+        for (int i = 0; i < pendingParts.size(); i++) {
+            JavaCode part = pendingParts.get(i);
+            if (i < pendingParts.size() - 1) part.writePartTo(out);
+            else part.writeTo(out);
+        }
+        pendingParts.clear();
+        return true;
+    }
+
+    /**
+     * Parse and transform a part of code, then write the parts which can't receive injected code anymore
+     * @param code Part of code
+     * @param out Output source code
+     * @return False if aborted
+     * @throws Exception Writing or encryption error
+     */
+    private boolean addPart(String code, Writer out) throws Exception {
+        if (abortValues != null) {
+            for (String value : abortValues) {
+                if (code.contains(value)) return false;
+            }
+        }
+
+        JavaCode part = parser.parse(code);
+        part.abiNeutral = abiNeutral;
+        if (firstPart == null) firstPart = part;
+        pendingParts.add(part);
+
+        // Import: after the latest import (or package) declared before the first class:
+        if (!importDone) {
+            if (hasImport(part, part != firstPart)
+                    || (importPart == null && !part.getBlocksByType(CodeBlock.BlockType.Package).isEmpty())) {
+                importPart = part;
+            }
+            if (hasDeclaration(part)) addPendingImport();
+        }
+
+        if (key != null) part.encryptStrings(key, functionName);
+
+        // Fake keys: attribute into the latest class, code into the first function (if classes and functions):
+        if (fakeParamName != null) {
+            hasClass |= !part.getBlocksByType(CodeBlock.BlockType.Class).isEmpty();
+            hasFunction |= !part.getFunctions().isEmpty();
+            if (hasInjectionClass(part, abiNeutral)) attributePart = part;
+            if (!abiNeutral && !fakeCodeDone && fakeCodePart == null && hasFunctionWithCode(part)) fakeCodePart = part;
+            if (hasClass && hasFunction) injectFakeCode();
+        }
+
+        // Write the parts which can't receive injected code anymore:
+        while (!pendingParts.isEmpty()) {
+            JavaCode first = pendingParts.get(0);
+            if (first == importPart || first == attributePart || first == fakeCodePart) break;
+            first.writePartTo(out);
+            pendingParts.remove(0);
+        }
+        return true;
+    }
+
+    /**
+     * Inject the pending code at the end of the file
+     */
+    private void finish() {
+        if (!importDone) addPendingImport();
+        if (fakeParamName != null && hasClass && hasFunction) {
+            if (attributePart != null) {
+                attributePart.injectFakeAttribute(fakeParamName, fakeValue);
+                if (abiNeutral) attributePart.injectFakeCode(fakeParamName);
+            }
+            injectFakeCode();
+        }
+        attributePart = null;
+    }
+
+    /**
+     * Add the import into its part: no import can be declared after
+     */
+    private void addPendingImport() {
+        if (importPart != null) importPart.addImport(importName, importPart != firstPart);
+        importPart = null;
+        importDone = true;
+    }
+
+    /**
+     * Inject the fake code into its part (the fake attribute is injected into the latest class, at the end of
+     * the file: both are never inserted at the same position)
+     */
+    private void injectFakeCode() {
+        if (fakeCodePart == null) return;
+        fakeCodePart.injectFakeCode(fakeParamName);
+        fakeCodePart = null;
+        fakeCodeDone = true;
+    }
+
+    /**
+     * Indicate if a part contains an import where the new import can be added
+     * @param part Part of code
+     * @param isPart True if not the first part of the file
+     * @return True if the part contains an import (the first block of a file is never used)
+     */
+    private static boolean hasImport(JavaCode part, boolean isPart) {
+        ArrayList<CodeBlock> blocks = part.getRootBlocks();
+        for (int i = isPart ? 0 : 1; i < blocks.size(); i++) {
+            if (blocks.get(i).type == CodeBlock.BlockType.Import) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicate if a part contains a declaration (class, interface...): no import can be declared after
+     * @param part Part of code
+     * @return True if the part contains a declaration
+     */
+    private static boolean hasDeclaration(JavaCode part) {
+        for (CodeBlock block : part.getRootBlocks()) {
+            if (block.type == CodeBlock.BlockType.Class || block.type == CodeBlock.BlockType.Interface
+                    || block.hasChildren()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicate if a part contains a class (or an interface) where code can be injected
+     * @param part Part of code
+     * @param classOnly True to exclude the interfaces
+     * @return True if found
+     */
+    private static boolean hasInjectionClass(JavaCode part, boolean classOnly) {
+        CodeBlock.BlockType[] types = classOnly ? new CodeBlock.BlockType[] {CodeBlock.BlockType.Class}
+                : new CodeBlock.BlockType[] {CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface};
+        for (CodeBlock block : part.getBlocksByTypes(types)) {
+            if (block.hasChildren()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicate if a part contains a function with code
+     * @param part Part of code
+     * @return True if found
+     */
+    private static boolean hasFunctionWithCode(JavaCode part) {
+        for (CodeBlock block : part.getFunctions()) {
+            if (block.hasChildren()) return true;
+        }
+        return false;
+    }
+}
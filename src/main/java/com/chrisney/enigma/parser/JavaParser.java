@@ -5,12 +5,21 @@ import com.chrisney.enigma.utils.TextUtils;
 import com.chrisney.enigma.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
- * JAVA Simple Parser: parse JAVA source code and detects String values
+ * JAVA Simple Parser: parse JAVA source code and detects String values.
+ * A parser parses one source code at a time (the concurrent calls wait): use one parser per thread
+ * to parse files in parallel. The static state of the parser is immutable.
  * @author Christopher Ney
  */
-public class JavaParser {
+public class JavaParser implements ParserEngine {
+
+    /**
+     * Name of the engine (see {@link ParserEngines})
+     */
+    public static final String NAME = "heuristic";
 
     private static final char cCurlyBracketOpen = '{';
     private static final char cCurlyBracketClose = '}';
@@ -113,32 +122,205 @@ public class JavaParser {
             tList, tArrayList, tMap, tHashMap, tHashSet, tHashTable, tStringBuilder, tObject, tNumber, tEnum, tException
     };
 
+    /**
+     * Keywords (lower case) and native types, by length: words are compared without reading their value
+     */
+    private static final String[][] keywordsByLength = groupByLength(keywords);
+    private static final String[][] typesByLength = groupByLength(types);
+
+    /**
+     * Character classes (ASCII only, other characters have no class)
+     */
+    static final byte CLASS_EMPTY = 1;
+    static final byte CLASS_BREAK = 2;
+    static final byte CLASS_RETURN = 4;
+    private static final byte[] charClasses = new byte[128];
+
+    static {
+        charClasses[' '] |= CLASS_EMPTY;
+        charClasses['\t'] |= CLASS_EMPTY;
+        charClasses['\r'] |= CLASS_EMPTY | CLASS_RETURN;
+        charClasses['\n'] |= CLASS_EMPTY | CLASS_RETURN;
+        char lineSeparator = System.lineSeparator().charAt(0);
+        if (lineSeparator < charClasses.length) charClasses[lineSeparator] |= CLASS_RETURN;
+        for (char c : charBreaks) charClasses[c] |= CLASS_BREAK;
+    }
+
+    /**
+     * Value used when no word is being read
+     */
+    private static final int NO_WORD = -1;
+
+    /**
+     * Default minimum size (characters) of a block of code whose members are parsed in parallel
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Minimum size (characters) of a block of code whose members (example: the body of a huge class)
+     * are parsed in parallel, 0 to always parse sequentially
+     */
+    public int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * Keep the words of the blocks after the detection of their type and name (see {@link CodeBlock#words}),
+     * false to drop them as soon as possible: the transformations of the code don't use them
+     */
+    public boolean keepWords = true;
+
+    /**
+     * Return the blocks as a compact tree (see {@link CompactCodeTree}) instead of CodeBlock objects
+     */
+    public boolean compactTree = false;
+
+    /**
+     * Source code being parsed (shared by all blocks) and its characters
+     */
+    private String source;
+    private char[] chars;
+
+    /**
+     * Index of the next none empty character, for each index of the source code
+     */
+    private int[] nextNoneEmptyIndexes;
+
+    /**
+     * Matching curly brackets of the source code
+     */
+    private BracketIndex brackets;
+
     /**
      * Constructor
      */
     public JavaParser() {}
 
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
     /**
      * Parse JAVA File
      * @param sourceCode JAVA source code
      * @return Code blocks
      */
-    public JavaCode parse(String sourceCode) {
-        ArrayList<CodeString> strings = new ArrayList<>();
-        ArrayList<CodeBlock> blocks = this.parse(sourceCode, null, strings, 0);
-        return new JavaCode(blocks, strings, sourceCode);
+    @Override
+    public synchronized JavaCode parse(String sourceCode) {
+        this.source = sourceCode;
+        this.chars = sourceCode.toCharArray();
+        this.nextNoneEmptyIndexes = getNextNoneEmptyIndexes(chars);
+        this.brackets = BracketIndex.build(chars);
+        try {
+            ArrayList<CodeString> strings = new ArrayList<>();
+            ArrayList<CodeBlock> blocks = this.parse(0, 0, chars.length, chars.length, null, strings);
+            JavaCode javaCode = compactTree
+                    ? new JavaCode(CompactCodeTree.build(blocks, sourceCode.length()), strings, sourceCode)
+                    : new JavaCode(blocks, strings, sourceCode);
+            javaCode.parallelThreshold = parallelThreshold;
+            return javaCode;
+        } finally {
+            this.source = null;
+            this.chars = null;
+            this.nextNoneEmptyIndexes = null;
+            this.brackets = null;
+        }
     }
 
     /**
-     * Parse JAVA File
-     * @param source JAVA source code
+     * Scan JAVA File and report declarations, blocks and String values to a visitor,
+     * without building the code blocks tree.
+     * @param sourceCode JAVA source code
+     * @param visitor Visitor which receives the scanning events
+     */
+    public void visit(String sourceCode, JavaSourceVisitor visitor) {
+        new JavaSourceScanner().scan(sourceCode.toCharArray(), visitor);
+    }
+
+    /**
+     * Parse a window of the JAVA source code, in parallel if it is a big window of members
+     * (see {@link #parallelThreshold}).
+     * @param from Window start index (included)
+     * @param to Window end index (excluded)
+     * @param parent Parent block
+     * @return Code blocks
+     */
+    private ArrayList<CodeBlock> parseWindow(int from, int to, CodeBlock parent) {
+        if (parallelThreshold <= 0 || to - from < parallelThreshold) {
+            return this.parse(from, from, to, to, parent, null);
+        }
+
+        // Split the window into parts of whole members, of similar sizes:
+        int[] ends = getMemberEnds(from, to);
+        int parts = Math.min(Math.max(ForkJoinPool.getCommonPoolParallelism(), 2) * 4, ends.length + 1);
+        if (parts < 2) return this.parse(from, from, to, to, parent, null);
+
+        ArrayList<ForkJoinTask<ArrayList<CodeBlock>>> tasks = new ArrayList<>(parts);
+        int partStart = from;
+        int partSize = (to - from) / parts;
+        for (int end : ends) {
+            if (end - partStart >= partSize && to - end >= partSize / 2) {
+                tasks.add(newParseTask(from, partStart, end, to, parent));
+                partStart = end;
+            }
+        }
+        tasks.add(newParseTask(from, partStart, to, to, parent));
+
+        // Parse the parts, then stitch the blocks (positions are relative to the same window start):
+        ForkJoinTask.invokeAll(tasks);
+        ArrayList<CodeBlock> blocks = new ArrayList<>();
+        for (ForkJoinTask<ArrayList<CodeBlock>> task : tasks) blocks.addAll(task.join());
+        return blocks;
+    }
+
+    private ForkJoinTask<ArrayList<CodeBlock>> newParseTask(int from, int scanFrom, int scanTo, int to, CodeBlock parent) {
+        return ForkJoinTask.adapt(() -> this.parse(from, scanFrom, scanTo, to, parent, null));
+    }
+
+    /**
+     * Return the end positions of the members of a window (example: the attributes and functions of a class body),
+     * after which the parsing of the window starts again from a clean state (see {@link BlockEndScanner}).
+     * @param from Window start index (included)
+     * @param to Window end index (excluded)
+     * @return End positions (excluded) of the members
+     */
+    private int[] getMemberEnds(int from, int to) {
+        int[] ends = new int[64];
+        int count = 0;
+        BlockEndScanner scanner = new BlockEndScanner(from, brackets);
+        for (int end = scanner.next(chars, to, true); end != BlockEndScanner.NONE; end = scanner.next(chars, to, true)) {
+            if (count == ends.length) {
+                int[] e = new int[count * 2];
+                System.arraycopy(ends, 0, e, 0, count);
+                ends = e;
+            }
+            ends[count++] = end;
+        }
+        int[] result = new int[count];
+        System.arraycopy(ends, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Parse a window of the JAVA source code. Positions of blocks and words are relative to the window start,
+     * which is also the offset of the blocks. The parsing can start and stop at the end of members of the
+     * window (see {@link #getMemberEnds(int, int)}), to parse the parts of a window in parallel.
+     * @param from Window start index (included)
+     * @param scanFrom Parsing start index (included)
+     * @param scanTo Parsing end index (excluded)
+     * @param to Window end index (excluded)
      * @param parent Parent block (optional)
+     * @param strings String values found (top level only)
      * @return Code blocks
      */
-    private ArrayList<CodeBlock> parse(String source, CodeBlock parent, ArrayList<CodeString> strings, int offset) {
+    private ArrayList<CodeBlock> parse(int from, int scanFrom, int scanTo, int to, CodeBlock parent, ArrayList<CodeString> strings) {
 
         ArrayList<CodeBlock> blocks = new ArrayList<>();
 
+        final String source = this.source;
+        final char[] chars = this.chars;
+        final int[] nextNoneEmptyIndexes = this.nextNoneEmptyIndexes;
+        final BracketIndex brackets = this.brackets;
+
         int counterCurlyBrackets = 0;
         int counterParenthesis = 0;
         int counterBrackets = 0;
@@ -146,103 +328,103 @@ public class JavaParser {
 
         CodeBlock.BlockType currentBlock = CodeBlock.BlockType.Undefined;
 
-        CodeString word = null;
-        CodeString string = null;
+        int wordStart = NO_WORD;
+        int stringStart = NO_WORD;
         CodeBlock block = null;
 
-        for (int i = 0; i < source.length(); i++) {
+        for (int i = scanFrom; i < scanTo; i++) {
 
-            Character prevChar = (i > 0) ? source.charAt(i - 1) : ' ';
-            Character curChar = source.charAt(i);
-            Character nextChar = (i < source.length() - 1) ? source.charAt(i + 1) : ' ';
-            Character nextNoneEmptyChar = getNextNoneEmptyChar(source, i + 1);
+            final char prevChar = (i > from) ? chars[i - 1] : ' ';
+            final char curChar = chars[i];
+            final char nextChar = (i < to - 1) ? chars[i + 1] : ' ';
+            final int nextNoneEmptyIndex = (i < to - 1) ? nextNoneEmptyIndexes[i + 1] : to;
+            final char nextNoneEmptyChar = (nextNoneEmptyIndex < to) ? chars[nextNoneEmptyIndex] : ' ';
+            final int curClass = charClass(curChar);
 
             // Track String values and comments blocks:
             if (currentBlock == CodeBlock.BlockType.Undefined) {
-                if (curChar.equals(cDoubleQuote) && !prevChar.equals(cEscape)) {
+                if (curChar == cDoubleQuote && prevChar != cEscape) {
                     currentBlock = CodeBlock.BlockType.StringValue;
-                } else if (curChar.equals(cSlash) && nextChar.equals(cSlash)) {
+                } else if (curChar == cSlash && nextChar == cSlash) {
                     currentBlock = CodeBlock.BlockType.CommentLine;
-                } else if (curChar.equals(cSlash) && nextChar.equals(cStar)) {
+                } else if (curChar == cSlash && nextChar == cStar) {
                     currentBlock = CodeBlock.BlockType.CommentBlock;
-                } else if (curChar.equals(cAnnotation) && counterAnnotationParenthesis == 0 && word == null) {
+                } else if (curChar == cAnnotation && counterAnnotationParenthesis == 0 && wordStart == NO_WORD) {
                     currentBlock = CodeBlock.BlockType.Annotation;
                 }
             } else if (currentBlock == CodeBlock.BlockType.StringValue) {
-                if (curChar.equals(cDoubleQuote) && !prevChar.equals(cEscape))
+                if (curChar == cDoubleQuote && prevChar != cEscape)
                     currentBlock = CodeBlock.BlockType.Undefined;
             }
 
             // Brackets & parenthesis counters:
             if (currentBlock != CodeBlock.BlockType.CommentLine && currentBlock != CodeBlock.BlockType.CommentBlock) {
-                if (curChar.equals(cCurlyBracketOpen)) counterCurlyBrackets++;
-                if (curChar.equals(cCurlyBracketClose)) counterCurlyBrackets--;
-                if (curChar.equals(cParenthesisOpen)) counterParenthesis++;
-                if (curChar.equals(cParenthesisClose)) counterParenthesis--;
-                if (curChar.equals(cBracketOpen)) counterBrackets++;
-                if (curChar.equals(cBracketClose)) counterBrackets--;
-                if (currentBlock == CodeBlock.BlockType.Annotation) {
-                    if (curChar.equals(cParenthesisOpen)) counterAnnotationParenthesis++;
-                    if (curChar.equals(cParenthesisClose)) counterAnnotationParenthesis--;
+                switch (curChar) {
+                    case cCurlyBracketOpen: counterCurlyBrackets++; break;
+                    case cCurlyBracketClose: counterCurlyBrackets--; break;
+                    case cParenthesisOpen:
+                        counterParenthesis++;
+                        if (currentBlock == CodeBlock.BlockType.Annotation) counterAnnotationParenthesis++;
+                        break;
+                    case cParenthesisClose:
+                        counterParenthesis--;
+                        if (currentBlock == CodeBlock.BlockType.Annotation) counterAnnotationParenthesis--;
+                        break;
+                    case cBracketOpen: counterBrackets++; break;
+                    case cBracketClose: counterBrackets--; break;
+                    default: break;
                 }
             }
 
             // String value detection
             if  (parent == null && strings != null) {
-                if (currentBlock == CodeBlock.BlockType.StringValue && string == null) {
-                    string = new CodeString(i);
-                } else if (string != null && currentBlock != CodeBlock.BlockType.StringValue) {
-                    string.end = i + 1;
-                    string.value = source.substring(string.start, string.end);
-                    string.isCaseValue = (block != null) && isSwitchCaseValue(block.words, string.value, nextNoneEmptyChar);
+                if (currentBlock == CodeBlock.BlockType.StringValue && stringStart == NO_WORD) {
+                    stringStart = i - from;
+                } else if (stringStart != NO_WORD && currentBlock != CodeBlock.BlockType.StringValue) {
+                    CodeString string = new CodeString(source, from, stringStart, i - from + 1);
+                    string.isCaseValue = (block != null) && isSwitchCaseValue(block.words, string, nextNoneEmptyChar);
                     strings.add(string);
-                    string = null;
+                    stringStart = NO_WORD;
                 }
             }
 
             // Start new word:
-            if (word == null && !TextUtils.inCharactersList(charBreaks, curChar)) {
-                word = new CodeString(i);
-
+            if (wordStart == NO_WORD && (curClass & CLASS_BREAK) == 0) {
+                wordStart = i;
             }
-            if (TextUtils.isEmptyChar(curChar) || TextUtils.inCharactersList(charBreaks, curChar) ||
-                    isEndBlockComment(currentBlock, curChar, prevChar)
-            ) {
+            if ((curClass & (CLASS_EMPTY | CLASS_BREAK)) != 0 || isEndBlockComment(currentBlock, curChar, prevChar)) {
 
                 // End of current word, then create word object:
-                if (word != null) {
-                    word.end = i;
-                    word.value = source.substring(word.start, word.end);
-                    if (currentBlock != CodeBlock.BlockType.StringValue
-                            && currentBlock != CodeBlock.BlockType.CommentBlock
-                            && currentBlock != CodeBlock.BlockType.CommentLine) {
-                        word.isInstruction = isInstruction(word.value);
-                        word.isType = isType(word.value);
-                    }
+                if (wordStart != NO_WORD) {
 
                     // New Block detection:
                     if (block == null) {
                         block = new CodeBlock();
-                        block.offset = offset;
+                        block.offset = from;
                         if  (parent != null) {
                             block.hasParent = true;
                             block.parentType = parent.type;
                         }
-                        block.start = i - word.value.length();
+                        block.start = wordStart - from;
                     }
 
                     // Add word to current block:
-                    if (!word.value.isEmpty()) block.words.add(word);
+                    if (wordStart < i) {
+                        CodeString word = new CodeString(source, from, wordStart - from, i - from);
+                        if (currentBlock != CodeBlock.BlockType.StringValue
+                                && currentBlock != CodeBlock.BlockType.CommentBlock
+                                && currentBlock != CodeBlock.BlockType.CommentLine) {
+                            word.isInstruction = isInstruction(word);
+                            word.isType = isType(word);
+                        }
+                        block.words.add(word);
+                    }
                 }
 
-                // Start new word:
-                word = new CodeString(i);
-                word.end = i;
-                word.value = String.valueOf(curChar);
-
-                // Add words to current block:
-                if (block != null && !word.value.isEmpty()) block.words.add(word);
-                word = null;
+                // Add the current character as a word to the current block (shared if the words are dropped):
+                if (block != null) block.words.add(keepWords ? new CodeString(source, from, i - from, i + 1 - from)
+                        : CodeString.ofChar(curChar));
+                wordStart = NO_WORD;
             }
 
             // Detect END of block
@@ -251,12 +433,12 @@ public class JavaParser {
                 if ((
                         isEndOfCodeBlock(currentBlock, curChar, nextNoneEmptyChar) // End of Line of code, End of Class, Function, Condition, Loop...
                         || isEndAnnotation(currentBlock, curChar, nextNoneEmptyChar, counterParenthesis) // End of Annotation
-                        || (isEndCommentLine(currentBlock, curChar)) // End of Comment line
+                        || (isEndCommentLine(currentBlock, curClass)) // End of Comment line
                         || isEndBlockComment(currentBlock, curChar, prevChar) // End of Comment Block
                 ) && counterCurlyBrackets == 0 && counterParenthesis == 0 && counterBrackets == 0) {
 
-                    block.end = i + 1;
-                    block.code = source.substring(block.start, block.end);
+                    block.end = i - from + 1;
+                    block.setCode(source, block.getStart(), block.getEnd());
 
                     // Analyze sub source code:
                     if (!CodeBlock.isComment(currentBlock))
@@ -266,10 +448,10 @@ public class JavaParser {
 
                         for (CodePosition subIndexes : block.subIndexes) {
 
-                            // Safe substring: important if method doesn't contains any sub code
+                            // Safe sub window: important if method doesn't contains any sub code
                             // Example:
                             //      public void onStateTransitionStart(LauncherState toState) {}
-                            String subCode = TextUtils.safeSubstring(block.code, subIndexes.start, subIndexes.end);
+                            boolean hasSubCode = isValidSubWindow(block, subIndexes);
 
                             // Set block type:
                             block.type = getBlockType(block, true);
@@ -279,9 +461,10 @@ public class JavaParser {
                             // Compute the sub block offset (chars index):
                             int subBlockOffset = block.start + block.offset + subIndexes.start;
 
-                            // Parse the sub block:
-                            if (subCode != null) {
-                                ArrayList<CodeBlock> subBlocks = this.parse(subCode, block, null, subBlockOffset);
+                            // Parse the sub block (window of the shared source code, no copy):
+                            if (hasSubCode) {
+                                int subBlockEnd = block.start + block.offset + subIndexes.end;
+                                ArrayList<CodeBlock> subBlocks = this.parseWindow(subBlockOffset, subBlockEnd, block);
                                 for (CodeBlock subBlock : subBlocks) {
                                     subBlock.innerOffset = subIndexes.start;
                                 }
@@ -306,14 +489,9 @@ public class JavaParser {
                         block.type = CodeBlock.BlockType.Constructor;
                     }
 
-                    // Detect empty spaces (line breaks...)
-                    if (blocks.size() > 0) {
-                        CodeBlock lastBlock = blocks.get(blocks.size() - 1);
-                        CodeBlock emptyBlock = new CodeBlock();
-                        emptyBlock.start = lastBlock.end;
-                        emptyBlock.end = block.start;
-                        emptyBlock.code = source.substring(emptyBlock.start, emptyBlock.end);
-                        System.out.print(emptyBlock.code);
+                    if (!keepWords) {
+                        block.words.clear();
+                        block.words.trimToSize();
                     }
 
                     blocks.add(block);
@@ -323,44 +501,86 @@ public class JavaParser {
 
             // Detect end block type:
             if (currentBlock == CodeBlock.BlockType.CommentLine) {
-                if (TextUtils.isReturnChar(curChar))
+                if ((curClass & CLASS_RETURN) != 0)
                     currentBlock = CodeBlock.BlockType.Undefined;
             } else if (currentBlock == CodeBlock.BlockType.CommentBlock) {
-                if (curChar.equals(cSlash) && prevChar.equals(cStar))
+                if (curChar == cSlash && prevChar == cStar)
                     currentBlock = CodeBlock.BlockType.Undefined;
             } else if (currentBlock == CodeBlock.BlockType.Annotation) {
                 if (isEndAnnotation(currentBlock, curChar, nextNoneEmptyChar, counterAnnotationParenthesis))
                     currentBlock = CodeBlock.BlockType.Undefined;
             }
 
+            // Jump to the end of a sub block: its code is parsed by the sub block parsing (nested levels only,
+            // the top level reads all characters to detect String values):
+            if (parent != null && block != null && curChar == cCurlyBracketOpen && counterCurlyBrackets == 1
+                    && (currentBlock == CodeBlock.BlockType.Undefined || currentBlock == CodeBlock.BlockType.Annotation)) {
+                int match = brackets.getMatch(i);
+                if (match > i && match < to && isSubBlockStart(chars, block.getStart(), i)) i = match - 1;
+            }
+
         } // End for loop
 
         return blocks;
     }
 
+    /**
+     * Return the positions of the sub blocks of a block: code between its top level curly brackets
+     * (array initializers excepted).
+     * @param block Block of code
+     * @return Positions of the sub blocks (relative to the block start)
+     */
     private SmartArrayList<CodePosition> getSubBlockIndexes(CodeBlock block) {
         SmartArrayList<CodePosition> indexes = new SmartArrayList<>();
-        int j;
-        int counterCurlyBracket = 0;
-        char previousNoneEmptyChar = ' ';
-        for (j = 0; j < block.code.length(); j++) {
-
-            char c = block.code.charAt(j);
-
-            if (c == cCurlyBracketOpen) counterCurlyBracket++;
-            if (c == cCurlyBracketClose) counterCurlyBracket--;
-
-            if (c == cCurlyBracketOpen && counterCurlyBracket == 1 && previousNoneEmptyChar != cBracketClose) {
-                indexes.add(new CodePosition(j + 1));
-            } else if (c == cCurlyBracketClose && counterCurlyBracket == 0 && indexes.size() > 0) {
-                indexes.get(indexes.size() -1).end = j - 1;
+        final char[] chars = this.chars;
+        final int start = block.getStart();
+        final int end = block.getEnd();
+        for (int j = start; j < end; j++) {
+
+            if (chars[j] != cCurlyBracketOpen) continue;
+            int match = brackets.getMatch(j);
+            if (match == BracketIndex.NONE) continue;
+
+            boolean isSubBlock = isSubBlockStart(chars, start, j);
+            if (match == BracketIndex.UNMATCHED || match >= end) {
+                // Never closed into the block:
+                if (isSubBlock) indexes.add(new CodePosition(j - start + 1));
+                break;
             }
+            if (isSubBlock) indexes.add(new CodePosition(j - start + 1, match - start - 1));
 
-            if (!TextUtils.isEmptyChar(c)) previousNoneEmptyChar = c;
+            // Jump to the matching close curly bracket:
+            j = match;
         }
         return indexes;
     }
 
+    /**
+     * Check if an open curly bracket starts a sub block, or an array initializer (example: new int[] {0, 1})
+     * @param chars Source code characters
+     * @param blockStart Start index of the block
+     * @param index Index of the open curly bracket
+     * @return True if the curly bracket starts a sub block
+     */
+    static boolean isSubBlockStart(char[] chars, int blockStart, int index) {
+        for (int k = index - 1; k >= blockStart; k--) {
+            if ((charClass(chars[k]) & CLASS_EMPTY) == 0) return chars[k] != cBracketClose;
+        }
+        return true;
+    }
+
+    /**
+     * Check if the sub block position is a valid (and not empty) window of the block code
+     * (same rules as {@link TextUtils#safeSubstring})
+     * @param block Block of code
+     * @param position Position of the sub block into the block
+     * @return True if the sub block contains code
+     */
+    private static boolean isValidSubWindow(CodeBlock block, CodePosition position) {
+        int l = block.codeLength();
+        return l > 0 && position.start > -1 && position.end > -1 && position.end <= l && position.start < position.end;
+    }
+
     /**
      * Detect end of Line of code, End of Class, Function, Condition, Loop...
      * @param currentBlock Current block type
@@ -368,12 +588,12 @@ public class JavaParser {
      * @param nextNoneEmptyChar Next character non empty (if exists)
      * @return True if end of block
      */
-    private boolean isEndOfCodeBlock(CodeBlock.BlockType currentBlock, Character curChar, Character nextNoneEmptyChar) {
+    static boolean isEndOfCodeBlock(CodeBlock.BlockType currentBlock, char curChar, char nextNoneEmptyChar) {
         return !CodeBlock.isComment(currentBlock)
             && currentBlock != CodeBlock.BlockType.StringValue
             && (
-                    curChar.equals(cSemicolon) ||
-                    (curChar.equals(cCurlyBracketClose) && !nextNoneEmptyChar.equals(cSemicolon))
+                    curChar == cSemicolon ||
+                    (curChar == cCurlyBracketClose && nextNoneEmptyChar != cSemicolon)
             );
     }
 
@@ -385,9 +605,9 @@ public class JavaParser {
      * @param parenthesisCounter Parenthesis counter
      * @return True if end of block annotation is detected
      */
-    private boolean isEndAnnotation(CodeBlock.BlockType currentBlock, Character curChar, Character nextNoneEmptyChar, int parenthesisCounter) {
+    static boolean isEndAnnotation(CodeBlock.BlockType currentBlock, char curChar, char nextNoneEmptyChar, int parenthesisCounter) {
         if (currentBlock == CodeBlock.BlockType.Annotation && parenthesisCounter == 0) {
-            if (curChar.equals(cParenthesisClose) || (TextUtils.isEmptyChar(curChar) && Character.isAlphabetic(nextNoneEmptyChar))) {
+            if (curChar == cParenthesisClose || ((charClass(curChar) & CLASS_EMPTY) != 0 && Character.isAlphabetic(nextNoneEmptyChar))) {
                 return true;
             }
         }
@@ -397,11 +617,11 @@ public class JavaParser {
     /**
      * Detect end of line of Comment
      * @param currentBlock Current block type
-     * @param curChar Current character
+     * @param curClass Class of the current character
      * @return True if end of line of Comment is detected
      */
-    private boolean isEndCommentLine(CodeBlock.BlockType currentBlock, Character curChar) {
-        return currentBlock == CodeBlock.BlockType.CommentLine && TextUtils.isReturnChar(curChar);
+    static boolean isEndCommentLine(CodeBlock.BlockType currentBlock, int curClass) {
+        return currentBlock == CodeBlock.BlockType.CommentLine && (curClass & CLASS_RETURN) != 0;
     }
 
     /**
@@ -411,26 +631,32 @@ public class JavaParser {
      * @param prevChar Previous character
      * @return True if end of block comment is detected
      */
-    private boolean isEndBlockComment(CodeBlock.BlockType currentBlock, Character curChar, Character prevChar) {
-        return currentBlock == CodeBlock.BlockType.CommentBlock && curChar.equals(cSlash) && prevChar.equals(cStar);
+    static boolean isEndBlockComment(CodeBlock.BlockType currentBlock, char curChar, char prevChar) {
+        return currentBlock == CodeBlock.BlockType.CommentBlock && curChar == cSlash && prevChar == cStar;
     }
 
     /**
-     * Return the none empty character
-     * @param data String data
-     * @param index  current index
-     * @return Next none empty character
+     * Return the class of a character (empty, break, return flags)
+     * @param c Character
+     * @return Character class flags, or 0 if the character has no class
      */
-    private char getNextNoneEmptyChar(String data, int index) {
-        char c = ' ';
-        while (index < data.length()) {
-            if (!TextUtils.isEmptyChar(data.charAt(index))) {
-                c = data.charAt(index);
-                break;
-            }
-            index++;
+    static int charClass(char c) {
+        return (c < charClasses.length) ? charClasses[c] : 0;
+    }
+
+    /**
+     * Compute, for each index, the index of the next none empty character (index included)
+     * @param chars Source code characters
+     * @return Indexes of the next none empty character, or chars length if none
+     */
+    private static int[] getNextNoneEmptyIndexes(char[] chars) {
+        int[] indexes = new int[chars.length];
+        int next = chars.length;
+        for (int i = chars.length - 1; i >= 0; i--) {
+            if ((charClass(chars[i]) & CLASS_EMPTY) == 0) next = i;
+            indexes[i] = next;
         }
-        return c;
+        return indexes;
     }
 
     /**
@@ -438,9 +664,11 @@ public class JavaParser {
      * @param word Keyword
      * @return True is the keyword is a native Java type
      */
-    private boolean isType(String word) {
-        for (String t : types) {
-            if (t.equals(word)) return true;
+    private static boolean isType(CodeString word) {
+        int length = word.length();
+        if (length >= typesByLength.length) return false;
+        for (String type : typesByLength[length]) {
+            if (word.equalsValue(type)) return true;
         }
         return false;
     }
@@ -452,19 +680,19 @@ public class JavaParser {
      * @param nextNoneEmptyChar Next none empty character
      * @return True if the string value is a switch/case value condition
      */
-    private boolean isSwitchCaseValue(ArrayList<CodeString> words, String value, char nextNoneEmptyChar) {
-        String sDoubleQuote = String.valueOf(cDoubleQuote);
-        if (nextNoneEmptyChar != cColon || !value.startsWith(sDoubleQuote) || !value.endsWith(sDoubleQuote)) return false;
+    private static boolean isSwitchCaseValue(ArrayList<CodeString> words, CodeString value, char nextNoneEmptyChar) {
+        int length = value.length();
+        if (nextNoneEmptyChar != cColon || length == 0
+                || value.charAt(0) != cDoubleQuote || value.charAt(length - 1) != cDoubleQuote) return false;
 
         CodeString prevNonEmptyWord = null;
         for (int i = words.size() - 1; i > 0; i--) {
             prevNonEmptyWord = words.get(i);
-            String v = prevNonEmptyWord.value;
-            if (!TextUtils.isEmpty(v) && !TextUtils.isSpace(v) && !TextUtils.isEqualsToChar(v, cDoubleQuote)) break;
+            if (!prevNonEmptyWord.isBlank() && prevNonEmptyWord.charAt(0) != cDoubleQuote) break;
         }
 
         if (prevNonEmptyWord == null) return false;
-        return sCase.equals(prevNonEmptyWord.value);
+        return prevNonEmptyWord.equalsValue(sCase);
     }
 
     /**
@@ -472,16 +700,57 @@ public class JavaParser {
      * @param word Keyword
      * @return True is the keyword is a Java instruction
      */
-    private static boolean isInstruction(String word) {
-        for (String k : keywords) {
-            if (k.equalsIgnoreCase(word)) return true;
+    private static boolean isInstruction(CodeString word) {
+        int length = word.length();
+        if (length >= keywordsByLength.length) return false;
+        for (String keyword : keywordsByLength[length]) {
+            if (word.equalsValueIgnoreCase(keyword)) return true;
         }
         return false;
     }
 
-    private static boolean isBreakCharacter(String word) {
+    /**
+     * Group String values by length
+     * @param values String values
+     * @return String values, indexed by length
+     */
+    private static String[][] groupByLength(String[] values) {
+        int maxLength = 0;
+        for (String value : values) maxLength = Math.max(maxLength, value.length());
+        String[][] groups = new String[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            int count = 0;
+            for (String value : values) if (value.length() == length) count++;
+            groups[length] = new String[count];
+            count = 0;
+            for (String value : values) if (value.length() == length) groups[length][count++] = value;
+        }
+        return groups;
+    }
+
+    /**
+     * Check if the header of a block (words before its first sub block) is a variable initializer,
+     * example: Runnable r = new Runnable() {...}, Runnable r = () -> {...}, or int[] a = {0, 1}
+     * @param words Words of the block
+     * @return True if the header contains an assignment or an instance creation (out of parenthesis)
+     */
+    private static boolean isInitializer(ArrayList<CodeString> words) {
+        int counterParenthesis = 0;
+        for (CodeString word : words) {
+            if (word.length() == 1) {
+                char c = word.charAt(0);
+                if (c == cCurlyBracketOpen) return false;
+                if (c == cParenthesisOpen) counterParenthesis++;
+                if (c == cParenthesisClose) counterParenthesis--;
+            }
+            if (counterParenthesis == 0 && (word.equalsValue(sNew) || word.getValue().indexOf('=') >= 0)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isBreakCharacter(CodeString word) {
         if (word.length() == 1)
-            return TextUtils.inCharactersList(charBreaks, word.charAt(0));
+            return (charClass(word.charAt(0)) & CLASS_BREAK) != 0;
         return false;
     }
 
@@ -503,8 +772,8 @@ public class JavaParser {
         String annotationName = null;
         String at = String.valueOf(cAnnotation);
         for(CodeString word : block.words) {
-            if (word.value.startsWith(at)) {
-                annotationName = word.value.replace(at, "");
+            if (word.startsWith(at)) {
+                annotationName = word.getValue().replace(at, "");
                 break;
             }
         }
@@ -514,13 +783,13 @@ public class JavaParser {
     private void parseFunction(CodeBlock block) {
         String typeName = null;
         for(CodeString word : block.words) {
-            if (isBreakCharacter(word.value)) break;
-            parseModifier(block, word.value);
-            if (!word.isInstruction && !TextUtils.isEmpty(word.value.trim())) {
+            if (isBreakCharacter(word)) break;
+            parseModifier(block, word);
+            if (!word.isInstruction && !word.isBlank()) {
                 if (typeName == null) {
-                    typeName = word.value;
+                    typeName = word.getValue();
                 } else {
-                    block.name = word.value;
+                    block.name = word.getValue();
                     block.returnType = typeName;
                     return;
                 }
@@ -533,9 +802,9 @@ public class JavaParser {
     private static void parsePackageOrImportName(CodeBlock block) {
         StringBuilder sb = new StringBuilder();
         for(CodeString word : block.words) {
-            if (isBreakCharacter(word.value)) break;
-            if (!TextUtils.isEmpty(word.value.trim()) && !isBreakCharacter(word.value) && !isInstruction(word.value))
-                sb.append(word.value);
+            if (isBreakCharacter(word)) break;
+            if (!word.isBlank() && !isBreakCharacter(word) && !isInstruction(word))
+                sb.append(word.getValue());
         }
         block.name = sb.toString();
     }
@@ -544,31 +813,31 @@ public class JavaParser {
         if (words == null) return false;
         CodeString firstWord = getFirstNoneEmptyWord(words);
         if (firstWord == null) return false;
-        return (sPublic.equals(firstWord.value) || sPrivate.equals(firstWord.value) || sProtected.equals(firstWord.value));
+        return (firstWord.equalsValue(sPublic) || firstWord.equalsValue(sPrivate) || firstWord.equalsValue(sProtected));
     }
 
     private void parseModifier(CodeBlock block) {
         CodeString firstWord = getFirstNoneEmptyWord(block.words);
-        if (firstWord != null) parseModifier(block, firstWord.value);
+        if (firstWord != null) parseModifier(block, firstWord);
     }
 
-    private void parseModifier(CodeBlock block, String word) {
-        if (sPublic.equals(word)) block.modifier = CodeBlock.Modifier.Public;
-        if (sPrivate.equals(word)) block.modifier = CodeBlock.Modifier.Private;
-        if (sProtected.equals(word)) block.modifier = CodeBlock.Modifier.Protected;
+    private void parseModifier(CodeBlock block, CodeString word) {
+        if (word.equalsValue(sPublic)) block.modifier = CodeBlock.Modifier.Public;
+        if (word.equalsValue(sPrivate)) block.modifier = CodeBlock.Modifier.Private;
+        if (word.equalsValue(sProtected)) block.modifier = CodeBlock.Modifier.Protected;
     }
 
     private void parseClassName(CodeBlock block) {
         for(CodeString word : block.words) {
-            if (isBreakCharacter(word.value)) break;
-            parseModifier(block, word.value);
-            if (!word.isInstruction && !word.isType && !TextUtils.isEmpty(word.value.trim()))
-                block.name = word.value;
+            if (isBreakCharacter(word)) break;
+            parseModifier(block, word);
+            if (!word.isInstruction && !word.isType && !word.isBlank())
+                block.name = word.getValue();
         }
     }
 
     private boolean isEmptyWord(CodeString word) {
-        return word.value == null || TextUtils.isEmpty(word.value.trim());
+        return word.isBlank();
     }
 
     private CodeString getFirstNoneEmptyWord(ArrayList<CodeString> words) {
@@ -578,6 +847,14 @@ public class JavaParser {
         return null;
     }
 
+    /**
+     * Return the type of a block. At the nested levels, the words of a block with sub blocks are only the words
+     * of its header (the sub blocks bodies are jumped over): a "class" word found in the body of a block (example:
+     * in a comment or in an anonymous class) doesn't change its type.
+     * @param block Block
+     * @param hasSubCode True if the block has sub blocks
+     * @return Type of the block
+     */
     private CodeBlock.BlockType getBlockType(CodeBlock block, boolean hasSubCode) {
         // has nested code (function, condition, class...)
         if (hasSubCode) {
@@ -585,39 +862,42 @@ public class JavaParser {
             CodeString firstWord = getFirstNoneEmptyWord(block.words);
             if (firstWord == null) return CodeBlock.BlockType.Undefined;
 
-            if (firstWord.value.startsWith(String.valueOf(cAnnotation))) return CodeBlock.BlockType.Annotation;
-            if (firstWord.value.equals(sIf) || firstWord.value.equals(sElse) || firstWord.value.equals(sSwitch))
+            if (firstWord.startsWith(String.valueOf(cAnnotation))) return CodeBlock.BlockType.Annotation;
+            if (firstWord.equalsValue(sIf) || firstWord.equalsValue(sElse) || firstWord.equalsValue(sSwitch))
                 return CodeBlock.BlockType.Condition;
-            if (firstWord.value.equals(sFor) || firstWord.value.equals(sWhile)) return CodeBlock.BlockType.Loop;
-            if (firstWord.value.equals(sTry) || firstWord.value.equals(sCatch)) return CodeBlock.BlockType.TryCatch;
+            if (firstWord.equalsValue(sFor) || firstWord.equalsValue(sWhile)) return CodeBlock.BlockType.Loop;
+            if (firstWord.equalsValue(sTry) || firstWord.equalsValue(sCatch)) return CodeBlock.BlockType.TryCatch;
 
             for (CodeString word : block.words) {
-                if (word.value.equals(sClass)) return CodeBlock.BlockType.Class;
-                if (word.value.equals(sInterface)) return CodeBlock.BlockType.Interface;
+                if (word.equalsValue(sClass)) return CodeBlock.BlockType.Class;
+                if (word.equalsValue(sInterface)) return CodeBlock.BlockType.Interface;
             }
 
             if (!CodeBlock.isClass(block.parentType))
                 return CodeBlock.BlockType.AnonymousInnerClass;
 
+            // Attribute initialized with an anonymous class, a lambda or an array (never a function):
+            if (isInitializer(block.words)) return CodeBlock.BlockType.Attribute;
+
             return CodeBlock.BlockType.Function;
         } else {
 
             CodeString firstWord = getFirstNoneEmptyWord(block.words);
             if (firstWord == null) return CodeBlock.BlockType.Undefined;
 
-            if (firstWord.value.equals(sPackage)) return CodeBlock.BlockType.Package;
-            if (firstWord.value.equals(sImport)) return CodeBlock.BlockType.Import;
-            if (firstWord.value.startsWith(String.valueOf(cAnnotation))) return CodeBlock.BlockType.Annotation;
-            if (firstWord.value.equals(sIf) || firstWord.value.equals(sElse) || firstWord.value.equals(sSwitch))
+            if (firstWord.equalsValue(sPackage)) return CodeBlock.BlockType.Package;
+            if (firstWord.equalsValue(sImport)) return CodeBlock.BlockType.Import;
+            if (firstWord.startsWith(String.valueOf(cAnnotation))) return CodeBlock.BlockType.Annotation;
+            if (firstWord.equalsValue(sIf) || firstWord.equalsValue(sElse) || firstWord.equalsValue(sSwitch))
                 return CodeBlock.BlockType.Condition;
-            if (firstWord.value.equals(sFor) || firstWord.value.equals(sWhile)) return CodeBlock.BlockType.Loop;
-            if (firstWord.value.equals(sReturn)) return CodeBlock.BlockType.Return;
-            if (firstWord.value.startsWith(sBlockCommentStart)) return CodeBlock.BlockType.CommentBlock;
-            if (firstWord.value.startsWith(sLineComment)) return CodeBlock.BlockType.CommentLine;
+            if (firstWord.equalsValue(sFor) || firstWord.equalsValue(sWhile)) return CodeBlock.BlockType.Loop;
+            if (firstWord.equalsValue(sReturn)) return CodeBlock.BlockType.Return;
+            if (firstWord.startsWith(sBlockCommentStart)) return CodeBlock.BlockType.CommentBlock;
+            if (firstWord.startsWith(sLineComment)) return CodeBlock.BlockType.CommentLine;
 
             for (CodeString word : block.words) {
                 if (isEmptyWord(word)) continue;
-                if (word.value.equals(sStatic)) return CodeBlock.BlockType.Attribute;
+                if (word.equalsValue(sStatic)) return CodeBlock.BlockType.Attribute;
             }
         }
 
@@ -0,0 +1,271 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Streaming scanner of JAVA source code: reports declarations, blocks and String values to a
+ * {@link JavaSourceVisitor} without building the code blocks tree (no allocation per token).
+ * @author Christopher Ney
+ */
+public class JavaSourceScanner {
+
+    private static final String sPackage = "package";
+    private static final String sImport = "import";
+    private static final String sStatic = "static";
+    private static final String sClass = "class";
+    private static final String sInterface = "interface";
+    private static final String sEnum = "enum";
+    private static final String sRecord = "record";
+    private static final String sCase = "case";
+
+    /**
+     * Declaration states
+     */
+    private static final int EXPECT_NONE = 0;
+    private static final int EXPECT_PACKAGE_NAME = 1;
+    private static final int EXPECT_IMPORT_NAME = 2;
+    private static final int EXPECT_CLASS_NAME = 3;
+    private static final int EXPECT_CLASS_BODY = 4;
+
+    /**
+     * Annotation states
+     */
+    private static final int ANNOTATION_NONE = 0;
+    private static final int ANNOTATION_NAME = 1;
+    private static final int ANNOTATION_AFTER_NAME = 2;
+
+    /**
+     * ASCII characters which can be part of a JAVA identifier
+     */
+    private static final boolean[] identifierParts = new boolean[128];
+
+    static {
+        for (char c = 0; c < identifierParts.length; c++) identifierParts[c] = Character.isJavaIdentifierPart(c);
+    }
+
+    /**
+     * Scan a JAVA source code
+     * @param chars JAVA source code
+     * @param visitor Visitor which receives the events
+     */
+    public void scan(char[] chars, JavaSourceVisitor visitor) {
+        final int length = chars.length;
+
+        int depth = 0;
+        int parenDepth = 0;
+
+        int expect = EXPECT_NONE;
+        int nameStart = -1;
+        int nameEnd = -1;
+        int classStart = -1;
+        boolean isStaticImport = false;
+
+        int annotation = ANNOTATION_NONE;
+        int annotationParenDepth = -1;
+
+        int caseParenDepth = -1;
+        int ternaryCounter = 0;
+
+        boolean afterDot = false;
+
+        int i = 0;
+        while (i < length) {
+            final char c = chars[i];
+            final char next = (i + 1 < length) ? chars[i + 1] : ' ';
+
+            // Spaces and comments:
+            if (c <= ' ') {
+                i++;
+                continue;
+            }
+            if (c == '/' && next == '/') {
+                i = BracketIndex.skipLineComment(chars, i + 2);
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                i = BracketIndex.skipBlockComment(chars, i + 2);
+                continue;
+            }
+
+            // Words:
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                do {
+                    i++;
+                } while (i < length && isIdentifierPart(chars[i]));
+                boolean isMember = afterDot;
+                afterDot = false;
+
+                if (annotation == ANNOTATION_NAME) {
+                    if (isWord(chars, start, i, sInterface)) {
+                        // Annotation type declaration (@interface):
+                        classStart = start;
+                        expect = EXPECT_CLASS_NAME;
+                        annotation = ANNOTATION_NONE;
+                    } else {
+                        annotation = ANNOTATION_AFTER_NAME;
+                    }
+                    continue;
+                }
+                annotation = ANNOTATION_NONE;
+
+                if (expect == EXPECT_PACKAGE_NAME || expect == EXPECT_IMPORT_NAME) {
+                    if (expect == EXPECT_IMPORT_NAME && nameStart == -1 && !isStaticImport
+                            && isWord(chars, start, i, sStatic)) {
+                        isStaticImport = true;
+                    } else {
+                        if (nameStart == -1) nameStart = start;
+                        nameEnd = i;
+                    }
+                    continue;
+                }
+                if (expect == EXPECT_CLASS_NAME) {
+                    nameStart = start;
+                    nameEnd = i;
+                    expect = EXPECT_CLASS_BODY;
+                    continue;
+                }
+                if (isMember || expect == EXPECT_CLASS_BODY) continue;
+
+                if (depth == 0 && isWord(chars, start, i, sPackage)) {
+                    expect = EXPECT_PACKAGE_NAME;
+                    nameStart = -1;
+                } else if (depth == 0 && isWord(chars, start, i, sImport)) {
+                    expect = EXPECT_IMPORT_NAME;
+                    nameStart = -1;
+                    isStaticImport = false;
+                } else if (isWord(chars, start, i, sClass) || isWord(chars, start, i, sInterface)
+                        || isWord(chars, start, i, sEnum) || isWord(chars, start, i, sRecord)) {
+                    classStart = start;
+                    expect = EXPECT_CLASS_NAME;
+                } else if (isWord(chars, start, i, sCase)) {
+                    caseParenDepth = parenDepth;
+                    ternaryCounter = 0;
+                }
+                continue;
+            }
+
+            // Numbers:
+            if (c >= '0' && c <= '9') {
+                do {
+                    i++;
+                } while (i < length && (isIdentifierPart(chars[i]) || chars[i] == '.'));
+                afterDot = false;
+                annotation = ANNOTATION_NONE;
+                if (expect == EXPECT_CLASS_NAME) expect = EXPECT_NONE;
+                continue;
+            }
+
+            // String values & characters:
+            if (c == '"') {
+                int end = BracketIndex.skipString(chars, i);
+                int context = JavaSourceVisitor.CONTEXT_CODE;
+                if (annotationParenDepth >= 0) context |= JavaSourceVisitor.CONTEXT_ANNOTATION;
+                if (caseParenDepth >= 0) context |= JavaSourceVisitor.CONTEXT_SWITCH_CASE;
+                if (next == '"' && i + 2 < length && chars[i + 2] == '"') context |= JavaSourceVisitor.CONTEXT_TEXT_BLOCK;
+                visitor.onStringLiteral(i, end, context);
+                i = end;
+                afterDot = false;
+                annotation = ANNOTATION_NONE;
+                if (expect == EXPECT_CLASS_NAME) expect = EXPECT_NONE;
+                continue;
+            }
+            if (c == '\'') {
+                i = BracketIndex.skipCharacter(chars, i + 1);
+                afterDot = false;
+                annotation = ANNOTATION_NONE;
+                if (expect == EXPECT_CLASS_NAME) expect = EXPECT_NONE;
+                continue;
+            }
+
+            // Punctuation:
+            if (annotation == ANNOTATION_AFTER_NAME) {
+                if (c == '(' && annotationParenDepth < 0) annotationParenDepth = parenDepth;
+                annotation = (c == '.') ? ANNOTATION_NAME : ANNOTATION_NONE;
+            }
+            if (expect == EXPECT_CLASS_NAME) expect = EXPECT_NONE;
+            afterDot = (c == '.');
+
+            switch (c) {
+                case '@':
+                    annotation = ANNOTATION_NAME;
+                    break;
+                case '{':
+                    if (expect == EXPECT_CLASS_BODY) {
+                        visitor.onClassStart(classStart, nameStart, nameEnd, i);
+                    }
+                    expect = EXPECT_NONE;
+                    caseParenDepth = -1;
+                    depth++;
+                    visitor.onBlockStart(i, depth);
+                    break;
+                case '}':
+                    if (depth > 0) {
+                        visitor.onBlockEnd(i, depth);
+                        depth--;
+                    }
+                    break;
+                case '(':
+                    parenDepth++;
+                    break;
+                case ')':
+                    if (parenDepth > 0) parenDepth--;
+                    if (parenDepth == annotationParenDepth) annotationParenDepth = -1;
+                    break;
+                case ';':
+                    if (expect == EXPECT_PACKAGE_NAME && nameStart != -1) {
+                        visitor.onPackage(nameStart, nameEnd);
+                    } else if (expect == EXPECT_IMPORT_NAME && nameStart != -1) {
+                        visitor.onImport(nameStart, nameEnd, isStaticImport);
+                    }
+                    if (expect != EXPECT_CLASS_BODY) expect = EXPECT_NONE;
+                    caseParenDepth = -1;
+                    break;
+                case '*':
+                    if (expect == EXPECT_IMPORT_NAME) nameEnd = i + 1;
+                    break;
+                case '?':
+                    if (caseParenDepth >= 0) ternaryCounter++;
+                    break;
+                case ':':
+                    if (caseParenDepth == parenDepth) {
+                        if (ternaryCounter > 0) ternaryCounter--;
+                        else caseParenDepth = -1;
+                    }
+                    break;
+                case '-':
+                    if (next == '>') {
+                        if (caseParenDepth == parenDepth) caseParenDepth = -1;
+                        i++;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Check if a character can be part of a JAVA identifier
+     * @param c Character
+     * @return True if the character can be part of a JAVA identifier
+     */
+    private static boolean isIdentifierPart(char c) {
+        return (c < identifierParts.length) ? identifierParts[c] : Character.isJavaIdentifierPart(c);
+    }
+
+    /**
+     * Check if a word of the source code is equal to a String value
+     * @param chars Source code
+     * @param start Start of the word
+     * @param end End of the word
+     * @param word String value
+     * @return True if equal
+     */
+    private static boolean isWord(char[] chars, int start, int end, String word) {
+        if (end - start != word.length()) return false;
+        for (int k = 0; k < word.length(); k++) {
+            if (chars[start + k] != word.charAt(k)) return false;
+        }
+        return true;
+    }
+}
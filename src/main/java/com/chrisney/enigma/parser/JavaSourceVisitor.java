@@ -0,0 +1,75 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Receive the events of a JAVA source code scanning (see {@link JavaParser#visit(String, JavaSourceVisitor)}).
+ * All positions are characters indexes in the source code (start included, end excluded).
+ * @author Christopher Ney
+ */
+public interface JavaSourceVisitor {
+
+    /**
+     * String value in the code
+     */
+    int CONTEXT_CODE = 0;
+
+    /**
+     * String value of a switch/case condition (example: case "RoundedSquare":)
+     */
+    int CONTEXT_SWITCH_CASE = 1;
+
+    /**
+     * String value of an annotation parameter (example: @SuppressWarnings("unchecked"))
+     */
+    int CONTEXT_ANNOTATION = 2;
+
+    /**
+     * String value is a text block (""" ... """)
+     */
+    int CONTEXT_TEXT_BLOCK = 4;
+
+    /**
+     * Package declaration
+     * @param start Start position of the package name
+     * @param end End position of the package name
+     */
+    default void onPackage(int start, int end) {}
+
+    /**
+     * Import declaration
+     * @param start Start position of the imported name
+     * @param end End position of the imported name
+     * @param isStatic True if static import
+     */
+    default void onImport(int start, int end, boolean isStatic) {}
+
+    /**
+     * Start of a class, interface, enum or record
+     * @param start Start position of the declaration keyword (class, interface...)
+     * @param nameStart Start position of the name
+     * @param nameEnd End position of the name
+     * @param bodyStart Position of the open curly bracket of the body
+     */
+    default void onClassStart(int start, int nameStart, int nameEnd, int bodyStart) {}
+
+    /**
+     * Start of a block (open curly bracket)
+     * @param position Position of the open curly bracket
+     * @param depth Depth of the block (1 for a top level class body)
+     */
+    default void onBlockStart(int position, int depth) {}
+
+    /**
+     * String value
+     * @param start Start position of the String value (opening double quote)
+     * @param end End position of the String value (after the closing double quote)
+     * @param context Context flags of the String value (CONTEXT_* values)
+     */
+    default void onStringLiteral(int start, int end, int context) {}
+
+    /**
+     * End of a block (close curly bracket)
+     * @param position Position of the close curly bracket
+     * @param depth Depth of the block (1 for a top level class body)
+     */
+    default void onBlockEnd(int position, int depth) {}
+}
@@ -0,0 +1,370 @@
+package com.chrisney.enigma.parser;
+
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.LiteralTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ModifiersTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import javax.lang.model.element.Modifier;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parser engine backed by the trees of the JDK compiler (javax.tools and com.sun.source): the source code is only
+ * parsed (no attribution, no annotation processing), then the declarations are mapped to code blocks: package,
+ * imports, classes (classes, enums and records), interfaces, attributes, functions and constructors (initializers
+ * are functions), and the statements of their bodies (leaf blocks).
+ * The String values of the annotations and the text blocks are ignored, the switch/case values are marked.
+ * The enum constants and the record components are not blocks: no code is injected between them.
+ * Requires a JDK (see {@link ParserEngines#isJavacAvailable()}).
+ * @author Christopher Ney
+ */
+public class JavacParserEngine implements ParserEngine {
+
+    /**
+     * Name of the engine
+     */
+    public static final String NAME = "javac";
+
+    /**
+     * Options of the compiler: parsing only
+     */
+    private static final List<String> OPTIONS = Arrays.asList("-proc:none", "-nowarn");
+
+    /**
+     * Return the blocks as a compact tree (see {@link CompactCodeTree}) instead of CodeBlock objects
+     */
+    public boolean compactTree = false;
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+
+    /**
+     * Constructor
+     * @throws IllegalStateException If no JAVA compiler is available (JRE)
+     */
+    public JavacParserEngine() {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IllegalStateException("No JAVA compiler available (a JDK is required)");
+        this.fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized JavaCode parse(String sourceCode) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavacTask task = (JavacTask) compiler.getTask(new StringWriter(), fileManager, diagnostics, OPTIONS, null,
+                Collections.singletonList(new SourceFile(sourceCode)));
+        CompilationUnitTree unit;
+        try {
+            unit = task.parse().iterator().next();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalStateException | StackOverflowError e) {
+            // The compiler parses recursively (its errors are wrapped):
+            Throwable cause = (e instanceof IllegalStateException) ? e.getCause() : e;
+            if (cause instanceof StackOverflowError) throw new IllegalArgumentException("Code too deeply nested");
+            throw e;
+        }
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                throw new IllegalArgumentException("Line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null));
+            }
+        }
+
+        TreeMapper mapper = new TreeMapper(sourceCode, unit, Trees.instance(task).getSourcePositions());
+        mapper.addUnit();
+        ArrayList<CodeString> strings = mapper.getStrings();
+        return compactTree
+                ? new JavaCode(mapper.tree, strings, sourceCode)
+                : new JavaCode(mapper.tree.toBlocks(sourceCode), strings, sourceCode);
+    }
+
+    /**
+     * Source code given to the compiler
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String sourceCode;
+
+        SourceFile(String sourceCode) {
+            super(URI.create("string:///Source.java"), Kind.SOURCE);
+            this.sourceCode = sourceCode;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return sourceCode;
+        }
+    }
+
+    /**
+     * Map the trees of a compilation unit to a compact tree of blocks
+     */
+    private static class TreeMapper {
+
+        private final String source;
+        private final CompilationUnitTree unit;
+        private final SourcePositions positions;
+        private final CompactCodeTree tree;
+
+        TreeMapper(String source, CompilationUnitTree unit, SourcePositions positions) {
+            this.source = source;
+            this.unit = unit;
+            this.positions = positions;
+            this.tree = new CompactCodeTree(source.length(), 64);
+        }
+
+        void addUnit() {
+            ExpressionTree packageName = unit.getPackageName();
+            if (packageName != null) {
+                // The package declaration tree is not available before JAVA 9: search its keyword and semicolon
+                int start = source.lastIndexOf("package", start(packageName));
+                int end = source.indexOf(';', end(packageName));
+                if (start >= 0 && end >= 0) {
+                    tree.add(CompactCodeTree.ROOT, start, end + 1, CodeBlock.BlockType.Package, null,
+                            packageName.toString(), null);
+                }
+            }
+            for (ImportTree importTree : unit.getImports()) {
+                tree.add(CompactCodeTree.ROOT, blockStart(start(importTree)), end(importTree), CodeBlock.BlockType.Import, null,
+                        importTree.getQualifiedIdentifier().toString(), null);
+            }
+            for (Tree declaration : unit.getTypeDecls()) {
+                if (declaration instanceof ClassTree) addClass(CompactCodeTree.ROOT, (ClassTree) declaration);
+            }
+        }
+
+        private void addClass(int parent, ClassTree classTree) {
+            Tree.Kind kind = classTree.getKind();
+            CodeBlock.BlockType type = (kind == Tree.Kind.INTERFACE || kind == Tree.Kind.ANNOTATION_TYPE)
+                    ? CodeBlock.BlockType.Interface : CodeBlock.BlockType.Class;
+            String name = classTree.getSimpleName().toString();
+            int node = tree.add(parent, blockStart(start(classTree)), end(classTree), type,
+                    getModifier(classTree.getModifiers()), name, null);
+
+            // Declarations of several attributes share the same start: one block
+            int previousStart = CompactCodeTree.NONE;
+            int previousEnd = CompactCodeTree.NONE;
+            for (Tree member : classTree.getMembers()) {
+                int start = start(member);
+                if (start < 0) continue;
+                if (member instanceof VariableTree) {
+                    if (isImplicit((VariableTree) member)) continue;
+                    if (start != previousStart && previousStart != CompactCodeTree.NONE) {
+                        addAttribute(node, previousStart, previousEnd);
+                    }
+                    previousStart = start;
+                    previousEnd = end(member);
+                    continue;
+                }
+                if (previousStart != CompactCodeTree.NONE) addAttribute(node, previousStart, previousEnd);
+                previousStart = CompactCodeTree.NONE;
+
+                if (member instanceof ClassTree) {
+                    addClass(node, (ClassTree) member);
+                } else if (member instanceof MethodTree) {
+                    MethodTree method = (MethodTree) member;
+                    boolean isConstructor = method.getName().contentEquals("<init>");
+                    int functionNode = tree.add(node, blockStart(start), end(method),
+                            isConstructor ? CodeBlock.BlockType.Constructor : CodeBlock.BlockType.Function,
+                            getModifier(method.getModifiers()),
+                            isConstructor ? name : method.getName().toString(),
+                            (method.getReturnType() != null) ? method.getReturnType().toString() : null);
+                    if (method.getBody() != null) addStatements(functionNode, method.getBody());
+                } else if (member instanceof BlockTree) {
+                    int functionNode = tree.add(node, blockStart(start), end(member), CodeBlock.BlockType.Function, null, null, null);
+                    addStatements(functionNode, (BlockTree) member);
+                }
+            }
+            if (previousStart != CompactCodeTree.NONE) addAttribute(node, previousStart, previousEnd);
+        }
+
+        private void addAttribute(int parent, int start, int end) {
+            tree.add(parent, blockStart(start), end, CodeBlock.BlockType.Attribute, null, null, null);
+        }
+
+        private void addStatements(int parent, BlockTree block) {
+            // Declarations of several variables share the same start: one block
+            int previousStart = CompactCodeTree.NONE;
+            int previousEnd = CompactCodeTree.NONE;
+            CodeBlock.BlockType previousType = null;
+            for (Tree statement : block.getStatements()) {
+                int start = start(statement);
+                if (start < 0) continue;
+                if (start != previousStart && previousStart != CompactCodeTree.NONE) {
+                    tree.add(parent, blockStart(previousStart), previousEnd, previousType, null, null, null);
+                }
+                previousStart = start;
+                previousEnd = end(statement);
+                previousType = getStatementType(statement.getKind());
+            }
+            if (previousStart != CompactCodeTree.NONE) {
+                tree.add(parent, blockStart(previousStart), previousEnd, previousType, null, null, null);
+            }
+        }
+
+        private static CodeBlock.BlockType getStatementType(Tree.Kind kind) {
+            switch (kind) {
+                case RETURN: return CodeBlock.BlockType.Return;
+                case IF:
+                case SWITCH: return CodeBlock.BlockType.Condition;
+                case FOR_LOOP:
+                case ENHANCED_FOR_LOOP:
+                case WHILE_LOOP:
+                case DO_WHILE_LOOP: return CodeBlock.BlockType.Loop;
+                case TRY: return CodeBlock.BlockType.TryCatch;
+                default: return CodeBlock.BlockType.LineOfCode;
+            }
+        }
+
+        /**
+         * Indicate if a variable is declared without its own code: enum constant (no type) or record component
+         * (modifiers without code)
+         * @param variable Variable
+         * @return True if implicit
+         */
+        private boolean isImplicit(VariableTree variable) {
+            ModifiersTree modifiers = variable.getModifiers();
+            return (variable.getType() != null && end(variable.getType()) < 0)
+                    || (start(modifiers) < 0 && !modifiers.getFlags().isEmpty());
+        }
+
+        private static CodeBlock.Modifier getModifier(ModifiersTree modifiers) {
+            if (modifiers.getFlags().contains(Modifier.PUBLIC)) return CodeBlock.Modifier.Public;
+            if (modifiers.getFlags().contains(Modifier.PRIVATE)) return CodeBlock.Modifier.Private;
+            if (modifiers.getFlags().contains(Modifier.PROTECTED)) return CodeBlock.Modifier.Protected;
+            return null;
+        }
+
+        /**
+         * Return the String values of the code (annotations excluded), sorted by position
+         * @return String values
+         */
+        ArrayList<CodeString> getStrings() {
+            final ArrayList<CodeString> strings = new ArrayList<>();
+            new TreePathScanner<Void, Void>() {
+                @Override
+                public Void visitAnnotation(AnnotationTree node, Void unused) {
+                    // Annotation values must be constants:
+                    return null;
+                }
+
+                @Override
+                public Void visitLiteral(LiteralTree node, Void unused) {
+                    if (node.getKind() == Tree.Kind.STRING_LITERAL) {
+                        int start = start(node);
+                        int end = end(node);
+                        // Text blocks are ignored:
+                        if (start >= 0 && end > start + 1 && source.charAt(start) == '"' && !source.startsWith("\"\"\"", start)) {
+                            boolean isCaseValue = getCurrentPath().getParentPath().getLeaf().getKind() == Tree.Kind.CASE
+                                    && isCaseLabelEnd(end);
+                            addStrings(strings, start, end, isCaseValue);
+                        }
+                    }
+                    return null;
+                }
+            }.scan(unit, null);
+            strings.sort((a, b) -> Integer.compare(a.start, b.start));
+            return strings;
+        }
+
+        /**
+         * Add the String values of a literal: the compiler folds the concatenations of String values
+         * (example: "a" + "b") into one literal, whose String values are added one by one
+         * @param strings String values
+         * @param start Start position of the literal
+         * @param end End position of the literal
+         * @param isCaseValue True if switch/case value
+         */
+        private void addStrings(ArrayList<CodeString> strings, int start, int end, boolean isCaseValue) {
+            int i = start;
+            while (i < end) {
+                char c = source.charAt(i);
+                if (c == '"') {
+                    int stringEnd = i + 1;
+                    while (stringEnd < end && source.charAt(stringEnd) != '"') {
+                        if (source.charAt(stringEnd) == '\\') stringEnd++;
+                        stringEnd++;
+                    }
+                    CodeString string = new CodeString(source, 0, i, Math.min(stringEnd + 1, end));
+                    string.isCaseValue = isCaseValue;
+                    strings.add(string);
+                    i = stringEnd + 1;
+                } else if (c == '/' && source.startsWith("//", i)) {
+                    int lineEnd = source.indexOf('\n', i);
+                    i = (lineEnd < 0) ? end : lineEnd + 1;
+                } else if (c == '/' && source.startsWith("/*", i)) {
+                    int commentEnd = source.indexOf("*/", i + 2);
+                    i = (commentEnd < 0) ? end : commentEnd + 2;
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        /**
+         * Indicate if a value of a switch/case is a label (followed by ':', ',' or '->'), not the code of the case
+         * @param end End position of the value
+         * @return True if label
+         */
+        private boolean isCaseLabelEnd(int end) {
+            int i = end;
+            while (i < source.length() && Character.isWhitespace(source.charAt(i))) i++;
+            if (i >= source.length()) return false;
+            char c = source.charAt(i);
+            return c == ':' || c == ',' || (c == '-' && source.startsWith("->", i));
+        }
+
+        private int start(Tree node) {
+            return (int) positions.getStartPosition(unit, node);
+        }
+
+        /**
+         * Return the start position of a block: the end of the previous line if the block starts a line, as the
+         * heuristic parser (the codes inserted before the block start with a line break)
+         * @param start Start position of the declaration or statement
+         * @return Start position of the block
+         */
+        private int blockStart(int start) {
+            int i = start;
+            while (i > 0 && (source.charAt(i - 1) == ' ' || source.charAt(i - 1) == '\t')) i--;
+            if (i == 0 || source.charAt(i - 1) != '\n') return start;
+            i--;
+            if (i > 0 && source.charAt(i - 1) == '\r') i--;
+            return i;
+        }
+
+        private int end(Tree node) {
+            return (int) positions.getEndPosition(unit, node);
+        }
+    }
+}
@@ -136,7 +136,7 @@ public class KotlinCode {
         StringBuilder sb = new StringBuilder();
         if (this.rootCodeBlocks != null) {
             for (CodeBlock block : this.rootCodeBlocks) {
-                sb.append(block.code);
+                sb.append(block.getCode());
             }
         }
         return sb.toString();
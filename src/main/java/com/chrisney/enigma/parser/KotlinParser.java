@@ -163,7 +163,7 @@ public class KotlinParser {
                     string = new CodeString(i);
                 } else if (string != null && currentBlock != CodeBlock.BlockType.StringValue) {
                     string.end = i + 1;
-                    string.value = source.substring(string.start, string.end);
+                    string.setValue(source.substring(string.start, string.end));
                     strings.add(string);
                     string = null;
                 }
@@ -181,12 +181,12 @@ public class KotlinParser {
                 // End of current word, then create word object:
                 if (word != null) {
                     word.end = i;
-                    word.value = source.substring(word.start, word.end);
+                    word.setValue(source.substring(word.start, word.end));
                     if (currentBlock != CodeBlock.BlockType.StringValue
                             && currentBlock != CodeBlock.BlockType.CommentBlock
                             && currentBlock != CodeBlock.BlockType.CommentLine) {
-                        word.isInstruction = isInstruction(word.value);
-                        word.isType = isType(word.value);
+                        word.isInstruction = isInstruction(word.getValue());
+                        word.isType = isType(word.getValue());
                     }
 
                     // New Block detection:
@@ -197,20 +197,20 @@ public class KotlinParser {
                             block.hasParent = true;
                             block.parentType = parent.type;
                         }
-                        block.start = i - word.value.length();
+                        block.start = i - word.getValue().length();
                     }
 
                     // Add word to current block:
-                    if (!word.value.isEmpty()) block.words.add(word);
+                    if (!word.getValue().isEmpty()) block.words.add(word);
                 }
 
                 // Start new word:
                 word = new CodeString(i);
                 word.end = i;
-                word.value = String.valueOf(curChar);
+                word.setValue(String.valueOf(curChar));
 
                 // Add words to current block:
-                if (block != null && !word.value.isEmpty()) block.words.add(word);
+                if (block != null && !word.getValue().isEmpty()) block.words.add(word);
                 word = null;
             }
 
@@ -223,7 +223,7 @@ public class KotlinParser {
                 ) && counterCurlyBrackets == 0 && counterParenthesis == 0 && counterBrackets == 0) {
 
                     block.end = i + 1;
-                    block.code = source.substring(block.start, block.end);
+                    block.setCode(source.substring(block.start, block.end));
 
                     // Analyze sub source code:
                     if (!CodeBlock.isComment(currentBlock))
@@ -236,7 +236,7 @@ public class KotlinParser {
                             // Safe substring: important if method doesn't contains any sub code
                             // Example:
                             //      public fun onStateTransitionStart(toState: LauncherState) {}
-                            String subCode = TextUtils.safeSubstring(block.code, subIndexes.start, subIndexes.end);
+                            String subCode = TextUtils.safeSubstring(block.getCode(), subIndexes.start, subIndexes.end);
 
                             // Set block type:
                             block.type = getBlockType(block, true);
@@ -345,8 +345,8 @@ public class KotlinParser {
 private void parseClassName(CodeBlock block) {
   // Get class name
   for (CodeString word : block.words) {
-    if (!word.isInstruction && !TextUtils.isEmpty(word.value.trim())) {
-      block.name = word.value;
+    if (!word.isInstruction && !TextUtils.isEmpty(word.getValue().trim())) {
+      block.name = word.getValue();
       return;
     }
   }
@@ -358,15 +358,15 @@ private void parseProperty(CodeBlock block) {
   boolean isMutable = false;
   
   for (CodeString word : block.words) {
-    if (isBreakCharacter(word.value)) break;
+    if (isBreakCharacter(word.getValue())) break;
     
     if (word.isType) {
-      type = word.value;
+      type = word.getValue();
     } else if (name == null) {
-      name = word.value;
-    } else if (word.value.equals(sVal)) {
+      name = word.getValue();
+    } else if (word.getValue().equals(sVal)) {
       isMutable = false;
-    } else if (word.value.equals(sVar)) {
+    } else if (word.getValue().equals(sVar)) {
       isMutable = true;
     }
   }
@@ -384,7 +384,7 @@ private boolean isBreakCharacter(String word) {
 }
 
 private boolean isEmptyWord(CodeString word) {
-  return word == null || TextUtils.isEmpty(word.value.trim()); 
+  return word == null || TextUtils.isEmpty(word.getValue().trim()); 
 }
 
 private CodeString getFirstNoneEmptyWord(ArrayList<CodeString> words) {
@@ -398,12 +398,12 @@ private void parseFunction(CodeBlock block) {
   String type = null;
   
   for (CodeString word : block.words) {
-    if (isBreakCharacter(word.value)) break;
+    if (isBreakCharacter(word.getValue())) break;
     
     if (word.isType && type == null) {
-      type = word.value;
+      type = word.getValue();
     } else if (!word.isInstruction) {
-      block.name = word.value;
+      block.name = word.getValue();
       block.returnType = type;
       return;
     }
@@ -412,9 +412,9 @@ private void parseFunction(CodeBlock block) {
 
 private void parseInterfaceName(CodeBlock block) {
   for (CodeString word : block.words) {
-    if (isBreakCharacter(word.value)) break;
-    if (!word.isInstruction && !TextUtils.isEmpty(word.value.trim())) {
-      block.name = word.value;
+    if (isBreakCharacter(word.getValue())) break;
+    if (!word.isInstruction && !TextUtils.isEmpty(word.getValue().trim())) {
+      block.name = word.getValue();
       return;
     } 
   }
@@ -436,22 +436,22 @@ private CodeBlock.BlockType getBlockType(CodeBlock block, boolean hasSubCode) {
   CodeString firstWord = getFirstNoneEmptyWord(block.words);
   if (firstWord == null) return CodeBlock.BlockType.Undefined;
 
-  if (firstWord.value.equals(sPackage)) return CodeBlock.BlockType.Package;
-  if (firstWord.value.equals(sImport)) return CodeBlock.BlockType.Import;
+  if (firstWord.getValue().equals(sPackage)) return CodeBlock.BlockType.Package;
+  if (firstWord.getValue().equals(sImport)) return CodeBlock.BlockType.Import;
 
   if (hasSubCode) {
-    if (firstWord.value.equals(sClass)) return CodeBlock.BlockType.Class;
-    if (firstWord.value.equals(sInterface)) return CodeBlock.BlockType.Interface;
-    if (firstWord.value.equals(sObject)) return CodeBlock.BlockType.Object;
-    if (firstWord.value.equals(sCompanion)) return CodeBlock.BlockType.Companion;
-    if (firstWord.value.equals(sFun)) return CodeBlock.BlockType.Function;
-    if (firstWord.value.equals(sVal) || firstWord.value.equals(sVar)) return CodeBlock.BlockType.Property;
-    if (firstWord.value.equals(sInit)) return CodeBlock.BlockType.InitBlock;
+    if (firstWord.getValue().equals(sClass)) return CodeBlock.BlockType.Class;
+    if (firstWord.getValue().equals(sInterface)) return CodeBlock.BlockType.Interface;
+    if (firstWord.getValue().equals(sObject)) return CodeBlock.BlockType.Object;
+    if (firstWord.getValue().equals(sCompanion)) return CodeBlock.BlockType.Companion;
+    if (firstWord.getValue().equals(sFun)) return CodeBlock.BlockType.Function;
+    if (firstWord.getValue().equals(sVal) || firstWord.getValue().equals(sVar)) return CodeBlock.BlockType.Property;
+    if (firstWord.getValue().equals(sInit)) return CodeBlock.BlockType.InitBlock;
 
     return CodeBlock.BlockType.AnonymousInnerClass;
 
   } else {
-    if (firstWord.value.equals(sConstructor)) return CodeBlock.BlockType.Constructor;
+    if (firstWord.getValue().equals(sConstructor)) return CodeBlock.BlockType.Constructor;
     return CodeBlock.BlockType.LineOfCode; 
   }
 }
@@ -459,9 +459,9 @@ private CodeBlock.BlockType getBlockType(CodeBlock block, boolean hasSubCode) {
 private void parsePackageOrImportName(CodeBlock block) {
   StringBuilder sb = new StringBuilder();
   for (CodeString word : block.words) {
-    if (isBreakCharacter(word.value)) break;
-    if (!TextUtils.isEmpty(word.value.trim())) {
-      sb.append(word.value); 
+    if (isBreakCharacter(word.getValue())) break;
+    if (!TextUtils.isEmpty(word.getValue().trim())) {
+      sb.append(word.getValue()); 
     }
   }
   block.name = sb.toString();
@@ -0,0 +1,25 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Engine which parses a JAVA source code into code blocks (the injection points: package, imports, classes,
+ * attributes, functions and their lines of code) and String values (the literal spans).
+ * The transformations of the code ({@link JavaCode}) are the same whatever the engine.
+ * An engine parses one source code at a time (the concurrent calls wait): use one engine per thread
+ * to parse files in parallel.
+ * @author Christopher Ney
+ */
+public interface ParserEngine {
+
+    /**
+     * @return Name of the engine (see {@link ParserEngines#get(String)})
+     */
+    String getName();
+
+    /**
+     * Parse JAVA File
+     * @param sourceCode JAVA source code
+     * @return Code blocks and String values
+     * @throws IllegalArgumentException If the source code can't be parsed by the engine
+     */
+    JavaCode parse(String sourceCode);
+}
@@ -0,0 +1,100 @@
+package com.chrisney.enigma.parser;
+
+import java.util.ArrayList;
+
+/**
+ * Parser engines available (see {@link ParserEngine}):
+ * - "heuristic": {@link JavaParser}, the default engine
+ * - "javac": {@link JavacParserEngine}, the trees of the JDK compiler (JDK only)
+ * - "auto": {@link AutoParserEngine}, the heuristic engine, or the javac engine if its parsing is not consistent (opt-in)
+ * @author Christopher Ney
+ */
+public class ParserEngines {
+
+    /**
+     * Name of the automatic engine
+     */
+    public static final String AUTO = "auto";
+
+    /**
+     * True if the JDK compiler trees are available (null until checked)
+     */
+    private static Boolean javacAvailable = null;
+
+    private ParserEngines() {}
+
+    /**
+     * Return a new engine
+     * @param name Name of the engine: "heuristic", "javac" or "auto" (null for the default engine)
+     * @return Engine (the heuristic engine if the javac engine is not available)
+     * @throws IllegalArgumentException If the name is unknown
+     */
+    public static ParserEngine get(String name) {
+        if (name == null || JavaParser.NAME.equals(name)) return new JavaParser();
+        if (AUTO.equals(name)) return new AutoParserEngine();
+        if (JavacParserEngine.NAME.equals(name)) {
+            if (isJavacAvailable()) return new JavacParserEngine();
+            System.out.println("⚠️ JAVA compiler not available (a JDK is required): '" + JavaParser.NAME + "' parser engine used");
+            return new JavaParser();
+        }
+        throw new IllegalArgumentException("Unknown parser engine: " + name);
+    }
+
+    /**
+     * Indicate if the javac engine can be used: the JDK compiler and its trees (com.sun.source) must be
+     * visible to the plugin (a JRE has no compiler, and the trees are not visible by default before JAVA 9)
+     * @return True if available
+     */
+    public static synchronized boolean isJavacAvailable() {
+        if (javacAvailable == null) {
+            boolean available;
+            try {
+                Class.forName("com.sun.source.util.JavacTask", false, ParserEngines.class.getClassLoader());
+                available = javax.tools.ToolProvider.getSystemJavaCompiler() != null;
+            } catch (ClassNotFoundException | LinkageError e) {
+                available = false;
+            }
+            javacAvailable = available;
+        }
+        return javacAvailable;
+    }
+
+    /**
+     * Check a parsing against a lexical scanning of the source code (see {@link JavaParser#visit(String, JavaSourceVisitor)}):
+     * same String values (annotations excluded), at the same positions, and same switch/case values.
+     * The result is kept by the code (and by the parsing cache, see {@link JavaCodeCache}): a code is checked once.
+     * @param code Parsing result (before any transformation)
+     * @return True if consistent
+     */
+    public static boolean checkRoundTrip(JavaCode code) {
+        if (code.roundTrip == null) code.roundTrip = scanRoundTrip(code);
+        return code.roundTrip;
+    }
+
+    /**
+     * Scan the source code of a parsing result, to check its String values
+     * @param code Parsing result (before any transformation)
+     * @return True if consistent
+     */
+    private static boolean scanRoundTrip(JavaCode code) {
+        final String source = code.getSourceCode();
+        final ArrayList<CodeString> strings = code.getStringValues();
+        final boolean[] consistent = new boolean[] {true};
+        final int[] index = new int[] {0};
+        new JavaSourceScanner().scan(source.toCharArray(), new JavaSourceVisitor() {
+            @Override
+            public void onStringLiteral(int start, int end, int context) {
+                // The String values of the annotations are not String values of the code:
+                if (!consistent[0] || (context & JavaSourceVisitor.CONTEXT_ANNOTATION) != 0) return;
+                if (index[0] >= strings.size()) {
+                    consistent[0] = false;
+                    return;
+                }
+                CodeString string = strings.get(index[0]++);
+                boolean isCaseValue = (context & JavaSourceVisitor.CONTEXT_SWITCH_CASE) != 0;
+                if (string.start != start || string.end != end || string.isCaseValue != isCaseValue) consistent[0] = false;
+            }
+        });
+        return consistent[0] && index[0] == strings.size();
+    }
+}
@@ -0,0 +1,62 @@
+package com.chrisney.enigma.parser;
+
+/**
+ * Shifts of the positions of a source code modified by insertions and replacements, as a Fenwick tree
+ * (binary indexed tree) over the original positions: a shift is added in O(log n), and the total shift
+ * of any original position is computed in O(log n), whatever the number of modifications.
+ * The tree grows with the highest position used.
+ * @author Christopher Ney
+ */
+public class PositionShifts {
+
+    /**
+     * Fenwick tree: node i (1-based) holds the sum of the shifts of the positions [i - lowbit(i), i[
+     */
+    private int[] tree;
+
+    /**
+     * Constructor
+     * @param length Expected number of positions (length of the source code)
+     */
+    public PositionShifts(int length) {
+        int capacity = 16;
+        while (capacity < length + 1) capacity <<= 1;
+        this.tree = new int[capacity + 1];
+    }
+
+    /**
+     * Shift the position and all the following positions
+     * @param position Original position
+     * @param delta Shift (negative if characters are removed)
+     */
+    public void add(int position, int delta) {
+        if (delta == 0) return;
+        while (position + 1 >= tree.length) grow();
+        for (int i = position + 1; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    /**
+     * Return the total shift of a position
+     * @param position Original position
+     * @return Sum of the shifts of the positions [0, position]
+     */
+    public int getShift(int position) {
+        if (position < 0) return 0;
+        int sum = 0;
+        for (int i = Math.min(position + 1, tree.length - 1); i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    /**
+     * Double the capacity: the new nodes cover only new positions (no shift), except the last one
+     * which covers all positions
+     */
+    private void grow() {
+        int capacity = tree.length - 1;
+        int total = getShift(capacity - 1);
+        int[] t = new int[capacity * 2 + 1];
+        System.arraycopy(tree, 0, t, 0, tree.length);
+        t[capacity * 2] = total;
+        tree = t;
+    }
+}
@@ -0,0 +1,228 @@
+package com.chrisney.enigma.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scanner of JAVA source code working directly on the UTF-8 bytes, without decoding the file.
+ * All the syntax needed to find the String values (double quotes, simple quotes, comments) is ASCII,
+ * and ASCII bytes never appear inside a UTF-8 multi-bytes character: the scanner probes 8 bytes at a
+ * time (SWAR: SIMD Within A Register) to skip the long runs of code without any delimiter.
+ * The encryption uses it to find the Enigma code and to skip the files without String values before decoding
+ * them (the files with String values are decoded and parsed entirely: the injection needs the code blocks).
+ * All positions are bytes indexes in the source code (start included, end excluded).
+ * @author Christopher Ney
+ */
+public class Utf8SourceScanner {
+
+    /**
+     * Receive the String values found in the source code
+     */
+    public interface LiteralHandler {
+
+        /**
+         * String value
+         * @param source UTF-8 source code
+         * @param start Start position of the String value (opening double quote)
+         * @param end End position of the String value (after the closing double quote)
+         * @param isTextBlock True if the String value is a text block (""" ... """)
+         */
+        void onStringLiteral(byte[] source, int start, int end, boolean isTextBlock);
+    }
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /**
+     * Bytes repeated 8 times in a long value
+     */
+    private static final long DOUBLE_QUOTES = repeat('"');
+    private static final long SIMPLE_QUOTES = repeat('\'');
+    private static final long SLASHES = repeat('/');
+    private static final long BACKSLASHES = repeat('\\');
+    private static final long STARS = repeat('*');
+    private static final long NEW_LINES = repeat('\n');
+    private static final long CARRIAGE_RETURNS = repeat('\r');
+
+    private final byte[] source;
+    private final int length;
+    private final ByteBuffer words;
+
+    /**
+     * Constructor
+     * @param source UTF-8 source code
+     */
+    public Utf8SourceScanner(byte[] source) {
+        this(source, source.length);
+    }
+
+    /**
+     * Constructor
+     * @param source UTF-8 source code
+     * @param length Number of bytes of the source code
+     */
+    public Utf8SourceScanner(byte[] source, int length) {
+        this.source = source;
+        this.length = length;
+        this.words = ByteBuffer.wrap(source, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Find all String values of the source code (String values inside comments and characters are ignored)
+     * @param handler Handler which receives the String values
+     * @return Number of String values
+     */
+    public int scan(LiteralHandler handler) {
+        int count = 0;
+        int i = 0;
+        while (true) {
+            i = find(i, DOUBLE_QUOTES, SIMPLE_QUOTES, SLASHES, SLASHES);
+            if (i >= length) return count;
+            byte c = source[i];
+            byte next = (i + 1 < length) ? source[i + 1] : (byte) ' ';
+            if (c == '/') {
+                if (next == '/') {
+                    i = find(i + 2, NEW_LINES, CARRIAGE_RETURNS, NEW_LINES, NEW_LINES);
+                } else if (next == '*') {
+                    i = skipBlockComment(i + 2);
+                } else {
+                    i++;
+                }
+            } else if (c == '\'') {
+                i = skipQuoted(i + 1, SIMPLE_QUOTES);
+            } else if (next == '"' && i + 2 < length && source[i + 2] == '"') {
+                int end = skipTextBlock(i + 3);
+                handler.onStringLiteral(source, i, end, true);
+                count++;
+                i = end;
+            } else {
+                int end = skipQuoted(i + 1, DOUBLE_QUOTES);
+                handler.onStringLiteral(source, i, end, false);
+                count++;
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Decode a part of a UTF-8 source code (example: the content of a String value)
+     * @param source UTF-8 source code
+     * @param start Start position
+     * @param end End position
+     * @return Decoded characters
+     */
+    public static String decode(byte[] source, int start, int end) {
+        return new String(source, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find an ASCII value in the source code
+     * @param value ASCII value
+     * @return Position of the value, or -1 if not found
+     */
+    public int indexOf(String value) {
+        if (value.isEmpty()) return 0;
+        long first = repeat(value.charAt(0));
+        int last = length - value.length();
+        for (int i = find(0, first, first, first, first); i <= last; i = find(i + 1, first, first, first, first)) {
+            int k = 1;
+            while (k < value.length() && source[i + k] == value.charAt(k)) k++;
+            if (k == value.length()) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Skip a block comment
+     * @param i Position after the comment start
+     * @return Position after the comment end (or end of code)
+     */
+    private int skipBlockComment(int i) {
+        while (true) {
+            i = find(i, STARS, STARS, STARS, STARS);
+            if (i + 1 >= length) return length;
+            if (source[i + 1] == '/') return i + 2;
+            i++;
+        }
+    }
+
+    /**
+     * Skip a String value or a character
+     * @param i Position after the opening quote
+     * @param quotes Closing quote (repeated 8 times)
+     * @return Position after the closing quote (or end of line / code if not closed)
+     */
+    private int skipQuoted(int i, long quotes) {
+        while (true) {
+            i = find(i, quotes, BACKSLASHES, NEW_LINES, CARRIAGE_RETURNS);
+            if (i >= length) return length;
+            byte c = source[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else {
+                return i + 1;
+            }
+        }
+    }
+
+    /**
+     * Skip a text block
+     * @param i Position after the opening triple double quotes
+     * @return Position after the closing triple double quotes (or end of code)
+     */
+    private int skipTextBlock(int i) {
+        while (true) {
+            i = find(i, DOUBLE_QUOTES, BACKSLASHES, DOUBLE_QUOTES, DOUBLE_QUOTES);
+            if (i >= length) return length;
+            if (source[i] == '\\') {
+                i += 2;
+            } else if (i + 2 < length && source[i + 1] == '"' && source[i + 2] == '"') {
+                return i + 3;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Find the first byte equal to one of the searched bytes, 8 bytes at a time
+     * @param i Start position
+     * @param a First searched byte (repeated 8 times)
+     * @param b Second searched byte (repeated 8 times)
+     * @param c Third searched byte (repeated 8 times)
+     * @param d Fourth searched byte (repeated 8 times)
+     * @return Position of the first byte found, or the length of the source code if not found
+     */
+    private int find(int i, long a, long b, long c, long d) {
+        while (i + 8 <= length) {
+            long word = words.getLong(i);
+            long found = zeroBytes(word ^ a) | zeroBytes(word ^ b) | zeroBytes(word ^ c) | zeroBytes(word ^ d);
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            i += 8;
+        }
+        byte ba = (byte) a, bb = (byte) b, bc = (byte) c, bd = (byte) d;
+        while (i < length) {
+            byte x = source[i];
+            if (x == ba || x == bb || x == bc || x == bd) return i;
+            i++;
+        }
+        return length;
+    }
+
+    /**
+     * Flag the bytes equal to zero of a long value.
+     * The lowest flag is always exact (a false flag can only appear above a real zero byte).
+     * @param x Long value
+     * @return High bit set for the zero bytes
+     */
+    private static long zeroBytes(long x) {
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    private static long repeat(char c) {
+        return ONES * (c & 0xFF);
+    }
+}
@@ -4,18 +4,23 @@ import com.chrisney.enigma.utils.Utils;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.tasks.Internal;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
+import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Abstract Enigma Gradle Task
  * @author Christopher Ney
  */
-public class AbstractTask extends DefaultTask {
+public abstract class AbstractTask extends DefaultTask {
 
     private static final String BACKUP_DIR = "enigma-backup";
     private static final String SVN_FOLDER = ".svn";
@@ -25,10 +30,25 @@ public class AbstractTask extends DefaultTask {
             "*/\n" +
             "!.gitignore";
 
+    /**
+     * Isolation of the workers: none (the classes of the build), or a class loader of the plugin classes only
+     */
+    public static final String ISOLATION_NONE = "none";
+    public static final String ISOLATION_CLASSLOADER = "classloader";
+
+    /**
+     * Format of the backup: a directory tree of the files, or a pack of the files (see {@link BackupPack})
+     */
+    public static final String BACKUP_DIRECTORY = "directory";
+    public static final String BACKUP_PACK = "pack";
+
     public boolean enabled = true;
     public boolean debug = false;
     public String rootProject;
     public String pathSrc;
+    public int maxParallelism = 0;
+    public String workerIsolation = ISOLATION_NONE;
+    public String backupFormat = BACKUP_DIRECTORY;
 
     public AbstractTask() {
         this.setGroup("enigma");
@@ -53,6 +73,75 @@ public class AbstractTask extends DefaultTask {
         return Utils.listFileTree(new File(pathSrc), ".xml");
     }
 
+    /**
+     * Return the Gradle workers service (injected by Gradle)
+     * @return Workers service
+     */
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Return the maximum number of files processed in parallel
+     * @return {@link #maxParallelism}, or the number of processors if not defined
+     */
+    @Internal
+    protected int getParallelism() {
+        return (maxParallelism > 0) ? maxParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Process files in parallel with Gradle workers: the files are split into groups of the same size
+     * (largest files first, see {@link Utils#splitLargestFirst(Collection, int)}), and each group is processed
+     * by a worker with its own copy of the processor. The files are processed by the task itself if
+     * there is only one group.
+     * @param files Files to process
+     * @param processor Processor of the files
+     * @throws Exception Processing error
+     */
+    protected void processFiles(Collection<File> files, FileProcessor processor) throws Exception {
+        List<List<File>> groups = Utils.splitLargestFirst(files, getParallelism());
+        if (groups.size() <= 1) {
+            for (File file : files) processor.process(file);
+            return;
+        }
+        WorkQueue queue = newWorkQueue();
+        for (List<File> group : groups) {
+            queue.submit(FilesWorkAction.class, parameters -> {
+                parameters.getProcessor().set(processor);
+                parameters.getFiles().set(group);
+            });
+        }
+        queue.await();
+    }
+
+    /**
+     * Create the queue of the workers (see {@link #workerIsolation})
+     * @return Queue of the workers
+     */
+    private WorkQueue newWorkQueue() {
+        if (ISOLATION_CLASSLOADER.equals(workerIsolation)) {
+            return getWorkerExecutor().classLoaderIsolation(spec -> spec.getClasspath()
+                    .from(getCodeSource(FilesWorkAction.class), getCodeSource(FileUtils.class)));
+        }
+        if (!ISOLATION_NONE.equals(workerIsolation)) {
+            throw new IllegalArgumentException("Unknown worker isolation: " + workerIsolation);
+        }
+        return getWorkerExecutor().noIsolation();
+    }
+
+    /**
+     * Return the JAR file (or classes directory) of a class
+     * @param type Class
+     * @return JAR file or classes directory
+     */
+    private static File getCodeSource(Class<?> type) {
+        try {
+            return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Check if an SCM (Source Code Management) tool is setup or not not.
      * @return True if an SCM tool is found
@@ -97,6 +186,19 @@ public class AbstractTask extends DefaultTask {
         return rootProject + File.separator + BACKUP_DIR + File.separator;
     }
 
+    /**
+     * Check the format of the backup (see {@link #backupFormat})
+     * @return True if the files are backed up into a pack
+     */
+    @Internal
+    protected boolean isBackupPacked() {
+        if (BACKUP_PACK.equals(backupFormat)) return true;
+        if (!BACKUP_DIRECTORY.equals(backupFormat)) {
+            throw new IllegalArgumentException("Unknown backup format: " + backupFormat);
+        }
+        return false;
+    }
+
     /**
      * Check if 'backup' directory exists or not
      * @return True if exists
@@ -136,7 +238,7 @@ public class AbstractTask extends DefaultTask {
      * @param srcFile JAVA file to test
      * @return True if file is com.chrisney.enigma file
      */
-    protected boolean isEnigmaFile(File srcFile) {
+    protected static boolean isEnigmaFile(File srcFile) {
         return srcFile.getName().endsWith(InjectCodeTask.CLASS_NAME + ".java");
     }
     /**
@@ -145,7 +247,7 @@ public class AbstractTask extends DefaultTask {
      * @throws IOException If an I/O exception
      * @return True if the file contains Enigma code
      */
-    protected boolean isEnigmatized(File srcFile) throws IOException {
+    protected static boolean isEnigmatized(File srcFile) throws IOException {
         String contents = FileUtils.readFileToString(srcFile, "UTF-8");
         return contents.contains(InjectCodeTask.IMPORT_NAME) || contents.contains(InjectCodeTask.FUNCTION_NAME);
     }
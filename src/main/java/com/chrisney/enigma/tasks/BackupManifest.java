@@ -0,0 +1,163 @@
+package com.chrisney.enigma.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Manifest of the files encrypted in place (file 'manifest' of the backup directory): one line per file,
+ * with the size, the last modification date and the checksum (CRC32) of the original file, the checksum of
+ * the encrypted file, and the path of the file (relative to the root project). The lines are appended by the
+ * 'encrypt' task, when the files are replaced, and the 'restore' task restores only these files.
+ * @author Christopher Ney
+ */
+public class BackupManifest {
+
+    public static final String FILE_NAME = "manifest";
+
+    private static final String HEADER = "# size\tlastModified\tchecksum\tencryptedChecksum\tpath\n";
+
+    private BackupManifest() {}
+
+    /**
+     * Encrypted file
+     */
+    public static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public String path;
+        public long size;
+        public long lastModified;
+        public long checksum;
+        public long encryptedChecksum;
+
+        /**
+         * @return Line of the manifest
+         */
+        String toLine() {
+            return size + "\t" + lastModified + "\t" + Long.toHexString(checksum) + "\t"
+                    + Long.toHexString(encryptedChecksum) + "\t" + path + "\n";
+        }
+
+        /**
+         * Parse a line of the manifest
+         * @param line Line of the manifest
+         * @return Entry, or null if the line is not an entry (comment, incomplete line)
+         */
+        static Entry parse(String line) {
+            if (line.isEmpty() || line.startsWith("#")) return null;
+            String[] values = line.split("\t", 5);
+            if (values.length < 5) return null;
+            try {
+                Entry entry = new Entry();
+                entry.size = Long.parseLong(values[0]);
+                entry.lastModified = Long.parseLong(values[1]);
+                entry.checksum = Long.parseLong(values[2], 16);
+                entry.encryptedChecksum = Long.parseLong(values[3], 16);
+                entry.path = values[4];
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Append an entry to the manifest: the line is written at once (the files are encrypted in parallel)
+     * @param manifest Manifest file
+     * @param entry Encrypted file
+     * @throws IOException I/O Exception
+     */
+    public static void append(File manifest, Entry entry) throws IOException {
+        String line = entry.toLine();
+        if (!manifest.exists()) line = HEADER + line;
+        try (FileChannel channel = FileChannel.open(manifest.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read the manifest (if a file is listed several times, its latest entry is kept)
+     * @param manifest Manifest file
+     * @return Entries, by path
+     * @throws IOException I/O Exception
+     */
+    public static LinkedHashMap<String, Entry> read(File manifest) throws IOException {
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.remove(entry.path);
+                    entries.put(entry.path, entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Write the manifest (deleted if there is no entry)
+     * @param manifest Manifest file
+     * @param entries Entries
+     * @throws IOException I/O Exception
+     */
+    public static void write(File manifest, Collection<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(manifest.toPath());
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(manifest.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            for (Entry entry : entries) writer.write(entry.toLine());
+        }
+    }
+
+    /**
+     * Create the entry of a file, before its encryption
+     * @param path Path of the file (relative to the root project)
+     * @param file File
+     * @param encrypted Encrypted file
+     * @return Entry
+     * @throws IOException I/O Exception
+     */
+    public static Entry newEntry(String path, Path file, Path encrypted) throws IOException {
+        Entry entry = new Entry();
+        entry.path = path;
+        entry.size = Files.size(file);
+        entry.lastModified = Files.getLastModifiedTime(file).toMillis();
+        entry.checksum = checksum(file);
+        entry.encryptedChecksum = checksum(encrypted);
+        return entry;
+    }
+
+    /**
+     * Return the checksum of a file
+     * @param file File
+     * @return CRC32 of the content
+     * @throws IOException I/O Exception
+     */
+    public static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) > 0; ) crc.update(buffer, 0, n);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,362 @@
+package com.chrisney.enigma.tasks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Packed backup: the backups of the files are records of one append-only file ('backup.pack' of the backup
+ * directory), and an index ('backup.index') gives the position of the latest record of each file.
+ * A record is the path, the size, the last modification date and the checksum (CRC32) of the file, and its
+ * compressed content. The records are appended at once, by the workers of the 'encrypt' task: the new records
+ * are indexed by {@link #open(File)}, before the next encryption or restore.
+ * @author Christopher Ney
+ */
+public class BackupPack implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PACK_NAME = "backup.pack";
+    public static final String INDEX_NAME = "backup.index";
+
+    private static final int RECORD_MAGIC = 0x454E4731;
+    private static final String HEADER = "# offset\tlength\tsize\tlastModified\tchecksum\tpath\n";
+
+    /**
+     * Minimum size of the pack compacted (bytes): the pack is compacted if more than half of it is not used
+     */
+    private static final long COMPACT_MIN_SIZE = 1024 * 1024;
+
+    /**
+     * Backup of a file: position of its compressed content in the pack
+     */
+    public static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public String path;
+        public long offset;
+        public int length;
+        public long size;
+        public long lastModified;
+        public long checksum;
+
+        /**
+         * @return Line of the index
+         */
+        String toLine() {
+            return offset + "\t" + length + "\t" + size + "\t" + lastModified + "\t" + Long.toHexString(checksum)
+                    + "\t" + path + "\n";
+        }
+
+        /**
+         * Parse a line of the index
+         * @param line Line of the index
+         * @return Entry, or null if the line is not an entry (comment, incomplete line)
+         */
+        static Entry parse(String line) {
+            if (line.isEmpty() || line.startsWith("#")) return null;
+            String[] values = line.split("\t", 6);
+            if (values.length < 6) return null;
+            try {
+                Entry entry = new Entry();
+                entry.offset = Long.parseLong(values[0]);
+                entry.length = Integer.parseInt(values[1]);
+                entry.size = Long.parseLong(values[2]);
+                entry.lastModified = Long.parseLong(values[3]);
+                entry.checksum = Long.parseLong(values[4], 16);
+                entry.path = values[5];
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final File packFile;
+    private final File indexFile;
+
+    /**
+     * Latest entry of each file (path relative to the root project)
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private BackupPack(File backupDir) {
+        this.packFile = new File(backupDir, PACK_NAME);
+        this.indexFile = new File(backupDir, INDEX_NAME);
+    }
+
+    /**
+     * Open the pack of a backup directory: the index is read, and the records appended since are indexed
+     * (the pack is created by the first backup)
+     * @param backupDir Backup directory
+     * @return Pack
+     * @throws IOException I/O Exception
+     */
+    public static BackupPack open(File backupDir) throws IOException {
+        BackupPack pack = new BackupPack(backupDir);
+        long indexed = pack.readIndex();
+        if (indexed > pack.packFile.length()) {
+            // Index of another pack: indexed again
+            pack.entries.clear();
+            Files.deleteIfExists(pack.indexFile.toPath());
+            indexed = 0;
+        }
+        pack.indexRecords(indexed);
+        return pack;
+    }
+
+    /**
+     * Return the backup of a file
+     * @param path Path of the file (relative to the root project)
+     * @return Entry, or null if not found
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return Latest entry of each file
+     */
+    public LinkedHashMap<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Append the backup of a file to the pack: the record is written at once (the files are backed up
+     * in parallel), and indexed by the next {@link #open(File)}
+     * @param path Path of the file (relative to the root project)
+     * @param file File
+     * @throws IOException I/O Exception
+     */
+    public void append(String path, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        byte[] content = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(content.length / 3 + 256);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(RECORD_MAGIC);
+        out.writeUTF(path);
+        out.writeLong(content.length);
+        out.writeLong(attributes.lastModifiedTime().toMillis());
+        out.writeLong(crc.getValue());
+        byte[] compressed = compress(content);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        out.flush();
+
+        try (FileChannel channel = FileChannel.open(packFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read the backup of a file: its compressed content is read from a memory mapped region of the pack
+     * @param entry Entry of the file
+     * @return Content of the file
+     * @throws IOException I/O Exception, or backup corrupted (checksum)
+     */
+    public byte[] read(Entry entry) throws IOException {
+        byte[] compressed = new byte[entry.length];
+        try (FileChannel channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+            buffer.get(compressed);
+        }
+        byte[] content = decompress(compressed, entry.size);
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        if (crc.getValue() != entry.checksum) throw new IOException("Backup corrupted: " + entry.path);
+        return content;
+    }
+
+    /**
+     * Remove the backups of the deleted files, and compact the pack if more than half of it is not used
+     * (the records of the files backed up again, or deleted)
+     * @param rootProject Root project directory
+     * @return True if the pack is compacted
+     * @throws IOException I/O Exception
+     */
+    public boolean compact(String rootProject) throws IOException {
+        long used = 0;
+        ArrayList<Entry> live = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (new File(rootProject + entry.path).exists()) {
+                live.add(entry);
+                used += entry.length;
+            }
+        }
+        long size = packFile.length();
+        if (live.size() == entries.size() && (size < COMPACT_MIN_SIZE || used * 2 >= size)) return false;
+
+        File tmpPack = new File(packFile.getPath() + ".tmp");
+        LinkedHashMap<String, Entry> compacted = new LinkedHashMap<>();
+        try (FileChannel in = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmpPack.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : live) {
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(header);
+                data.writeInt(RECORD_MAGIC);
+                data.writeUTF(entry.path);
+                data.writeLong(entry.size);
+                data.writeLong(entry.lastModified);
+                data.writeLong(entry.checksum);
+                data.writeInt(entry.length);
+                data.flush();
+                ByteBuffer buffer = ByteBuffer.wrap(header.toByteArray());
+                while (buffer.hasRemaining()) out.write(buffer);
+
+                Entry moved = copy(entry);
+                moved.offset = out.position();
+                for (long n = 0; n < entry.length; ) n += in.transferTo(entry.offset + n, entry.length - n, out);
+                compacted.put(moved.path, moved);
+            }
+        }
+        // Without index, the pack is indexed again by the next opening:
+        Files.deleteIfExists(indexFile.toPath());
+        Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writeIndex(compacted);
+        entries.clear();
+        entries.putAll(compacted);
+        return true;
+    }
+
+    /**
+     * Read the index
+     * @return End of the records indexed (position in the pack)
+     * @throws IOException I/O Exception
+     */
+    private long readIndex() throws IOException {
+        long indexed = 0;
+        if (!indexFile.exists()) return 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                Entry entry = Entry.parse(line);
+                if (entry == null) continue;
+                entries.remove(entry.path);
+                entries.put(entry.path, entry);
+                indexed = Math.max(indexed, entry.offset + entry.length);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Index the records of the pack from a position (the headers are read, the contents are skipped).
+     * An incomplete record (interrupted backup) ends the indexing.
+     * @param position Position of the first record to index
+     * @throws IOException I/O Exception
+     */
+    private void indexRecords(long position) throws IOException {
+        if (!packFile.exists()) return;
+        StringBuilder lines = new StringBuilder();
+        try (RandomAccessFile pack = new RandomAccessFile(packFile, "r")) {
+            long length = pack.length();
+            while (position < length) {
+                pack.seek(position);
+                Entry entry = new Entry();
+                try {
+                    if (pack.readInt() != RECORD_MAGIC) break;
+                    entry.path = pack.readUTF();
+                    entry.size = pack.readLong();
+                    entry.lastModified = pack.readLong();
+                    entry.checksum = pack.readLong();
+                    entry.length = pack.readInt();
+                } catch (IOException e) {
+                    break;
+                }
+                entry.offset = pack.getFilePointer();
+                if (entry.length < 0 || entry.offset + entry.length > length) break;
+                entries.remove(entry.path);
+                entries.put(entry.path, entry);
+                lines.append(entry.toLine());
+                position = entry.offset + entry.length;
+            }
+        }
+        if (lines.length() == 0) return;
+        if (!indexFile.exists()) lines.insert(0, HEADER);
+        Files.write(indexFile.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Write the index
+     * @param entries Entries
+     * @throws IOException I/O Exception
+     */
+    private void writeIndex(LinkedHashMap<String, Entry> entries) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            for (Entry entry : entries.values()) writer.write(entry.toLine());
+        }
+    }
+
+    private static Entry copy(Entry entry) {
+        Entry copy = new Entry();
+        copy.path = entry.path;
+        copy.offset = entry.offset;
+        copy.length = entry.length;
+        copy.size = entry.size;
+        copy.lastModified = entry.lastModified;
+        copy.checksum = entry.checksum;
+        return copy;
+    }
+
+    private static byte[] compress(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed, long size) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] content = new byte[(int) size];
+            int n = 0;
+            while (n < content.length && !inflater.finished()) {
+                int read = inflater.inflate(content, n, content.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != content.length) throw new IOException("Backup truncated");
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("Backup corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
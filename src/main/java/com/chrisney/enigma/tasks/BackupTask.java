@@ -1,17 +1,31 @@
 package com.chrisney.enigma.tasks;
 
-import org.apache.commons.io.FileUtils;
 import org.gradle.api.tasks.TaskAction;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Gradle Task to backup original source code, before Enigma code injection.
+ * The backup directory is prepared here: the files themselves are backed up by the 'encrypt' task
+ * (see {@link FileBackup}), only if they are rewritten, after the selection of the classes.
+ * The files are backed up into a directory tree, or into a pack (see {@link BackupPack}).
  * @author Christopher Ney
  */
-public class BackupTask extends AbstractTask {
+public abstract class BackupTask extends AbstractTask {
 
     @Inject
     public BackupTask() {
@@ -19,31 +33,141 @@ public class BackupTask extends AbstractTask {
     }
 
     @TaskAction
-    public void backup() throws IOException {
+    public void backup() throws Exception {
         if (!enabled) return;
         if (!checkSCM()) return;
-        this.removeBackupDir();
         this.createBackupDir();
-        for (File javaFile : this.getAllJavaFiles()) {
-            this.backupFile(javaFile);
+        if (isBackupPacked()) {
+            BackupPack pack = BackupPack.open(new File(backupDir()));
+            if (pack.compact(rootProject)) System.out.println("\uD83E\uDDF9 Backup compacted: " + BackupPack.PACK_NAME);
+        } else {
+            this.removeDeletedFiles();
         }
     }
 
     /**
-     * Backup a file into the backup directory
-     * @param file File to backup
+     * Remove the backups of the files deleted since the previous backup (the other backups are kept: they are
+     * reused if their file is unchanged)
      * @throws IOException I/O Exception
      */
-    private void backupFile(File file) throws IOException {
-        String srcFile = file.getAbsolutePath().replace(rootProject, "");
-        if (isEnigmaFile(file)) return;
-
-        if (!isEnigmatized(file) && file.length() > 0) {
-            File backup = new File(backupDir() + srcFile);
-            FileUtils.copyFile(file, backup);
-            System.out.println("\uD83D\uDCBE Backup: " + srcFile);
-        } else {
-            System.out.println("⚠️ Cannot backup an encrypted file: " + srcFile);
+    private void removeDeletedFiles() throws IOException {
+        Path backupPath = Paths.get(backupDir());
+        List<Path> backups;
+        try (Stream<Path> paths = Files.walk(backupPath)) {
+            backups = paths.filter(path -> path.toString().endsWith(".java")).collect(Collectors.toList());
+        }
+        for (Path backup : backups) {
+            String srcFile = backupPath.relativize(backup).toString();
+            if (!new File(rootProject + File.separator + srcFile).exists()) {
+                Files.delete(backup);
+                System.out.println("\uD83E\uDDF9 Backup removed: " + srcFile);
+            }
+        }
+    }
+
+    /**
+     * Backup of the files into the backup directory, with the manifest of the encrypted files (see {@link BackupManifest})
+     */
+    public static class FileBackup implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String rootProject;
+        private final String backupDir;
+        private final BackupPack pack;
+
+        /**
+         * Checksums of the encrypted files listed by the manifest (read on first use)
+         */
+        private transient volatile Set<Long> encryptedChecksums = null;
+
+        /**
+         * Constructor
+         * @param rootProject Root project directory
+         * @param backupDir Backup directory
+         * @param pack Pack of the backup directory, null if the files are backed up into a directory tree
+         */
+        public FileBackup(String rootProject, String backupDir, BackupPack pack) {
+            this.rootProject = rootProject;
+            this.backupDir = backupDir;
+            this.pack = pack;
+        }
+
+        /**
+         * Backup a file into the backup directory, before its replacement by its encrypted version
+         * (the file must not be encrypted), and add it to the manifest. The backup of the previous
+         * build is reused if it has the same size and last modification date (milliseconds: the restored files
+         * have the date of their backup), otherwise the file is backed up by a hard link (the encrypted file
+         * replaces the file), by a copy if links are not supported, or appended to the pack.
+         * @param file File to backup
+         * @param encrypted Encrypted version of the file
+         * @throws IOException I/O Exception
+         */
+        public void backup(File file, Path encrypted) throws IOException {
+            String srcFile = file.getAbsolutePath().replace(rootProject, "");
+            if (isEnigmaFile(file)) return;
+
+            Path source = file.toPath();
+            Path backup = Paths.get(backupDir + srcFile);
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            if (pack != null) {
+                BackupPack.Entry entry = pack.get(srcFile);
+                if (entry == null || entry.size != attributes.size()
+                        || entry.lastModified != attributes.lastModifiedTime().toMillis()) {
+                    pack.append(srcFile, source);
+                    System.out.println("\uD83D\uDCBE Backup: " + srcFile);
+                }
+            } else if (!isSameFile(backup, attributes)) {
+                Files.createDirectories(backup.getParent());
+                Files.deleteIfExists(backup);
+                try {
+                    Files.createLink(backup, source);
+                } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                    Files.copy(source, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                System.out.println("\uD83D\uDCBE Backup: " + srcFile);
+            }
+            BackupManifest.append(new File(backupDir + BackupManifest.FILE_NAME),
+                    BackupManifest.newEntry(srcFile, source, encrypted));
+        }
+
+        /**
+         * Check if a file is the encrypted version of a file of the manifest: a file encrypted by a previous
+         * build and not restored yet (the Enigma code can't be found into a file encrypted in ABI neutral mode
+         * without String values). Such a file must not be encrypted nor backed up again.
+         * @param file File
+         * @return True if the file is listed by the manifest as an encrypted file, with the same content
+         * @throws IOException I/O Exception
+         */
+        public boolean isEncrypted(File file) throws IOException {
+            if (encryptedChecksums == null) {
+                Set<Long> checksums = new HashSet<>();
+                File manifest = new File(backupDir + BackupManifest.FILE_NAME);
+                if (manifest.exists()) {
+                    for (BackupManifest.Entry entry : BackupManifest.read(manifest).values()) {
+                        checksums.add(entry.encryptedChecksum);
+                    }
+                }
+                encryptedChecksums = checksums;
+            }
+            return !encryptedChecksums.isEmpty() && encryptedChecksums.contains(BackupManifest.checksum(file.toPath()));
+        }
+
+        /**
+         * Check if a backup is up to date
+         * @param backup Backup file
+         * @param attributes Attributes of the file
+         * @return True if the backup has the same size and last modification date
+         * @throws IOException I/O Exception
+         */
+        private static boolean isSameFile(Path backup, BasicFileAttributes attributes) throws IOException {
+            try {
+                BasicFileAttributes backupAttributes = Files.readAttributes(backup, BasicFileAttributes.class);
+                return backupAttributes.size() == attributes.size()
+                        && backupAttributes.lastModifiedTime().toMillis() == attributes.lastModifiedTime().toMillis();
+            } catch (NoSuchFileException e) {
+                return false;
+            }
         }
     }
 
@@ -9,7 +9,7 @@ import java.io.IOException;
  * Gradle Task to clean Backup directory.
  * @author Christopher Ney
  */
-public class CleanBackupTask extends AbstractTask {
+public abstract class CleanBackupTask extends AbstractTask {
 
     @Inject
     public CleanBackupTask() {
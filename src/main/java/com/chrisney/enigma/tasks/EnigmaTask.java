@@ -1,21 +1,47 @@
 package com.chrisney.enigma.tasks;
 
-import com.chrisney.enigma.parser.JavaCode;
+import com.chrisney.enigma.parser.JavaCodeCache;
 import com.chrisney.enigma.parser.JavaParser;
+import com.chrisney.enigma.parser.ParserEngines;
 import com.chrisney.enigma.utils.AESUtils;
 import com.chrisney.enigma.utils.TextUtils;
+import org.apache.commons.io.FileUtils;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
-import org.apache.commons.io.FileUtils;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * Gradle Task to parse JAVA source code and encrypt string values.
+ * The files are encrypted in place, or into an output directory (see {@link #outputDir}) with the Enigma code:
+ * then the source files are never modified, the task is incremental (only the added and modified files are
+ * encrypted again) and its outputs can be cached.
  * @author Christopher Ney
  */
-public class EnigmaTask extends AbstractTask {
+@CacheableTask
+public abstract class EnigmaTask extends AbstractTask {
 
     public String hash;
     public String[] ignoredClasses = null;
@@ -23,16 +49,109 @@ public class EnigmaTask extends AbstractTask {
     public String customFunction = null;
     public DefaultTask customEncryptionTask = null;
     public boolean injectFakeKeys = true;
+    public String parseCacheDir = null;
+    public long parseCacheMaxSize = JavaCodeCache.DEFAULT_MAX_SIZE;
+    public int parallelThreshold = JavaParser.DEFAULT_PARALLEL_THRESHOLD;
+    public boolean streaming = false;
+    public String parserEngine = JavaParser.NAME;
+    public String outputDir = null;
+    public boolean deterministic = false;
+    public boolean abiNeutral = false;
+
+    private FileTree sources = null;
 
     @Inject
     public EnigmaTask() {
         super();
     }
 
+    /**
+     * @return JAVA files to encrypt (relative paths: the outputs don't depend on the location of the project)
+     */
+    @InputFiles
+    @Incremental
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getSources() {
+        // Same instance at each call: the changes of the files are queried with it
+        if (sources == null) sources = getProject().fileTree(pathSrc).matching(pattern -> pattern.include("**/*.java"));
+        return sources;
+    }
+
+    /**
+     * @return Directory of the encrypted files, null if the files are encrypted in place
+     */
+    @Optional
+    @OutputDirectory
+    public File getOutputDir() {
+        return TextUtils.isEmpty(outputDir) ? null : new File(outputDir);
+    }
+
+    /**
+     * @return Fingerprint of the hash (SHA-256): the hash itself is a secret, not stored in the task history
+     */
+    @Optional
+    @Input
+    public String getHashFingerprint() {
+        if (hash == null) return null;
+        try {
+            return AESUtils.toHex(MessageDigest.getInstance("SHA-256").digest(hash.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Optional
+    @Input
+    public String[] getIgnoredClasses() {
+        return ignoredClasses;
+    }
+
+    @Optional
+    @Input
+    public String[] getClasses() {
+        return classes;
+    }
+
+    @Optional
+    @Input
+    public String getCustomFunction() {
+        return customFunction;
+    }
+
+    @Input
+    public boolean isInjectFakeKeys() {
+        return injectFakeKeys;
+    }
+
+    @Input
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    @Input
+    public boolean isAbiNeutral() {
+        return abiNeutral;
+    }
+
+    @Input
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Input
+    public String getParserEngine() {
+        return parserEngine;
+    }
+
+    @Internal
+    public boolean isInPlace() {
+        return TextUtils.isEmpty(outputDir);
+    }
+
     @TaskAction
-    public void encrypt() throws Exception {
+    public void encrypt(InputChanges inputChanges) throws Exception {
         if (!enabled) return;
-        if (!checkSCM()) return;
+        if (isInPlace() && !checkSCM()) return;
 
         if (TextUtils.isEmpty(this.hash) && this.customEncryptionTask == null) {
             System.out.println("⚠️ Missing Hash value to encrypt files (or Custom Encryption Task)");
@@ -42,18 +161,76 @@ public class EnigmaTask extends AbstractTask {
             return;
         }
 
-        if (!backupDirExists()) {
+        if (isInPlace() && !backupDirExists()) {
             System.out.println("⚠️ Impossible to execute 'encrypt' task if backup directory not exists!");
             return;
         }
 
-        for (File javaFile : this.getAllJavaFiles()) {
+        JavaFileEncryptor encryptor = new JavaFileEncryptor();
+        encryptor.hash = hash;
+        encryptor.injectFakeKeys = injectFakeKeys;
+        encryptor.parseCacheDir = parseCacheDir;
+        encryptor.parseCacheMaxSize = parseCacheMaxSize;
+        encryptor.parallelThreshold = parallelThreshold;
+        encryptor.streaming = streaming;
+        // Check the parser engine only once (unknown engine, JDK compiler not available):
+        encryptor.parserEngine = ParserEngines.get(parserEngine).getName();
+        encryptor.deterministic = deterministic;
+        encryptor.abiNeutral = abiNeutral;
+        encryptor.sourceDir = pathSrc;
+        if (!isInPlace()) encryptor.outputDir = outputDir;
+        else encryptor.backup = new BackupTask.FileBackup(rootProject, backupDir(),
+                isBackupPacked() ? BackupPack.open(new File(backupDir())) : null);
+
+        ArrayList<File> javaFiles = new ArrayList<>();
+        for (File javaFile : getChangedJavaFiles(inputChanges, encryptor)) {
             if (!isSelected(javaFile) || isIgnored(javaFile)) {
                 System.out.println("\uD83D\uDEAB️ " + javaFile.getName() + " ignored");
+                if (!isInPlace()) encryptor.copy(javaFile);
+            } else {
+                javaFiles.add(javaFile);
+            }
+        }
+        processFiles(javaFiles, encryptor);
+        if (!isInPlace()) writeEnigmaCode();
+    }
+
+    /**
+     * Write the Enigma code into the output directory (see {@link InjectCodeTask})
+     * @throws IOException I/O Exception
+     */
+    private void writeEnigmaCode() throws IOException {
+        if (!TextUtils.isEmpty(customFunction) || TextUtils.isEmpty(hash)) return;
+        File codeFile = new File(outputDir + File.separator + InjectCodeTask.PACKAGE_NAME.replace(".", File.separator)
+                + File.separator + InjectCodeTask.CLASS_NAME + ".java");
+        FileUtils.writeStringToFile(codeFile, InjectCodeTask.getSourceCode(hash), "UTF-8");
+        System.out.println("✏️ Add Enigma code");
+    }
+
+    /**
+     * Return the JAVA files to encrypt: all the files, or only the added and modified files if the task
+     * is incremental (the encrypted files of the removed files are deleted)
+     * @param inputChanges Changes of the files since the previous execution
+     * @param encryptor Encryption of the files
+     * @return JAVA files to encrypt
+     * @throws Exception I/O Exception
+     */
+    private Collection<File> getChangedJavaFiles(InputChanges inputChanges, JavaFileEncryptor encryptor) throws Exception {
+        if (isInPlace()) return this.getAllJavaFiles();
+        if (!inputChanges.isIncremental()) {
+            FileUtils.deleteDirectory(getOutputDir());
+            return this.getAllJavaFiles();
+        }
+        ArrayList<File> files = new ArrayList<>();
+        for (FileChange change : inputChanges.getFileChanges(getSources())) {
+            if (change.getFileType() == FileType.DIRECTORY) continue;
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                Files.deleteIfExists(encryptor.getTarget(change.getFile()).toPath());
             } else {
-                encryptJavaFile(javaFile);
+                files.add(change.getFile());
             }
         }
+        return files;
     }
 
     private boolean isSelected(File javaFile) {
@@ -82,28 +259,4 @@ public class EnigmaTask extends AbstractTask {
         }
         return false;
     }
-
-    private void encryptJavaFile(File srcFile) throws Exception {
-
-        if (isEnigmaFile(srcFile)) return;
-        if (isEnigmatized(srcFile)) {
-            System.out.println("⚠️ Cannot process a file already encrypted: " + srcFile);
-            return;
-        }
-
-        String contents = FileUtils.readFileToString(srcFile, "UTF-8");
-
-        JavaParser p = new JavaParser();
-        JavaCode code = p.parse(contents);
-
-        code.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
-        code.encryptStrings(hash, InjectCodeTask.FUNCTION_NAME);
-
-        if (injectFakeKeys) code.injectFakeKeys();
-
-        String contentSecured = code.toCode();
-        FileUtils.writeStringToFile(srcFile, contentSecured, "UTF-8");
-
-        System.out.println("\uD83D\uDD10 " + srcFile.getName() + " encrypted");
-    }
 }
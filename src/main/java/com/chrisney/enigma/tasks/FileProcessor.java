@@ -0,0 +1,19 @@
+package com.chrisney.enigma.tasks;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * Work of a task on one file. A processor is serializable: each worker of the task (see {@link FilesWorkAction})
+ * receives its own copy of the processor, so its state (parser...) is never shared between threads.
+ * @author Christopher Ney
+ */
+public interface FileProcessor extends Serializable {
+
+    /**
+     * Process a file
+     * @param file File to process
+     * @throws Exception Reading, writing or processing error
+     */
+    void process(File file) throws Exception;
+}
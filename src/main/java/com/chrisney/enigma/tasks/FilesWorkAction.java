@@ -0,0 +1,45 @@
+package com.chrisney.enigma.tasks;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+
+/**
+ * Gradle work (see {@link org.gradle.workers.WorkerExecutor}) processing a group of files with its own copy
+ * of a file processor.
+ * @author Christopher Ney
+ */
+public abstract class FilesWorkAction implements WorkAction<FilesWorkAction.Parameters> {
+
+    /**
+     * Parameters of the work
+     */
+    public interface Parameters extends WorkParameters {
+
+        /**
+         * @return Processor of the files
+         */
+        Property<FileProcessor> getProcessor();
+
+        /**
+         * @return Files to process, in processing order
+         */
+        ListProperty<File> getFiles();
+    }
+
+    @Override
+    public void execute() {
+        FileProcessor processor = getParameters().getProcessor().get();
+        for (File file : getParameters().getFiles().get()) {
+            try {
+                processor.process(file);
+            } catch (Exception e) {
+                throw new GradleException("Cannot process " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -12,7 +12,7 @@ import java.io.IOException;
  * Gradle Task to inject Enigma source code.
  * @author Christopher Ney
  */
-public class InjectCodeTask extends AbstractTask {
+public abstract class InjectCodeTask extends AbstractTask {
 
     public static final String PACKAGE_NAME = "com.chrisney.enigma";
     public static final String CLASS_NAME = "EnigmaUtils";
@@ -80,21 +80,26 @@ public class InjectCodeTask extends AbstractTask {
         if (!packageName.exists()) packageName.mkdir();
 
         File codeFile = new File(packageName.getAbsolutePath() + File.separator + CLASS_NAME + ".java");
-        String data = encodeHash(SOURCE_CODE);
+        String data = getSourceCode(this.hash);
         FileUtils.writeStringToFile(codeFile, data, "UTF-8");
 
         System.out.println("✏️ Add Enigma code");
     }
 
-    private String encodeHash(String source) {
+    /**
+     * Return the source code of the Enigma class
+     * @param hash Hash value (encryption key)
+     * @return Source code of the Enigma class, with the encoded hash
+     */
+    public static String getSourceCode(String hash) {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
-        for (int i = 0; i < this.hash.length(); i++) {
-            char c = this.hash.charAt(i);
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
             builder.append((int)c);
             if (i < hash.length() - 1) builder.append(", ");
         }
         builder.append("}");
-        return source.replace("{0, 0}", builder.toString());
+        return SOURCE_CODE.replace("{0, 0}", builder.toString());
     }
 }
@@ -0,0 +1,290 @@
+package com.chrisney.enigma.tasks;
+
+import com.chrisney.enigma.parser.AutoParserEngine;
+import com.chrisney.enigma.parser.JavaCode;
+import com.chrisney.enigma.parser.JavaCodeCache;
+import com.chrisney.enigma.parser.JavaCodeStream;
+import com.chrisney.enigma.parser.JavaParser;
+import com.chrisney.enigma.parser.JavacParserEngine;
+import com.chrisney.enigma.parser.ParserEngine;
+import com.chrisney.enigma.parser.ParserEngines;
+import com.chrisney.enigma.parser.Utf8SourceScanner;
+import com.chrisney.enigma.utils.TextUtils;
+import com.chrisney.enigma.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Encryption of the String values of JAVA files (see {@link EnigmaTask}). The parser engine and the parsing
+ * cache are created on first use: each worker has its own parser.
+ * @author Christopher Ney
+ */
+public class JavaFileEncryptor implements FileProcessor {
+
+    private static final long serialVersionUID = 1L;
+
+    public String hash;
+    public boolean injectFakeKeys = true;
+    public String parseCacheDir = null;
+    public long parseCacheMaxSize = JavaCodeCache.DEFAULT_MAX_SIZE;
+    public int parallelThreshold = JavaParser.DEFAULT_PARALLEL_THRESHOLD;
+    public boolean streaming = false;
+    public String parserEngine = JavaParser.NAME;
+
+    /**
+     * Reproducible encryption: the fake keys of a file are generated from the hash, the relative path
+     * of the file and its content (see {@link Utils#newSeededRandom(String, String, byte[])})
+     */
+    public boolean deterministic = false;
+
+    /**
+     * ABI neutral injection: private fake keys, import only if String values are encrypted
+     * (see {@link JavaCode#abiNeutral})
+     */
+    public boolean abiNeutral = false;
+
+    /**
+     * Source directory, and output directory of the encrypted files (null: the files are encrypted in place)
+     */
+    public String sourceDir = null;
+    public String outputDir = null;
+
+    /**
+     * Backup of the files encrypted in place, just before they are replaced (null: no backup).
+     * The files not rewritten (ignored, already encrypted, unchanged) are never backed up.
+     */
+    public BackupTask.FileBackup backup = null;
+
+    private transient JavaCodeCache parseCache = null;
+    private transient ParserEngine engine = null;
+
+    /**
+     * Encrypt the String values of a JAVA file
+     * @param srcFile JAVA file
+     * @throws Exception Reading, writing or encryption error
+     */
+    @Override
+    public void process(File srcFile) throws Exception {
+
+        if (AbstractTask.isEnigmaFile(srcFile)) {
+            copy(srcFile);
+            return;
+        }
+        if (outputDir == null && backup != null && backup.isEncrypted(srcFile)) {
+            System.out.println("⚠️ Cannot process a file already encrypted: " + srcFile);
+            return;
+        }
+        if (streaming) {
+            encryptJavaFileStreaming(srcFile);
+            return;
+        }
+
+        // Read the file only once, and check the Enigma code on the UTF-8 bytes before decoding:
+        byte[] bytes = Files.readAllBytes(srcFile.toPath());
+        Utf8SourceScanner scanner = new Utf8SourceScanner(bytes);
+        if (scanner.indexOf(InjectCodeTask.IMPORT_NAME) >= 0 || scanner.indexOf(InjectCodeTask.FUNCTION_NAME) >= 0) {
+            System.out.println("⚠️ Cannot process a file already encrypted: " + srcFile);
+            copy(srcFile);
+            return;
+        }
+
+        // Nothing injected without String values (ABI neutral mode without fake keys): the String values are
+        // searched on the UTF-8 bytes, a file without any is neither decoded nor parsed
+        if (abiNeutral && !injectFakeKeys && scanner.scan((source, start, end, isTextBlock) -> {}) == 0) {
+            copy(srcFile);
+            return;
+        }
+
+        String contents = new String(bytes, StandardCharsets.UTF_8);
+
+        JavaCode code = parse(contents);
+        code.parallelThreshold = parallelThreshold;
+        code.abiNeutral = abiNeutral;
+
+        int encrypted = code.encryptStrings(hash, InjectCodeTask.FUNCTION_NAME);
+        if (encrypted > 0 || !abiNeutral) code.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+
+        if (injectFakeKeys) code.injectFakeKeys(newRandom(srcFile, bytes));
+
+        // Nothing to rewrite (ABI neutral mode without String values and fake keys):
+        if (code.getEdits().isEmpty()) {
+            copy(srcFile);
+            return;
+        }
+
+        Path target = getTarget(srcFile).toPath();
+        Files.createDirectories(target.getParent());
+        Path tmpPath = target.resolveSibling(srcFile.getName() + ".enigma.tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+                code.writeTo(writer);
+            }
+            replace(srcFile, tmpPath, target);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+
+        System.out.println("\uD83D\uDD10 " + srcFile.getName() + " encrypted");
+    }
+
+    /**
+     * Replace the encrypted file by its new version (written into a temporary file). The original file is
+     * backed up just before, if encrypted in place (see {@link BackupTask.FileBackup}): it is replaced,
+     * never modified, so it can be backed up by a hard link.
+     * @param srcFile JAVA file
+     * @param tmpPath New version of the encrypted file
+     * @param target Encrypted file
+     * @throws Exception Backup error or I/O Exception
+     */
+    private void replace(File srcFile, Path tmpPath, Path target) throws Exception {
+        if (outputDir == null && backup != null) backup.backup(srcFile, tmpPath);
+        Files.move(tmpPath, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Create the random generator of the fake keys of a file (see {@link #deterministic})
+     * @param srcFile JAVA file
+     * @param bytes Content of the file (null to read it by parts)
+     * @return Random generator
+     * @throws IOException I/O Exception
+     */
+    private Random newRandom(File srcFile, byte[] bytes) throws IOException {
+        if (!deterministic) return new Random();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (bytes != null) {
+            digest.update(bytes);
+        } else {
+            try (InputStream in = Files.newInputStream(srcFile.toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                for (int n; (n = in.read(buffer)) > 0; ) digest.update(buffer, 0, n);
+            }
+        }
+        String path = new File(sourceDir).toPath().relativize(srcFile.toPath()).toString().replace(File.separatorChar, '/');
+        return Utils.newSeededRandom(hash != null ? hash : "", path, digest.digest());
+    }
+
+    /**
+     * Return the encrypted file of a JAVA file
+     * @param srcFile JAVA file
+     * @return Same file if the files are encrypted in place, otherwise the file at the same relative path
+     * in the output directory
+     */
+    public File getTarget(File srcFile) {
+        if (outputDir == null) return srcFile;
+        Path relative = new File(sourceDir).toPath().relativize(srcFile.toPath());
+        return new File(outputDir).toPath().resolve(relative).toFile();
+    }
+
+    /**
+     * Copy a JAVA file not encrypted into the output directory (nothing to do if the files are encrypted in place)
+     * @param srcFile JAVA file
+     * @throws IOException I/O Exception
+     */
+    public void copy(File srcFile) throws IOException {
+        if (outputDir == null) return;
+        Path target = getTarget(srcFile).toPath();
+        Files.createDirectories(target.getParent());
+        Files.copy(srcFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Create the parser engine of the files (see {@link #parserEngine})
+     * @return Parser engine
+     */
+    ParserEngine newParserEngine() {
+        ParserEngine engine = ParserEngines.get(parserEngine);
+        JavaParser p = (engine instanceof AutoParserEngine) ? ((AutoParserEngine) engine).heuristic
+                : (engine instanceof JavaParser) ? (JavaParser) engine : null;
+        if (p != null) {
+            p.parallelThreshold = parallelThreshold;
+            p.keepWords = false;
+            p.compactTree = true;
+        } else if (engine instanceof JavacParserEngine) {
+            ((JavacParserEngine) engine).compactTree = true;
+        }
+        return engine;
+    }
+
+    /**
+     * Parse a JAVA file (the parsing cache is used for the heuristic parsing)
+     * @param contents JAVA source code
+     * @return Code blocks and String values
+     */
+    private JavaCode parse(String contents) {
+        if (engine == null) {
+            engine = newParserEngine();
+            if (!TextUtils.isEmpty(parseCacheDir)) {
+                parseCache = new JavaCodeCache(new File(parseCacheDir), parseCacheMaxSize);
+            }
+        }
+        if (engine instanceof AutoParserEngine) return ((AutoParserEngine) engine).parse(contents, parseCache);
+        if (engine instanceof JavaParser && parseCache != null) return parseCache.parse(contents, (JavaParser) engine);
+        return engine.parse(contents);
+    }
+
+    /**
+     * Encrypt a JAVA file by parts of whole top level blocks (bounded memory): the file is transformed into
+     * a temporary file, which replaces the file at the end
+     * @param srcFile JAVA file
+     * @throws Exception Reading, writing or encryption error
+     */
+    private void encryptJavaFileStreaming(File srcFile) throws Exception {
+        JavaParser p = new JavaParser();
+        p.parallelThreshold = parallelThreshold;
+        p.keepWords = false;
+
+        JavaCodeStream stream = new JavaCodeStream(p);
+        stream.abortValues = new String[] {InjectCodeTask.IMPORT_NAME, InjectCodeTask.FUNCTION_NAME};
+        // The import is added before the String values are known: it is kept even in ABI neutral mode
+        stream.abiNeutral = abiNeutral;
+        stream.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        stream.encryptStrings(hash, InjectCodeTask.FUNCTION_NAME);
+        if (injectFakeKeys) stream.injectFakeKeys(newRandom(srcFile, null));
+
+        Path srcPath = srcFile.toPath();
+        Path target = getTarget(srcFile).toPath();
+        Files.createDirectories(target.getParent());
+        Path tmpPath = target.resolveSibling(srcFile.getName() + ".enigma.tmp");
+        boolean transformed = false;
+        try {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            try (Reader reader = Channels.newReader(FileChannel.open(srcPath, StandardOpenOption.READ), decoder, -1);
+                 Writer writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+                transformed = stream.transform(reader, writer);
+            }
+            if (transformed) replace(srcFile, tmpPath, target);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+
+        if (transformed) {
+            System.out.println("\uD83D\uDD10 " + srcFile.getName() + " encrypted");
+        } else {
+            System.out.println("⚠️ Cannot process a file already encrypted: " + srcFile);
+            copy(srcFile);
+        }
+    }
+}
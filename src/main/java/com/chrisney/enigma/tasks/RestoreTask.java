@@ -6,12 +6,20 @@ import org.gradle.api.tasks.TaskAction;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 /**
  * Gradle Task to restore original JAVA files after compilation.
+ * Only the files of the manifest (see {@link BackupManifest}) are restored: the source tree is not scanned.
  * @author Christopher Ney
  */
-public class RestoreTask extends AbstractTask {
+public abstract class RestoreTask extends AbstractTask {
 
     @Inject
     public RestoreTask() {
@@ -19,41 +27,153 @@ public class RestoreTask extends AbstractTask {
     }
 
     @TaskAction
-    public void restore() throws IOException {
+    public void restore() throws Exception {
         if (!enabled) return;
         if (!checkSCM()) return;
 
-        if (backupDirExists()) {
-            for (File javaFile : this.getAllJavaFiles()) {
-                this.restoreFile(javaFile);
-            }
+        File manifest = new File(backupDir() + BackupManifest.FILE_NAME);
+        if (manifest.exists()) {
+            this.restoreManifest(manifest);
+        } else if (backupDirExists() && !isBackupPacked()) {
+            // Backup without manifest (previous version of the plugin): the source tree is scanned
+            this.processFiles(this.getAllJavaFiles(), new FileRestore(rootProject, backupDir()));
         } else {
             System.out.println("⚠️ There is no backup to restore!");
         }
         removeEnigmaCode();
     }
 
+    /**
+     * Restore the files of the manifest. The files not restored (modified since their encryption, no backup)
+     * are kept in the manifest, the deleted files are removed from it.
+     * @param manifest Manifest file
+     * @throws Exception Restore error
+     */
+    private void restoreManifest(File manifest) throws Exception {
+        LinkedHashMap<String, BackupManifest.Entry> entries = BackupManifest.read(manifest);
+        ArrayList<File> files = new ArrayList<>();
+        for (String path : entries.keySet()) files.add(new File(rootProject + path));
+        BackupPack pack = isBackupPacked() ? BackupPack.open(new File(backupDir())) : null;
+        this.processFiles(files, new ManifestRestore(rootProject, backupDir(), pack, entries));
+
+        ArrayList<BackupManifest.Entry> remaining = new ArrayList<>();
+        for (BackupManifest.Entry entry : entries.values()) {
+            Path path = Paths.get(rootProject + entry.path);
+            if (Files.exists(path) && !ManifestRestore.isOriginal(path, entry)) remaining.add(entry);
+        }
+        BackupManifest.write(manifest, remaining);
+    }
+
     private void removeEnigmaCode() throws IOException {
         File codePackage = new File(pathSrc + File.separator + InjectCodeTask.PACKAGE_NAME.replace(".", File.separator));
         FileUtils.deleteDirectory(codePackage);
         System.out.println("\uD83E\uDDF9 Remove Enigma code: " + codePackage.getAbsolutePath());
     }
 
-    private void restoreFile(File file) throws IOException {
+    /**
+     * Restore of the files of the manifest from the backup directory (or its pack). An encrypted file is checked
+     * (checksum) before being overwritten, its backup is checked (size and last modification date), and
+     * the restored file gets its original last modification date.
+     */
+    static class ManifestRestore implements FileProcessor {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String rootProject;
+        private final String backupDir;
+        private final BackupPack pack;
+        private final LinkedHashMap<String, BackupManifest.Entry> entries;
 
-        String srcFile = file.getAbsolutePath().replace(rootProject, "");
-        if (isEnigmaFile(file)) return;
+        ManifestRestore(String rootProject, String backupDir, BackupPack pack,
+                        LinkedHashMap<String, BackupManifest.Entry> entries) {
+            this.rootProject = rootProject;
+            this.backupDir = backupDir;
+            this.pack = pack;
+            this.entries = entries;
+        }
+
+        @Override
+        public void process(File file) throws IOException {
+            String srcFile = file.getAbsolutePath().replace(rootProject, "");
+            BackupManifest.Entry entry = entries.get(srcFile);
+            Path path = file.toPath();
+            if (entry == null || !file.exists()) return;
 
-        if (isEnigmatized(file)) {
-            File backup = new File(backupDir() + srcFile);
-            if (backup.exists() && backup.length() > 0) {
-                FileUtils.copyFile(backup, file);
-                System.out.println("♻️ Restore: " + srcFile);
+            long checksum = BackupManifest.checksum(path);
+            if (checksum == entry.checksum && Files.size(path) == entry.size) {
+                // Already restored:
+                Files.setLastModifiedTime(path, FileTime.fromMillis(entry.lastModified));
+                return;
+            }
+            if (checksum != entry.encryptedChecksum) {
+                System.out.println("⚠️ Cannot overwrite a file modified after its encryption: " + srcFile);
+                return;
+            }
+
+            if (pack != null) {
+                BackupPack.Entry packEntry = pack.get(srcFile);
+                if (packEntry == null || packEntry.size != entry.size || packEntry.lastModified != entry.lastModified) {
+                    System.out.println("⚠️ There is no backup for: " + srcFile);
+                    return;
+                }
+                Files.write(path, pack.read(packEntry));
             } else {
-                System.out.println("⚠️ There is no backup for: " + srcFile);
+                Path backup = Paths.get(backupDir + srcFile);
+                if (!isOriginal(backup, entry)) {
+                    System.out.println("⚠️ There is no backup for: " + srcFile);
+                    return;
+                }
+                Files.copy(backup, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.setLastModifiedTime(path, FileTime.fromMillis(entry.lastModified));
+            System.out.println("♻️ Restore: " + srcFile);
+        }
+
+        /**
+         * Check if a file has the size and the last modification date of the original file
+         * @param path File (or backup file)
+         * @param entry Entry of the file
+         * @return True if same size and same date (milliseconds)
+         * @throws IOException I/O Exception
+         */
+        static boolean isOriginal(Path path, BackupManifest.Entry entry) throws IOException {
+            return Files.exists(path) && Files.size(path) == entry.size
+                    && Files.getLastModifiedTime(path).toMillis() == entry.lastModified;
+        }
+    }
+
+    /**
+     * Restore of the files from the backup directory (backup without manifest)
+     */
+    static class FileRestore implements FileProcessor {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String rootProject;
+        private final String backupDir;
+
+        FileRestore(String rootProject, String backupDir) {
+            this.rootProject = rootProject;
+            this.backupDir = backupDir;
+        }
+
+        @Override
+        public void process(File file) throws IOException {
+
+            String srcFile = file.getAbsolutePath().replace(rootProject, "");
+            if (isEnigmaFile(file)) return;
+
+            if (isEnigmatized(file)) {
+                File backup = new File(backupDir + srcFile);
+                if (backup.exists() && backup.length() > 0) {
+                    FileUtils.copyFile(backup, file);
+                    System.out.println("♻️ Restore: " + srcFile);
+                } else {
+                    System.out.println("⚠️ There is no backup for: " + srcFile);
+                }
+            } else {
+                System.out.println("⚠️ Cannot overwrite an unencrypted file: " + srcFile);
             }
-        } else {
-            System.out.println("⚠️ Cannot overwrite an unencrypted file: " + srcFile);
         }
     }
 
@@ -8,6 +8,8 @@ import java.util.ArrayList;
  */
 public class SmartArrayList<T> extends ArrayList<T> {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * Return the first element
      * @return First element
@@ -45,7 +45,17 @@ public class TextUtils {
      * @return Random string
      */
     public static String getRandomString(int size, String chars) {
-        Random random = new Random();
+        return getRandomString(size, chars, new Random());
+    }
+
+    /**
+     * Generate a random string from character list
+     * @param size Size of the output string
+     * @param chars Character list
+     * @param random Random generator (seeded for a reproducible string)
+     * @return Random string
+     */
+    public static String getRandomString(int size, String chars, Random random) {
         StringBuilder sb = new StringBuilder(size);
         for (int i = 0; i < size; ++i) {
             sb.append(chars.charAt(random.nextInt(chars.length())));
@@ -3,8 +3,14 @@ package com.chrisney.enigma.utils;
 import com.chrisney.enigma.parser.JavaCode;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 import static org.gradle.internal.impldep.com.google.common.io.Resources.getResource;
@@ -18,10 +24,11 @@ public class Utils {
      * Recursive algorithm to list all files in directory
      * @param dir Root directory to scan
      * @param fileType Filter of file type to search (extension)
-     * @return All files found
+     * @return All files found, sorted by path
      */
     public static Collection<File> listFileTree(File dir, String fileType) {
-        Set<File> fileTree = new HashSet<>();
+        // Sorted by path: stable order of the files
+        Set<File> fileTree = new TreeSet<>();
         if(dir == null || dir.listFiles() == null) {
             return fileTree;
         }
@@ -38,6 +45,42 @@ public class Utils {
         return fileTree;
     }
 
+    /**
+     * Split files into balanced groups of bytes, largest files first (longest processing time first): each file
+     * goes to the lightest group, so the biggest files start first and the groups end at about the same time.
+     * @param files Files to split
+     * @param count Maximum number of groups
+     * @return Groups of files (no empty group), each sorted from the largest file to the smallest
+     */
+    public static List<List<File>> splitLargestFirst(Collection<File> files, int count) {
+        ArrayList<File> sorted = new ArrayList<>(files);
+        long[] lengths = new long[sorted.size()];
+        Integer[] order = new Integer[sorted.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            lengths[i] = sorted.get(i).length();
+        }
+        // Stable sort: files of the same size keep their order
+        Arrays.sort(order, (a, b) -> Long.compare(lengths[b], lengths[a]));
+
+        int groupCount = Math.max(1, Math.min(count, order.length));
+        List<List<File>> groups = new ArrayList<>(groupCount);
+        PriorityQueue<long[]> loads = new PriorityQueue<>(groupCount,
+                (a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new ArrayList<>());
+            loads.add(new long[] {0, i});
+        }
+        for (int i : order) {
+            long[] load = loads.poll();
+            groups.get((int) load[1]).add(sorted.get(i));
+            load[0] += lengths[i];
+            loads.add(load);
+        }
+        groups.removeIf(List::isEmpty);
+        return groups;
+    }
+
     /**
      * Return the file path of a resource
      * @param fileName Name of the resource
@@ -62,11 +105,60 @@ public class Utils {
      * @return Random value
      */
     public static int getRandomNumberInRange(int min, int max) {
+        return getRandomNumberInRange(min, max, new Random());
+    }
+
+    /**
+     * Generate a random number between a range (included min and max values)
+     * @param min Min value
+     * @param max Max value
+     * @param random Random generator (seeded for a reproducible number)
+     * @return Random value
+     */
+    public static int getRandomNumberInRange(int min, int max, Random random) {
         if (min >= max) {
             throw new IllegalArgumentException("max must be greater than min");
         }
-        Random r = new Random();
-        return r.nextInt((max - min) + 1) + min;
+        return random.nextInt((max - min) + 1) + min;
+    }
+
+    /**
+     * Create a random generator seeded from a key, the path of a file and its content: the same file with
+     * the same key always gets the same random values (reproducible output), another file other values
+     * @param key Secret key of the project
+     * @param path Relative path of the file (with '/' separators)
+     * @param contentDigest SHA-256 digest of the content of the file
+     * @return Seeded random generator
+     */
+    public static Random newSeededRandom(String key, String path, byte[] contentDigest) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(contentDigest);
+            return new Random(ByteBuffer.wrap(digest.digest()).getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the hash key of the project saved in a file, or generate and save a new one
+     * @param file File of the hash key
+     * @return Hash key (32 characters)
+     * @throws IOException If the key can't be read or saved
+     */
+    public static String loadOrCreateHashKey(File file) throws IOException {
+        if (file.exists()) {
+            String key = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            if (!key.isEmpty()) return key;
+        }
+        String key = randomHashKey();
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), key.getBytes(StandardCharsets.UTF_8));
+        return key;
     }
 
     /**
@@ -74,18 +166,10 @@ public class Utils {
      * @param arrayList ArrayList to edit
      * @param index Index where insert the new object
      * @param value Object to insert
+     * @param <T> Type of the objects
      */
-    public static void insertInArray(ArrayList arrayList, int index, Object value) {
-        for (int i = arrayList.size() - 1; i >= 0; i--) {
-            Object v =  arrayList.get(i);
-            if (i < arrayList.size() - 1) {
-                arrayList.set(i + 1, v);
-            } else {
-                arrayList.add(v);
-            }
-            if (i == index) break;
-        }
-        arrayList.set(index, value);
+    public static <T> void insertInArray(ArrayList<T> arrayList, int index, T value) {
+        arrayList.add(index, value);
     }
 
     /**
@@ -137,7 +221,7 @@ public class Utils {
      * @param arrayList Array to test
      * @return True if not null and not empty
      */
-    public static boolean arrayNotEmpty(ArrayList arrayList) {
+    public static boolean arrayNotEmpty(ArrayList<?> arrayList) {
         return arrayList != null && arrayList.size() > 0;
     }
 }
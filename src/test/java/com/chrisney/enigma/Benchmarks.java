@@ -0,0 +1,357 @@
+package com.chrisney.enigma;
+
+import com.chrisney.enigma.parser.CodeString;
+import com.chrisney.enigma.parser.JavaCode;
+import com.chrisney.enigma.parser.JavaParser;
+import com.chrisney.enigma.parser.JavaSourceVisitor;
+import com.chrisney.enigma.parser.JavacParserEngine;
+import com.chrisney.enigma.parser.ParserEngine;
+import com.chrisney.enigma.parser.ParserEngines;
+import com.chrisney.enigma.parser.Utf8SourceScanner;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Parser benchmarks (skipped by default).
+ * Run them with: ./gradlew test -Denigma.benchmarks=true --tests com.chrisney.enigma.Benchmarks
+ * (-Denigma.corpus=directory to run the parser engines benchmark on local JAVA files)
+ */
+public class Benchmarks {
+
+    private static final int WARM_UP = 3;
+    private static final int ITERATIONS = 5;
+
+    @Before
+    public void checkEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("enigma.benchmarks"));
+    }
+
+    @Test
+    public void benchmarkDeeplyNestedCode() {
+        System.out.println("Deeply nested code (depth, chars, ms, ns/char):");
+        for (int depth = 100; depth <= 1600; depth *= 2) {
+            String code = generateNestedCode(depth);
+            double ms = measureParse(code);
+            System.out.println(String.format("%6d %10d %10.2f %8.2f", depth, code.length(), ms,
+                    ms * 1000000 / code.length()));
+        }
+    }
+
+    @Test
+    public void benchmarkStringLiteralsDiscovery() {
+        String code = generateConstantsCode(20000);
+        final int[] counter = new int[1];
+        JavaSourceVisitor visitor = new JavaSourceVisitor() {
+            @Override
+            public void onStringLiteral(int start, int end, int context) {
+                counter[0]++;
+            }
+        };
+
+        for (int i = 0; i < WARM_UP; i++) new JavaParser().visit(code, visitor);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) new JavaParser().visit(code, visitor);
+        double visitMs = (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+        double parseMs = measureParse(code);
+
+        Assert.assertEquals((WARM_UP + ITERATIONS) * 20000, counter[0]);
+        System.out.println(String.format("String values discovery (%d chars): parse %.2f ms, visit %.2f ms",
+                code.length(), parseMs, visitMs));
+    }
+
+    @Test
+    public void benchmarkEncryptStrings() throws Exception {
+        System.out.println("Encrypt String values (count, ms):");
+        for (int count = 1000; count <= 16000; count *= 2) {
+            String code = generateConstantsCode(count);
+            long time = 0;
+            for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+                JavaCode javaCode = new JavaParser().parse(code);
+                long start = System.nanoTime();
+                javaCode.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", "Enigma.decrypt");
+                if (i >= WARM_UP) time += System.nanoTime() - start;
+            }
+            System.out.println(String.format("%6d %10.2f", count, time / 1000000.0 / ITERATIONS));
+        }
+    }
+
+    @Test
+    public void benchmarkParallelParsing() throws Exception {
+        System.out.println("Parse and encrypt a huge class, sequential vs parallel (constants, chars, sequential ms, parallel ms):");
+        for (int count = 25000; count <= 200000; count *= 2) {
+            String code = generateConstantsCode(count);
+            double sequentialMs = measureParseAndEncrypt(code, 0);
+            double parallelMs = measureParseAndEncrypt(code, 1024 * 1024);
+            System.out.println(String.format("%7d %10d %10.2f %10.2f", count, code.length(), sequentialMs, parallelMs));
+        }
+    }
+
+    private static double measureParseAndEncrypt(String code, int parallelThreshold) throws Exception {
+        long time = 0;
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            JavaParser javaParser = new JavaParser();
+            javaParser.parallelThreshold = parallelThreshold;
+            JavaCode javaCode = javaParser.parse(code);
+            javaCode.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", "Enigma.decrypt");
+            if (i >= WARM_UP) time += System.nanoTime() - start;
+        }
+        return time / 1000000.0 / ITERATIONS;
+    }
+
+    @Test
+    public void benchmarkWordsMemory() {
+        System.out.println("Parse a huge class, words kept vs dropped (constants, allocated MB, retained MB kept, retained MB dropped):");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int count = 25000; count <= 100000; count *= 2) {
+            String code = generateConstantsCode(count);
+            long allocated = 0;
+            for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+                long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                parse(code);
+                if (i >= WARM_UP) allocated += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            }
+            JavaParser dropWords = new JavaParser();
+            dropWords.keepWords = false;
+            System.out.println(String.format("%7d %10.2f %10.2f %10.2f", count, allocated / 1048576.0 / ITERATIONS,
+                    measureRetained(code, new JavaParser()) / 1048576.0, measureRetained(code, dropWords) / 1048576.0));
+        }
+    }
+
+    @Test
+    public void benchmarkCompactTree() {
+        System.out.println("Parse a huge class, CodeBlock objects vs compact tree (constants, blocks, retained MB objects, retained MB compact):");
+        for (int count = 25000; count <= 100000; count *= 2) {
+            String code = generateConstantsCode(count);
+            JavaParser objects = new JavaParser();
+            objects.keepWords = false;
+            JavaParser compact = new JavaParser();
+            compact.compactTree = true;
+            int blocks = compact.parse(code).getCompactTree().size() - 1;
+            System.out.println(String.format("%7d %10d %10.2f %10.2f", count, blocks,
+                    measureRetained(code, objects) / 1048576.0, measureRetained(code, compact) / 1048576.0));
+        }
+    }
+
+    /**
+     * Measure the memory retained by a parsed code
+     * @param code JAVA source code
+     * @param javaParser Parser
+     * @return Retained memory (bytes)
+     */
+    private static long measureRetained(String code, JavaParser javaParser) {
+        long before = usedMemory();
+        JavaCode javaCode = javaParser.parse(code);
+        long retained = usedMemory() - before;
+        Assert.assertFalse(javaCode.getStringValues().isEmpty());
+        return retained;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Differential benchmark of the parser engines, on the JAVA files of a local corpus
+     * (-Denigma.corpus=directory), or on generated codes: parsing times by size of file, String values found
+     * by both engines, and files whose heuristic parsing fails the round trip check.
+     */
+    @Test
+    public void benchmarkParserEngines() throws Exception {
+        Assume.assumeTrue(ParserEngines.isJavacAvailable());
+        ArrayList<String> codes = new ArrayList<>();
+        String corpus = System.getProperty("enigma.corpus");
+        if (corpus != null) {
+            for (File file : FileUtils.listFiles(new File(corpus), new String[] {"java"}, true)) {
+                codes.add(FileUtils.readFileToString(file, "UTF-8"));
+            }
+        } else {
+            for (int count = 10; count <= 100000; count *= 10) {
+                codes.add(generateConstantsCode(count));
+                codes.add(generateCommentedCode(count));
+                codes.add(generateNestedCode(Math.min(count, 1600)));
+            }
+        }
+
+        ParserEngine heuristic = new JavaParser();
+        ParserEngine javac = new JavacParserEngine();
+        int[] limits = new int[] {8 * 1024, 32 * 1024, 128 * 1024, Integer.MAX_VALUE};
+        int[] files = new int[limits.length];
+        long[] heuristicTimes = new long[limits.length];
+        long[] javacTimes = new long[limits.length];
+        int different = 0;
+        int inconsistent = 0;
+        int failures = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // First pass: warm up
+            for (String code : codes) {
+                int size = 0;
+                while (code.length() >= limits[size]) size++;
+
+                long start = System.nanoTime();
+                JavaCode heuristicCode = heuristic.parse(code);
+                long middle = System.nanoTime();
+                JavaCode javacCode = null;
+                try {
+                    javacCode = javac.parse(code);
+                } catch (IllegalArgumentException e) {
+                    if (pass > 0) failures++;
+                }
+                long end = System.nanoTime();
+                if (pass == 0) continue;
+
+                files[size]++;
+                heuristicTimes[size] += middle - start;
+                javacTimes[size] += end - middle;
+                if (!ParserEngines.checkRoundTrip(heuristicCode)) inconsistent++;
+                if (javacCode != null && !getSpans(heuristicCode).equals(getSpans(javacCode))) different++;
+            }
+        }
+
+        System.out.println("Parser engines (max chars, files, heuristic ms, javac ms):");
+        for (int i = 0; i < limits.length; i++) {
+            if (files[i] == 0) continue;
+            System.out.println(String.format("%10d %6d %10.2f %10.2f", limits[i], files[i],
+                    heuristicTimes[i] / 1000000.0, javacTimes[i] / 1000000.0));
+        }
+        System.out.println(String.format("%d files: %d with different String values, %d failing the heuristic check, %d not parsed by javac",
+                codes.size(), different, inconsistent, failures));
+    }
+
+    /**
+     * Return the positions of the String values of a code
+     * @param javaCode Parsed code
+     * @return Positions (start, end and switch/case flag)
+     */
+    private static ArrayList<String> getSpans(JavaCode javaCode) {
+        ArrayList<String> spans = new ArrayList<>();
+        for (CodeString string : javaCode.getStringValues()) {
+            spans.add(string.start + "-" + string.end + (string.isCaseValue ? "c" : ""));
+        }
+        return spans;
+    }
+
+    @Test
+    public void benchmarkUtf8Scanner() {
+        System.out.println("String values scanning, UTF-8 bytes vs characters (lines, bytes, chars ms, bytes ms):");
+        for (int count = 5000; count <= 80000; count *= 4) {
+            final byte[] bytes = generateCommentedCode(count).getBytes(StandardCharsets.UTF_8);
+            final int[] counter = new int[2];
+            JavaSourceVisitor visitor = new JavaSourceVisitor() {
+                @Override
+                public void onStringLiteral(int start, int end, int context) {
+                    counter[0]++;
+                }
+            };
+            Utf8SourceScanner.LiteralHandler handler = (source, start, end, isTextBlock) -> counter[1]++;
+
+            long charsTime = 0;
+            long bytesTime = 0;
+            for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+                // Current path: decode the whole file, then scan the characters
+                long start = System.nanoTime();
+                new JavaParser().visit(new String(bytes, StandardCharsets.UTF_8), visitor);
+                long middle = System.nanoTime();
+                new Utf8SourceScanner(bytes).scan(handler);
+                long end = System.nanoTime();
+                if (i >= WARM_UP) {
+                    charsTime += middle - start;
+                    bytesTime += end - middle;
+                }
+            }
+            Assert.assertEquals(counter[0], counter[1]);
+            System.out.println(String.format("%6d %10d %10.2f %10.2f", count, bytes.length,
+                    charsTime / 1000000.0 / ITERATIONS, bytesTime / 1000000.0 / ITERATIONS));
+        }
+    }
+
+    /**
+     * Generate a class with long lines of code and comments, and a few String values
+     * @param count Number of lines
+     * @return JAVA source code
+     */
+    static String generateCommentedCode(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package com.benchmark;\n\npublic class Commented {\n");
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                sb.append("    /**\n     * Documentation of the value number ").append(i).append(", with accents: é à ü\n     */\n");
+                sb.append("    public static final String VALUE_").append(i).append(" = \"value ").append(i).append("\";\n");
+            } else {
+                sb.append("    private final int counter").append(i).append(" = computeTheInitialValue(first, second + ")
+                        .append(i).append(", third); // line comment\n");
+            }
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generate a class of String constants
+     * @param count Number of constants
+     * @return JAVA source code
+     */
+    static String generateConstantsCode(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package com.benchmark;\n\npublic class Constants {\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("    public static final String KEY_").append(i).append(" = \"value_").append(i).append("\";\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generate a class with nested blocks: conditions, anonymous inner classes and lambdas.
+     * @param depth Nesting depth
+     * @return JAVA source code
+     */
+    static String generateNestedCode(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package com.benchmark;\n\npublic class Nested {\n    public void run(int value) {\n");
+        for (int i = 0; i < depth; i++) {
+            sb.append("        String s").append(i).append(" = \"value ").append(i).append("\";\n");
+            switch (i % 3) {
+                case 0: sb.append("        if (value > ").append(i).append(") {\n"); break;
+                case 1: sb.append("        Runnable r").append(i).append(" = new Runnable() { public void run() {\n"); break;
+                default: sb.append("        execute(() -> {\n"); break;
+            }
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            switch (i % 3) {
+                case 0: sb.append("        }\n"); break;
+                case 1: sb.append("        }};\n"); break;
+                default: sb.append("        });\n"); break;
+            }
+        }
+        sb.append("    }\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Measure the average parsing time of a source code
+     * @param code JAVA source code
+     * @return Average time in milliseconds
+     */
+    private static double measureParse(String code) {
+        for (int i = 0; i < WARM_UP; i++) parse(code);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) parse(code);
+        return (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+    }
+
+    private static void parse(String code) {
+        JavaCode javaCode = new JavaParser().parse(code);
+        Assert.assertFalse(javaCode.getStringValues().isEmpty());
+    }
+}
@@ -0,0 +1,372 @@
+package com.chrisney.enigma;
+
+import com.chrisney.enigma.tasks.BackupManifest;
+import com.chrisney.enigma.tasks.BackupPack;
+import com.chrisney.enigma.tasks.InjectCodeTask;
+import com.chrisney.enigma.utils.Utils;
+import org.apache.commons.io.FileUtils;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+/**
+ * Plugin tests: Gradle builds of a test project (Gradle TestKit)
+ */
+public class PluginTests {
+
+    private static final String SETTINGS_SCRIPT = "rootProject.name = 'enigma-test'\n" +
+            "buildCache {\n" +
+            "    local {\n" +
+            "        directory = new File(rootDir, 'build-cache')\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String BUILD_SCRIPT = "plugins {\n" +
+            "    id 'com.chrisney.enigma'\n" +
+            "}\n" +
+            "// Tasks of the Android plugin:\n" +
+            "tasks.register('preBuild')\n" +
+            "tasks.register('clean')\n" +
+            "enigma {\n" +
+            "    hash = 'LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN'\n" +
+            "    outputDir = '/build/enigma/src'\n" +
+            "}\n";
+
+    private static final String OUT_OF_TREE_BUILD_SCRIPT = "plugins {\n" +
+            "    id 'java'\n" +
+            "    id 'com.chrisney.enigma'\n" +
+            "}\n" +
+            "enigma {\n" +
+            "    hash = 'LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN'\n" +
+            "    srcJava = '/src/main/java'\n" +
+            "    outOfTree = true\n" +
+            "}\n";
+
+    private static final String MAIN_CLASS = "package com.example;\n" +
+            "\n" +
+            "public class Main {\n" +
+            "    public static String getMessage() {\n" +
+            "        return \"Hello Enigma\";\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String[] CLASSES = {"A", "B", "C"};
+
+    private File projectDir;
+    private File srcDir;
+    private File outputDir;
+
+    @Before
+    public void createProject() throws IOException {
+        projectDir = Files.createTempDirectory("enigma-plugin").toFile();
+        srcDir = new File(projectDir, "app/src/main/java/com/example");
+        outputDir = new File(projectDir, "build/enigma/src/com/example");
+        FileUtils.writeStringToFile(new File(projectDir, "settings.gradle"), SETTINGS_SCRIPT, "UTF-8");
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT, "UTF-8");
+        String code = FileUtils.readFileToString(Utils.getFileResource("Utils.java"), "UTF-8");
+        for (String name : CLASSES) {
+            FileUtils.writeStringToFile(new File(srcDir, name + ".java"),
+                    code.replace("public class Utils", "public class " + name), "UTF-8");
+        }
+    }
+
+    @After
+    public void deleteProject() throws IOException {
+        FileUtils.deleteDirectory(projectDir);
+    }
+
+    @Test
+    public void testEncryptUpToDate() throws Exception {
+        BuildResult first = encrypt();
+        Assert.assertEquals(TaskOutcome.SUCCESS, first.task(":encrypt").getOutcome());
+        for (String name : CLASSES) {
+            Assert.assertTrue(first.getOutput().contains(name + ".java encrypted"));
+            String encrypted = FileUtils.readFileToString(new File(outputDir, name + ".java"), "UTF-8");
+            Assert.assertTrue(encrypted.contains(InjectCodeTask.FUNCTION_NAME));
+            // The source files are never modified:
+            String source = FileUtils.readFileToString(new File(srcDir, name + ".java"), "UTF-8");
+            Assert.assertFalse(source.contains(InjectCodeTask.FUNCTION_NAME));
+        }
+        long[] modified = getLastModified();
+
+        // No change: no file read or written
+        BuildResult second = encrypt();
+        Assert.assertEquals(TaskOutcome.UP_TO_DATE, second.task(":encrypt").getOutcome());
+        Assert.assertFalse(second.getOutput().contains("encrypted"));
+        Assert.assertArrayEquals(modified, getLastModified());
+    }
+
+    @Test
+    public void testPreBuildUpToDate() throws Exception {
+        // Output folder: only the 'encrypt' task, the source folder is never modified
+        BuildResult first = build("preBuild");
+        Assert.assertEquals(TaskOutcome.SUCCESS, first.task(":encrypt").getOutcome());
+        Assert.assertNull(first.task(":backup"));
+        Assert.assertNull(first.task(":injectCode"));
+        Assert.assertFalse(new File(projectDir, "app/src/main/java/com/chrisney").exists());
+        Assert.assertTrue(new File(projectDir, "build/enigma/src/com/chrisney/enigma/EnigmaUtils.java").exists());
+
+        BuildResult second = build("preBuild");
+        Assert.assertEquals(TaskOutcome.UP_TO_DATE, second.task(":encrypt").getOutcome());
+        Assert.assertFalse(second.getOutput().contains("encrypted"));
+
+        // The streaming mode is an input of the task:
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    outputDir = '/build/enigma/src'\n", "    outputDir = '/build/enigma/src'\n    streaming = true\n"), "UTF-8");
+        BuildResult third = build("preBuild");
+        Assert.assertEquals(TaskOutcome.SUCCESS, third.task(":encrypt").getOutcome());
+    }
+
+    @Test
+    public void testEncryptIncremental() throws Exception {
+        encrypt();
+        long[] modified = getLastModified();
+
+        File modifiedFile = new File(srcDir, "B.java");
+        FileUtils.writeStringToFile(modifiedFile, "// Modified\n", "UTF-8", true);
+        Assert.assertTrue(new File(srcDir, "C.java").delete());
+
+        BuildResult result = encrypt();
+        Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":encrypt").getOutcome());
+        Assert.assertFalse(result.getOutput().contains("A.java encrypted"));
+        Assert.assertTrue(result.getOutput().contains("B.java encrypted"));
+        Assert.assertEquals(modified[0], new File(outputDir, "A.java").lastModified());
+        Assert.assertTrue(FileUtils.readFileToString(new File(outputDir, "B.java"), "UTF-8").contains("// Modified"));
+        Assert.assertFalse(new File(outputDir, "C.java").exists());
+    }
+
+    @Test
+    public void testEncryptFromCache() throws Exception {
+        BuildResult first = encrypt("--build-cache");
+        Assert.assertEquals(TaskOutcome.SUCCESS, first.task(":encrypt").getOutcome());
+        String encrypted = FileUtils.readFileToString(new File(outputDir, "A.java"), "UTF-8");
+
+        FileUtils.deleteDirectory(new File(projectDir, "build/enigma"));
+        BuildResult second = encrypt("--build-cache");
+        Assert.assertEquals(TaskOutcome.FROM_CACHE, second.task(":encrypt").getOutcome());
+        Assert.assertFalse(second.getOutput().contains("encrypted"));
+        Assert.assertEquals(encrypted, FileUtils.readFileToString(new File(outputDir, "A.java"), "UTF-8"));
+    }
+
+    @Test
+    public void testEncryptUpToDateWithoutHash() throws Exception {
+        // No hash defined: the generated hash is saved, the task is up-to-date at the next build
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    hash = 'LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN'\n", ""), "UTF-8");
+        BuildResult first = encrypt();
+        Assert.assertEquals(TaskOutcome.SUCCESS, first.task(":encrypt").getOutcome());
+        Assert.assertTrue(new File(projectDir, ".gradle/enigma/hash.key").exists());
+
+        BuildResult second = encrypt();
+        Assert.assertEquals(TaskOutcome.UP_TO_DATE, second.task(":encrypt").getOutcome());
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        // No hash defined: the generated hash is saved for the next builds
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    hash = 'LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN'\n", "    deterministic = true\n"), "UTF-8");
+        encrypt();
+        Assert.assertTrue(new File(projectDir, ".gradle/enigma/hash.key").exists());
+        String[] encrypted = new String[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) {
+            encrypted[i] = FileUtils.readFileToString(new File(outputDir, CLASSES[i] + ".java"), "UTF-8");
+        }
+
+        FileUtils.deleteDirectory(new File(projectDir, "build/enigma"));
+        BuildResult result = encrypt();
+        Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":encrypt").getOutcome());
+        for (int i = 0; i < CLASSES.length; i++) {
+            Assert.assertEquals(encrypted[i], FileUtils.readFileToString(new File(outputDir, CLASSES[i] + ".java"), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testOutOfTree() throws Exception {
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), OUT_OF_TREE_BUILD_SCRIPT, "UTF-8");
+        File source = new File(projectDir, "src/main/java/com/example/Main.java");
+        FileUtils.writeStringToFile(source, MAIN_CLASS, "UTF-8");
+
+        BuildResult result = build("compileJava");
+        Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":encryptMain").getOutcome());
+        Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":compileJava").getOutcome());
+
+        // The source file is not modified, the encrypted file is compiled instead:
+        Assert.assertEquals(MAIN_CLASS, FileUtils.readFileToString(source, "UTF-8"));
+        String encrypted = FileUtils.readFileToString(new File(projectDir, "build/generated/enigma/main/com/example/Main.java"), "UTF-8");
+        Assert.assertTrue(encrypted.contains(InjectCodeTask.FUNCTION_NAME));
+        Assert.assertFalse(encrypted.contains("Hello Enigma"));
+        Assert.assertFalse(new File(projectDir, "enigma-backup").exists());
+
+        File classes = new File(projectDir, "build/classes/java/main");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, null)) {
+            Object message = loader.loadClass("com.example.Main").getMethod("getMessage").invoke(null);
+            Assert.assertEquals("Hello Enigma", message);
+        }
+    }
+
+    @Test
+    public void testSelectiveBackup() throws Exception {
+        // Encryption in place (SCM required), class C ignored:
+        Assert.assertTrue(new File(projectDir, ".git").mkdir());
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    outputDir = '/build/enigma/src'\n", "    ignoredClasses = ['com.example.C.java']\n"), "UTF-8");
+        String[] sources = new String[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) {
+            sources[i] = FileUtils.readFileToString(new File(srcDir, CLASSES[i] + ".java"), "UTF-8");
+        }
+
+        BuildResult first = build("preBuild");
+        File backupDir = new File(projectDir, "enigma-backup/app/src/main/java/com/example");
+        Assert.assertTrue(first.getOutput().contains("Backup: "));
+        Assert.assertTrue(new File(backupDir, "A.java").exists());
+        Assert.assertTrue(new File(backupDir, "B.java").exists());
+        Assert.assertFalse(new File(backupDir, "C.java").exists());
+        Assert.assertEquals(sources[0], FileUtils.readFileToString(new File(backupDir, "A.java"), "UTF-8"));
+
+        build("restore");
+        for (int i = 0; i < CLASSES.length; i++) {
+            Assert.assertEquals(sources[i], FileUtils.readFileToString(new File(srcDir, CLASSES[i] + ".java"), "UTF-8"));
+        }
+
+        // Restored files: the backups are reused
+        BuildResult second = build("preBuild");
+        Assert.assertFalse(second.getOutput().contains("Backup: "));
+        Assert.assertTrue(FileUtils.readFileToString(new File(srcDir, "A.java"), "UTF-8").contains(InjectCodeTask.FUNCTION_NAME));
+        Assert.assertEquals(sources[0], FileUtils.readFileToString(new File(backupDir, "A.java"), "UTF-8"));
+    }
+
+    @Test
+    public void testManifestRestore() throws Exception {
+        Assert.assertTrue(new File(projectDir, ".git").mkdir());
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    outputDir = '/build/enigma/src'\n", "    ignoredClasses = ['com.example.C.java']\n"), "UTF-8");
+        String source = FileUtils.readFileToString(new File(srcDir, "A.java"), "UTF-8");
+        long[] modified = new long[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) {
+            File file = new File(srcDir, CLASSES[i] + ".java");
+            Assert.assertTrue(file.setLastModified(1500000000000L + i * 1000));
+            modified[i] = file.lastModified();
+        }
+
+        build("preBuild");
+        File manifest = new File(projectDir, "enigma-backup/" + BackupManifest.FILE_NAME);
+        LinkedHashMap<String, BackupManifest.Entry> entries = BackupManifest.read(manifest);
+        Assert.assertEquals(Arrays.asList("/app/src/main/java/com/example/A.java", "/app/src/main/java/com/example/B.java"),
+                new ArrayList<>(entries.keySet()));
+
+        // B modified after its encryption: not overwritten
+        FileUtils.writeStringToFile(new File(srcDir, "B.java"), "// Modified\n", "UTF-8", true);
+        BuildResult result = build("restore");
+        Assert.assertTrue(result.getOutput().contains("Restore: /app/src/main/java/com/example/A.java"));
+        Assert.assertFalse(result.getOutput().contains("C.java"));
+        Assert.assertEquals(source, FileUtils.readFileToString(new File(srcDir, "A.java"), "UTF-8"));
+        Assert.assertEquals(modified[0], new File(srcDir, "A.java").lastModified());
+        Assert.assertEquals(modified[2], new File(srcDir, "C.java").lastModified());
+        Assert.assertTrue(FileUtils.readFileToString(new File(srcDir, "B.java"), "UTF-8").contains(InjectCodeTask.FUNCTION_NAME));
+        Assert.assertEquals(Collections.singleton("/app/src/main/java/com/example/B.java"), BackupManifest.read(manifest).keySet());
+    }
+
+    @Test
+    public void testEncryptTwiceWithoutRestore() throws Exception {
+        // ABI neutral mode: a file without String values is encrypted without the Enigma code
+        Assert.assertTrue(new File(projectDir, ".git").mkdir());
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    outputDir = '/build/enigma/src'\n", "    abiNeutral = true\n"), "UTF-8");
+        File file = new File(srcDir, "D.java");
+        String source = "package com.example;\n\npublic class D {\n    private int count;\n\n"
+                + "    public void run() {\n        count++;\n    }\n}\n";
+        FileUtils.writeStringToFile(file, source, "UTF-8");
+
+        build("preBuild");
+        String encrypted = FileUtils.readFileToString(file, "UTF-8");
+        Assert.assertNotEquals(source, encrypted);
+        Assert.assertFalse(encrypted.contains(InjectCodeTask.FUNCTION_NAME));
+
+        // No restore (failed build): the encrypted file is neither encrypted nor backed up again
+        BuildResult second = build("preBuild");
+        Assert.assertTrue(second.getOutput().contains("Cannot process a file already encrypted: " + file));
+        Assert.assertEquals(encrypted, FileUtils.readFileToString(file, "UTF-8"));
+
+        build("restore");
+        Assert.assertEquals(source, FileUtils.readFileToString(file, "UTF-8"));
+    }
+
+    @Test
+    public void testPackedBackup() throws Exception {
+        Assert.assertTrue(new File(projectDir, ".git").mkdir());
+        FileUtils.writeStringToFile(new File(projectDir, "build.gradle"), BUILD_SCRIPT
+                .replace("    outputDir = '/build/enigma/src'\n", "    backupFormat = 'pack'\n"), "UTF-8");
+        String[] sources = new String[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) {
+            sources[i] = FileUtils.readFileToString(new File(srcDir, CLASSES[i] + ".java"), "UTF-8");
+        }
+
+        build("preBuild");
+        File backupDir = new File(projectDir, "enigma-backup");
+        Assert.assertTrue(new File(backupDir, BackupPack.PACK_NAME).exists());
+        Assert.assertFalse(new File(backupDir, "app").exists());
+
+        build("restore");
+        for (int i = 0; i < CLASSES.length; i++) {
+            Assert.assertEquals(sources[i], FileUtils.readFileToString(new File(srcDir, CLASSES[i] + ".java"), "UTF-8"));
+        }
+        Assert.assertEquals(CLASSES.length, BackupPack.open(backupDir).getEntries().size());
+
+        // Restored files: the backups are reused
+        BuildResult second = build("preBuild");
+        Assert.assertFalse(second.getOutput().contains("Backup: "));
+        build("restore");
+        Assert.assertEquals(sources[0], FileUtils.readFileToString(new File(srcDir, "A.java"), "UTF-8"));
+
+        build("cleanBackup");
+        Assert.assertFalse(backupDir.exists());
+    }
+
+    /**
+     * Run the 'encrypt' task of the test project
+     * @param arguments Other arguments of the build
+     * @return Result of the build
+     */
+    private BuildResult encrypt(String... arguments) {
+        ArrayList<String> args = new ArrayList<>(Arrays.asList(arguments));
+        args.add("encrypt");
+        return build(args.toArray(new String[0]));
+    }
+
+    /**
+     * Run a build of the test project
+     * @param arguments Arguments of the build (tasks and options)
+     * @return Result of the build
+     */
+    private BuildResult build(String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(projectDir)
+                .withPluginClasspath()
+                .withArguments(arguments)
+                .build();
+    }
+
+    /**
+     * @return Last modification dates of the encrypted files
+     */
+    private long[] getLastModified() {
+        long[] modified = new long[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) modified[i] = new File(outputDir, CLASSES[i] + ".java").lastModified();
+        return modified;
+    }
+}
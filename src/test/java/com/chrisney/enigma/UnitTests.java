@@ -1,10 +1,25 @@
 package com.chrisney.enigma;
 
+import com.chrisney.enigma.parser.AutoParserEngine;
+import com.chrisney.enigma.parser.BracketIndex;
 import com.chrisney.enigma.parser.CodeBlock;
+import com.chrisney.enigma.parser.CodeBlockIndex;
+import com.chrisney.enigma.parser.CodeEdit;
+import com.chrisney.enigma.parser.CodeEdits;
+import com.chrisney.enigma.parser.CodeTemplate;
+import com.chrisney.enigma.parser.CompactCodeTree;
 import com.chrisney.enigma.parser.CodeString;
 import com.chrisney.enigma.parser.JavaCode;
+import com.chrisney.enigma.parser.JavaCodeCache;
+import com.chrisney.enigma.parser.JavaCodeStream;
 import com.chrisney.enigma.parser.JavaParser;
+import com.chrisney.enigma.parser.JavaSourceVisitor;
+import com.chrisney.enigma.parser.JavacParserEngine;
+import com.chrisney.enigma.parser.ParserEngines;
+import com.chrisney.enigma.parser.Utf8SourceScanner;
+import com.chrisney.enigma.tasks.BackupPack;
 import com.chrisney.enigma.tasks.InjectCodeTask;
+import com.chrisney.enigma.tasks.JavaFileEncryptor;
 import com.chrisney.enigma.utils.AESUtils;
 import com.chrisney.enigma.utils.TextUtils;
 import com.chrisney.enigma.utils.Utils;
@@ -12,11 +27,31 @@ import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 public class UnitTests {
 
@@ -60,6 +95,10 @@ public class UnitTests {
         String targetCode = FileUtils.readFileToString(securedJavaFile, "UTF-8");
 
         Assert.assertEquals(targetCode, securedCode);
+
+        StringWriter writer = new StringWriter();
+        c.writeTo(writer);
+        Assert.assertEquals(targetCode, writer.toString());
     }
 
     @Test
@@ -73,6 +112,873 @@ public class UnitTests {
         Assert.assertEquals(blockImport.name, "com.chrisney.enigma.parser.JavaParser");
     }
 
+    @Test
+    public void testBlockTypesParser() {
+        String code = "package com.test;\n\npublic class Test {\n" +
+                "    private static final String KEY = \"value\";\n" +
+                "    public Test() {}\n" +
+                "    public int compute(int value) {\n" +
+                "        switch (value) { case 1: return 0; }\n" +
+                "        return value;\n" +
+                "    }\n" +
+                "}";
+        JavaParser javaParser = new JavaParser();
+        JavaCode javaCode = javaParser.parse(code);
+
+        CodeBlock blockClass = javaCode.getClasses().get(0);
+        Assert.assertEquals("Test", blockClass.name);
+        Assert.assertEquals(CodeBlock.Modifier.Public, blockClass.modifier);
+
+        CodeBlock blockFunction = javaCode.getFunctions().get(0);
+        Assert.assertEquals("compute", blockFunction.name);
+        Assert.assertEquals("int", blockFunction.returnType);
+
+        Assert.assertEquals(1, javaCode.getBlocksByType(CodeBlock.BlockType.Constructor).size());
+        Assert.assertEquals(1, javaCode.getBlocksByType(CodeBlock.BlockType.Attribute).size());
+        Assert.assertEquals(1, javaCode.getStringValues().size());
+        Assert.assertEquals(code + "\n", javaCode.toCode());
+    }
+
+    @Test
+    public void testBlockRegistry() {
+        String code = "package com.test;\n\npublic interface Listener {\n" +
+                "    void onEvent();\n" +
+                "}\n" +
+                "class Test {\n" +
+                "    private int count = 0;\n" +
+                "    public void run() {\n" +
+                "        count++;\n" +
+                "    }\n" +
+                "}";
+        JavaParser javaParser = new JavaParser();
+        JavaCode javaCode = javaParser.parse(code);
+
+        ArrayList<CodeBlock> types = javaCode.getBlocksByTypes(new CodeBlock.BlockType[] {
+                CodeBlock.BlockType.Class, CodeBlock.BlockType.Interface});
+        Assert.assertEquals(2, types.size());
+        Assert.assertEquals("Listener", types.get(0).name);
+        Assert.assertEquals("Test", types.get(1).name);
+        Assert.assertEquals(1, javaCode.getFunctions().size());
+
+        // Registry must be updated after injections:
+        Assert.assertTrue(javaCode.addAttribute("private String name = null;", "Test"));
+        Assert.assertTrue(javaCode.addFunction("private void reset() { count = 0; }", "Test"));
+        Assert.assertEquals(2, javaCode.getBlocksByType(CodeBlock.BlockType.Attribute).size());
+        Assert.assertEquals(2, javaCode.getFunctions().size());
+        Assert.assertTrue(javaCode.getFunctions().get(1).injected);
+        Assert.assertEquals(javaCode.getAllBlocks().size(), javaCode.getBlocksByTypes(CodeBlock.BlockType.values()).size());
+    }
+
+    @Test
+    public void testNestedBlockCode() {
+        String code = "class A {\n    void f() {\n        int a = 0;\n    }\n}";
+        JavaParser javaParser = new JavaParser();
+        JavaCode javaCode = javaParser.parse(code);
+
+        CodeBlock blockFunction = javaCode.getFunctions().get(0);
+        Assert.assertEquals("\n    void f() {\n        int a = 0;\n    }", blockFunction.getCode());
+        Assert.assertEquals(code.substring(blockFunction.getStart(), blockFunction.getEnd()), blockFunction.getCode());
+
+        CodeBlock lineOfCode = blockFunction.subBlocks.first();
+        Assert.assertEquals("\n        int a = 0;", lineOfCode.getCode());
+        Assert.assertEquals(lineOfCode.getCode().length(), lineOfCode.codeLength());
+    }
+
+    @Test
+    public void testBracketIndex() {
+        String code = "{ String s = \"{\"; char c = '}'; /* { */ // }\n { } }";
+        BracketIndex brackets = BracketIndex.build(code.toCharArray());
+
+        Assert.assertEquals(code.length() - 1, brackets.getMatch(0));
+        Assert.assertEquals(BracketIndex.NONE, brackets.getMatch(code.indexOf("\"{\"") + 1));
+        Assert.assertEquals(BracketIndex.NONE, brackets.getMatch(code.indexOf("/* {") + 3));
+        int inner = code.indexOf("\n {") + 2;
+        Assert.assertEquals(inner + 2, brackets.getMatch(inner));
+        Assert.assertEquals(BracketIndex.UNMATCHED, BracketIndex.build("class A {".toCharArray()).getMatch(8));
+    }
+
+    @Test
+    public void testInitializerBlocks() throws Exception {
+        String code = "public class Icon {\n" +
+                "    protected static final Component component\n" +
+                "            = AccessController.doPrivileged(new PrivilegedAction<Component>() {\n" +
+                "        public Component run() {\n" +
+                "            return null;\n" +
+                "        }\n" +
+                "    });\n" +
+                "    private final Runnable task = () -> { run(); };\n" +
+                "    private static final int[] VALUES = {0, 1};\n" +
+                "\n" +
+                "    void load() {\n" +
+                "        String s = \"image\";\n" +
+                "    }\n" +
+                "}\n";
+        JavaCode javaCode = new JavaParser().parse(code);
+        for (CodeBlock function : javaCode.getFunctions()) {
+            Assert.assertTrue(function.name, function.name.equals("run") || function.name.equals("load"));
+        }
+
+        // The fake code is injected into the function, not into the anonymous class:
+        javaCode.injectFakeKeys("FAKEPARAM", "value");
+        String result = javaCode.toCode();
+        Assert.assertTrue(result.indexOf("if (FAKEPARAM.isEmpty())") > result.indexOf("void load() {"));
+    }
+
+    @Test
+    public void testInjectionWithoutSubBlocks() throws Exception {
+        // No class with sub blocks: nothing is injected
+        JavaCode empty = new JavaParser().parse("class A {}");
+        Assert.assertFalse(empty.addAttribute("int y = 0;"));
+        Assert.assertFalse(empty.addFunction("void f() {}"));
+        Assert.assertEquals("class A {}", empty.toCode().trim());
+
+        // The latest class with sub blocks is used (not the empty inner class):
+        JavaCode javaCode = new JavaParser().parse("class A {\n    int x;\n    class I {}\n}\n");
+        Assert.assertTrue(javaCode.addAttribute("int y = 0;"));
+        Assert.assertTrue(javaCode.addFunction("void f() {}"));
+        String result = javaCode.toCode();
+        Assert.assertTrue(result.contains("class I {}"));
+        Assert.assertTrue(result.indexOf("void f() {}") > result.indexOf("class I {}"));
+
+        // A "class" word in the body of a function doesn't change its type:
+        JavaCode function = new JavaParser().parse("class B {\n    void g() {\n        // class\n    }\n}\n");
+        Assert.assertEquals(1, function.getFunctions().size());
+    }
+
+    @Test
+    public void testCodeBlockIndex() {
+        String code = "public class Test {\n" +
+                "    String a = \"a\";\n" +
+                "    void f() {\n" +
+                "        String b = \"b\";\n" +
+                "    }\n" +
+                "}";
+        JavaParser javaParser = new JavaParser();
+        JavaCode javaCode = javaParser.parse(code);
+        CodeBlockIndex index = CodeBlockIndex.build(javaCode.getClasses());
+
+        for (CodeString s : javaCode.getStringValues()) {
+            CodeBlock block = index.getBlockBetween(s.start, s.end);
+            Assert.assertNotNull(block);
+            Assert.assertFalse(block.hasChildren());
+            Assert.assertTrue(block.getCode().contains("String " + s.charAt(1) + " = " + s.getValue()));
+        }
+        Assert.assertNull(index.getBlockBetween(code.length() + 1, code.length() + 2));
+    }
+
+    @Test
+    public void testSourceVisitor() {
+        String code = "package com.test;\n" +
+                "import static java.util.Collections.*;\n" +
+                "@SuppressWarnings(\"unchecked\")\n" +
+                "public class Test {\n" +
+                "    void f(String v) {\n" +
+                "        switch (v) { case \"A\": break; }\n" +
+                "        Class c = Test.class; // \"comment\"\n" +
+                "        String s = \"{\" + '\"';\n" +
+                "    }\n" +
+                "}";
+        final StringBuilder events = new StringBuilder();
+        JavaParser javaParser = new JavaParser();
+        javaParser.visit(code, new JavaSourceVisitor() {
+            @Override
+            public void onPackage(int start, int end) {
+                events.append("package ").append(code, start, end).append("\n");
+            }
+
+            @Override
+            public void onImport(int start, int end, boolean isStatic) {
+                events.append("import ").append(isStatic).append(" ").append(code, start, end).append("\n");
+            }
+
+            @Override
+            public void onClassStart(int start, int nameStart, int nameEnd, int bodyStart) {
+                events.append("class ").append(code, nameStart, nameEnd).append("\n");
+            }
+
+            @Override
+            public void onStringLiteral(int start, int end, int context) {
+                events.append("string ").append(code, start, end).append(" ").append(context).append("\n");
+            }
+
+            @Override
+            public void onBlockEnd(int position, int depth) {
+                events.append("end ").append(depth).append("\n");
+            }
+        });
+
+        Assert.assertEquals("package com.test\n" +
+                "import true java.util.Collections.*\n" +
+                "string \"unchecked\" " + JavaSourceVisitor.CONTEXT_ANNOTATION + "\n" +
+                "class Test\n" +
+                "string \"A\" " + JavaSourceVisitor.CONTEXT_SWITCH_CASE + "\n" +
+                "end 3\n" +
+                "string \"{\" " + JavaSourceVisitor.CONTEXT_CODE + "\n" +
+                "end 2\n" +
+                "end 1\n", events.toString());
+    }
+
+    @Test
+    public void testUtf8SourceScanner() {
+        String code = "public class Test { // \"comment\" é\n" +
+                "    /* \"comment\" * / */ String a = \"Déjà vu ✓\";\n" +
+                "    char q = '\"'; char e = '\\'';\n" +
+                "    String b = \"escaped \\\" quote\" + \"\";\n" +
+                "    String c = \"\"\"\n        text \"block\"\n        \"\"\";\n" +
+                "    String unclosed = \"end of line\n" +
+                "}";
+        final ArrayList<String> expected = new ArrayList<>();
+        new JavaParser().visit(code, new JavaSourceVisitor() {
+            @Override
+            public void onStringLiteral(int start, int end, int context) {
+                expected.add(code.substring(start, end));
+            }
+        });
+
+        final ArrayList<String> values = new ArrayList<>();
+        byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        Utf8SourceScanner scanner = new Utf8SourceScanner(bytes);
+        int count = scanner.scan((source, start, end, isTextBlock) -> values.add(Utf8SourceScanner.decode(source, start, end)));
+
+        Assert.assertEquals(5, expected.size());
+        Assert.assertEquals(expected, values);
+        Assert.assertEquals(5, count);
+        Assert.assertEquals("\"Déjà vu ✓\"", values.get(0));
+        Assert.assertEquals(code.getBytes(StandardCharsets.UTF_8).length - 1, scanner.indexOf("}"));
+        Assert.assertEquals(-1, scanner.indexOf(InjectCodeTask.IMPORT_NAME));
+    }
+
+    @Test
+    public void testParallelParsing() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+
+        JavaParser sequentialParser = new JavaParser();
+        sequentialParser.parallelThreshold = 0;
+        JavaCode sequential = sequentialParser.parse(originalCode);
+
+        // Parse all blocks of members in parallel:
+        JavaParser parallelParser = new JavaParser();
+        parallelParser.parallelThreshold = 1;
+        JavaCode parallel = parallelParser.parse(originalCode);
+
+        ArrayList<CodeBlock> expected = sequential.getAllBlocks();
+        ArrayList<CodeBlock> blocks = parallel.getAllBlocks();
+        Assert.assertEquals(expected.size(), blocks.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CodeBlock e = expected.get(i);
+            CodeBlock b = blocks.get(i);
+            Assert.assertEquals(e.type, b.type);
+            Assert.assertEquals(e.name, b.name);
+            Assert.assertEquals(e.offset, b.offset);
+            Assert.assertEquals(e.getStart(), b.getStart());
+            Assert.assertEquals(e.getEnd(), b.getEnd());
+            Assert.assertEquals(e.innerOffset, b.innerOffset);
+            Assert.assertEquals(e.words.size(), b.words.size());
+        }
+
+        sequential.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        parallel.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        Assert.assertEquals(sequential.toCode(), parallel.toCode());
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+        JavaCode expected = new JavaParser().parse(originalCode);
+        expected.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        expected.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+
+        // One parser per thread, and a parser shared by all threads (the parsings wait):
+        JavaParser shared = new JavaParser();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                JavaParser parser = (i % 2 == 0) ? new JavaParser() : shared;
+                results.add(executor.submit(() -> {
+                    JavaCode code = parser.parse(originalCode);
+                    code.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+                    code.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+                    return code.toCode();
+                }));
+            }
+            for (Future<String> result : results) Assert.assertEquals(expected.toCode(), result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeterministicEncryption() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(originalCode.getBytes(StandardCharsets.UTF_8));
+
+        String[] codes = new String[3];
+        String[] paths = {"com/example/Utils.java", "com/example/Utils.java", "com/example/Other.java"};
+        for (int i = 0; i < codes.length; i++) {
+            JavaCode code = new JavaParser().parse(originalCode);
+            code.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+            code.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            code.injectFakeKeys(Utils.newSeededRandom("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", paths[i], digest));
+            codes[i] = code.toCode();
+        }
+        // Same key, path and content: same code. Other path: other fake keys
+        Assert.assertEquals(codes[0], codes[1]);
+        Assert.assertNotEquals(codes[0], codes[2]);
+    }
+
+    @Test
+    public void testAbiNeutralEncryption() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        File dir = Files.createTempDirectory("enigma-abi").toFile();
+        try {
+            File srcDir = new File(dir, "src");
+            FileUtils.writeStringToFile(new File(srcDir, "com/example/Api.java"), "package com.example;\n" +
+                    "\n" +
+                    "public class Api {\n" +
+                    "    public static final int VERSION = 1;\n" +
+                    "    protected String name = \"api\";\n" +
+                    "    private String secret = \"secret\";\n" +
+                    "\n" +
+                    "    public Api() {}\n" +
+                    "\n" +
+                    "    public String getName() {\n" +
+                    "        return name + \"/\" + secret;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    protected static class Nested {\n" +
+                    "        public String getValue() {\n" +
+                    "            return \"nested\";\n" +
+                    "        }\n" +
+                    "    }\n" +
+                    "}\n", "UTF-8");
+            FileUtils.writeStringToFile(new File(srcDir, "com/example/Listener.java"), "package com.example;\n" +
+                    "\n" +
+                    "public interface Listener {\n" +
+                    "    int MAX = 10;\n" +
+                    "\n" +
+                    "    void onEvent(int value);\n" +
+                    "}\n", "UTF-8");
+            File[] sources = {new File(srcDir, "com/example/Api.java"), new File(srcDir, "com/example/Listener.java")};
+            String[] classes = {"com.example.Api", "com.example.Api$Nested", "com.example.Listener"};
+
+            List<String> originalAbi = getAbi(compile(compiler, srcDir, new File(dir, "classes")), classes);
+            Assert.assertTrue(originalAbi.contains("public java.lang.String com.example.Api.getName()"));
+
+            JavaFileEncryptor encryptor = new JavaFileEncryptor();
+            encryptor.hash = "LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN";
+            encryptor.abiNeutral = true;
+            encryptor.sourceDir = srcDir.getAbsolutePath();
+            encryptor.outputDir = new File(dir, "encrypted").getAbsolutePath();
+            for (File source : sources) encryptor.process(source);
+            File enigmaFile = new File(encryptor.outputDir, "com/chrisney/enigma/EnigmaUtils.java");
+            FileUtils.writeStringToFile(enigmaFile, InjectCodeTask.getSourceCode(encryptor.hash), "UTF-8");
+
+            // Import only where String values are encrypted, private fake keys:
+            String api = FileUtils.readFileToString(new File(encryptor.outputDir, "com/example/Api.java"), "UTF-8");
+            String listener = FileUtils.readFileToString(new File(encryptor.outputDir, "com/example/Listener.java"), "UTF-8");
+            Assert.assertTrue(api.contains(InjectCodeTask.IMPORT_NAME));
+            Assert.assertTrue(api.contains("private static final String "));
+            Assert.assertFalse(listener.contains(InjectCodeTask.IMPORT_NAME));
+
+            // Same public and protected declarations:
+            File classesDir = compile(compiler, new File(encryptor.outputDir), new File(dir, "encrypted-classes"));
+            Assert.assertEquals(originalAbi, getAbi(classesDir, classes));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testEncryptWithoutStringValues() throws Exception {
+        File dir = Files.createTempDirectory("enigma-scan").toFile();
+        try {
+            File srcDir = new File(dir, "src");
+            File constants = new File(srcDir, "Constants.java");
+            FileUtils.writeStringToFile(constants, "public class Constants {\n    // \"comment\"\n"
+                    + "    public static final char QUOTE = '\"';\n}\n", "UTF-8");
+
+            // ABI neutral mode without fake keys: a file without String values is not parsed (unknown engine)
+            JavaFileEncryptor encryptor = new JavaFileEncryptor();
+            encryptor.hash = "LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN";
+            encryptor.abiNeutral = true;
+            encryptor.injectFakeKeys = false;
+            encryptor.parserEngine = "none";
+            encryptor.sourceDir = srcDir.getAbsolutePath();
+            encryptor.outputDir = new File(dir, "encrypted").getAbsolutePath();
+            encryptor.process(constants);
+            Assert.assertEquals(FileUtils.readFileToString(constants, "UTF-8"),
+                    FileUtils.readFileToString(encryptor.getTarget(constants), "UTF-8"));
+
+            // A String value must be encrypted:
+            FileUtils.writeStringToFile(constants, "public class Constants {\n    String a = \"a\";\n}\n", "UTF-8");
+            try {
+                encryptor.process(constants);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("none"));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Compile the JAVA files of a directory
+     * @param compiler JAVA compiler
+     * @param srcDir Source directory
+     * @param classesDir Output directory
+     * @return Output directory
+     */
+    private static File compile(JavaCompiler compiler, File srcDir, File classesDir) throws Exception {
+        ArrayList<String> args = new ArrayList<>(Arrays.asList("-nowarn", "-d", classesDir.getAbsolutePath()));
+        for (File file : FileUtils.listFiles(srcDir, new String[] {"java"}, true)) args.add(file.getAbsolutePath());
+        Files.createDirectories(classesDir.toPath());
+        Assert.assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])));
+        return classesDir;
+    }
+
+    /**
+     * Return the ABI of compiled classes: the public and protected declarations, sorted
+     * @param classesDir Directory of the classes
+     * @param classNames Names of the classes
+     * @return Signatures of the classes and of their public and protected members
+     */
+    private static List<String> getAbi(File classesDir, String... classNames) throws Exception {
+        ArrayList<String> abi = new ArrayList<>();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classesDir.toURI().toURL()}, null)) {
+            for (String className : classNames) {
+                Class<?> c = loader.loadClass(className);
+                abi.add(Modifier.toString(c.getModifiers()) + " " + c.getName() + " extends " + c.getGenericSuperclass()
+                        + " implements " + Arrays.toString(c.getGenericInterfaces()));
+                for (Field field : c.getDeclaredFields()) {
+                    if (isAbiMember(field.getModifiers())) abi.add(field.toGenericString());
+                }
+                for (Method method : c.getDeclaredMethods()) {
+                    if (isAbiMember(method.getModifiers())) abi.add(method.toGenericString());
+                }
+                for (Constructor<?> constructor : c.getDeclaredConstructors()) {
+                    if (isAbiMember(constructor.getModifiers())) abi.add(constructor.toGenericString());
+                }
+                for (Class<?> nested : c.getDeclaredClasses()) {
+                    if (isAbiMember(nested.getModifiers())) abi.add("class " + nested.getName());
+                }
+            }
+        }
+        Collections.sort(abi);
+        return abi;
+    }
+
+    private static boolean isAbiMember(int modifiers) {
+        return Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers);
+    }
+
+    @Test
+    public void testBackupPack() throws Exception {
+        File dir = Files.createTempDirectory("enigma-pack").toFile();
+        try {
+            File backupDir = new File(dir, "enigma-backup");
+            Assert.assertTrue(backupDir.mkdir());
+            String code = FileUtils.readFileToString(Utils.getFileResource("Utils.java"), "UTF-8");
+            ArrayList<File> files = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                File file = new File(dir, "src/File" + i + ".java");
+                FileUtils.writeStringToFile(file, code.replace("class Utils", "class File" + i), "UTF-8");
+                files.add(file);
+            }
+
+            // Records appended in parallel, indexed by the next opening:
+            BackupPack pack = BackupPack.open(backupDir);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(executor.submit(() -> {
+                    pack.append("/src/" + file.getName(), file.toPath());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+            executor.shutdown();
+            Assert.assertTrue(pack.getEntries().isEmpty());
+
+            BackupPack reopened = BackupPack.open(backupDir);
+            Assert.assertEquals(files.size(), reopened.getEntries().size());
+            for (File file : files) {
+                BackupPack.Entry entry = reopened.get("/src/" + file.getName());
+                Assert.assertEquals(file.length(), entry.size);
+                Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), reopened.read(entry));
+            }
+            Assert.assertTrue(new File(backupDir, BackupPack.INDEX_NAME).exists());
+            Assert.assertTrue(new File(backupDir, BackupPack.PACK_NAME).length() < code.length() * files.size());
+
+            // Deleted file: its record is removed
+            Assert.assertTrue(files.get(0).delete());
+            Assert.assertTrue(reopened.compact(dir.getAbsolutePath()));
+            BackupPack compacted = BackupPack.open(backupDir);
+            Assert.assertNull(compacted.get("/src/File0.java"));
+            Assert.assertArrayEquals(Files.readAllBytes(files.get(1).toPath()), compacted.read(compacted.get("/src/File1.java")));
+            Assert.assertFalse(compacted.compact(dir.getAbsolutePath()));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testSplitLargestFirst() throws Exception {
+        File dir = Files.createTempDirectory("enigma-split").toFile();
+        try {
+            int[] sizes = {10, 70, 30, 50, 20, 40};
+            ArrayList<File> files = new ArrayList<>();
+            for (int i = 0; i < sizes.length; i++) {
+                File file = new File(dir, "File" + i + ".java");
+                Files.write(file.toPath(), new byte[sizes[i]]);
+                files.add(file);
+            }
+
+            // Largest first, each file into the lightest group: [70, 30, 10] and [50, 40, 20] (110 bytes each)
+            List<List<File>> groups = Utils.splitLargestFirst(files, 2);
+            Assert.assertEquals(2, groups.size());
+            Assert.assertEquals(Arrays.asList(files.get(1), files.get(2), files.get(0)), groups.get(0));
+            Assert.assertEquals(Arrays.asList(files.get(3), files.get(5), files.get(4)), groups.get(1));
+
+            Assert.assertEquals(sizes.length, Utils.splitLargestFirst(files, 100).size());
+            Assert.assertEquals(1, Utils.splitLargestFirst(files, 0).size());
+            Assert.assertTrue(Utils.splitLargestFirst(new ArrayList<>(), 4).isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testLazyWords() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+
+        // Words read from the source code on demand (the shared punctuation words are never exposed):
+        JavaCode javaCode = new JavaParser().parse(originalCode);
+        ArrayList<CodeBlock> expected = javaCode.getAllBlocks();
+        for (CodeBlock block : expected) {
+            for (CodeString word : block.words) {
+                Assert.assertNotEquals(CodeString.NO_POSITION, word.start);
+                String value = originalCode.substring(block.offset + word.start, block.offset + word.end);
+                Assert.assertEquals(value, word.getValue());
+                Assert.assertTrue(word.equalsValue(value));
+            }
+        }
+
+        // Words dropped after the classification:
+        JavaParser parser = new JavaParser();
+        parser.keepWords = false;
+        JavaCode dropped = parser.parse(originalCode);
+        ArrayList<CodeBlock> blocks = dropped.getAllBlocks();
+        Assert.assertEquals(expected.size(), blocks.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).type, blocks.get(i).type);
+            Assert.assertEquals(expected.get(i).name, blocks.get(i).name);
+            Assert.assertEquals(expected.get(i).modifier, blocks.get(i).modifier);
+            Assert.assertTrue(blocks.get(i).words.isEmpty());
+        }
+
+        javaCode.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        dropped.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        Assert.assertEquals(javaCode.toCode(), dropped.toCode());
+    }
+
+    @Test
+    public void testCompactCodeTree() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+
+        JavaCode objects = new JavaParser().parse(originalCode);
+        JavaParser compactParser = new JavaParser();
+        compactParser.compactTree = true;
+        JavaCode compact = compactParser.parse(originalCode);
+        CompactCodeTree tree = compact.getCompactTree();
+        Assert.assertNotNull(tree);
+
+        // Same blocks, in tree order:
+        ArrayList<CodeBlock> blocks = objects.getAllBlocks();
+        Assert.assertEquals(blocks.size(), tree.size() - 1);
+        int i = 0;
+        for (int node = tree.next(CompactCodeTree.ROOT); node != CompactCodeTree.NONE; node = tree.next(node), i++) {
+            Assert.assertEquals(blocks.get(i).type, tree.getType(node));
+            Assert.assertEquals(blocks.get(i).name, tree.getName(node));
+            Assert.assertEquals(blocks.get(i).getStart(), tree.getStart(node));
+            Assert.assertEquals(blocks.get(i).getEnd(), tree.getEnd(node));
+        }
+        int[] functions = tree.getNodesByTypes(CodeBlock.BlockType.Function);
+        Assert.assertEquals(objects.getFunctions().size(), functions.length);
+
+        // Cursor on the first class:
+        CompactCodeTree.Cursor cursor = tree.cursor();
+        Assert.assertTrue(cursor.toFirstChild());
+        while (cursor.getType() != CodeBlock.BlockType.Class) Assert.assertTrue(cursor.toNextSibling());
+        Assert.assertEquals(objects.getClasses().get(0).name, cursor.getName());
+        Assert.assertTrue(cursor.toFirstChild());
+        Assert.assertTrue(cursor.toParent());
+        Assert.assertEquals(CodeBlock.BlockType.Class, cursor.getType());
+
+        // Same transformations, without CodeBlock objects:
+        objects.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        objects.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        objects.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+        compact.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        compact.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        compact.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+        Assert.assertNotNull(compact.getCompactTree());
+        Assert.assertEquals(objects.toCode(), compact.toCode());
+
+        // CodeBlock objects built on demand (injected blocks included):
+        Assert.assertEquals(objects.getAllBlocks().size(), compact.getAllBlocks().size());
+        Assert.assertNull(compact.getCompactTree());
+        compact.addFunction("private void fake() {}");
+        objects.addFunction("private void fake() {}");
+        Assert.assertEquals(objects.toCode(), compact.toCode());
+    }
+
+    @Test
+    public void testJavaCodeStream() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+
+        JavaCode javaCode = new JavaParser().parse(originalCode);
+        javaCode.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        javaCode.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        javaCode.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+        String expected = javaCode.toCode();
+
+        // Each top level block in its own part, then grouped parts:
+        for (int partSize : new int[] {1, 1024, JavaCodeStream.DEFAULT_PART_SIZE}) {
+            JavaCodeStream stream = new JavaCodeStream(new JavaParser());
+            stream.partSize = partSize;
+            stream.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+            stream.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            stream.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+            StringWriter writer = new StringWriter();
+            Assert.assertTrue(stream.transform(new StringReader(originalCode), writer));
+            Assert.assertEquals(expected, writer.toString());
+        }
+
+        // Code already encrypted:
+        JavaCodeStream stream = new JavaCodeStream(new JavaParser());
+        stream.abortValues = new String[] {InjectCodeTask.FUNCTION_NAME};
+        Assert.assertFalse(stream.transform(new StringReader(expected), new StringWriter()));
+    }
+
+    @Test
+    public void testParserEngines() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+        Assert.assertEquals(JavaParser.NAME, ParserEngines.get(null).getName());
+        Assert.assertEquals(ParserEngines.AUTO, ParserEngines.get(ParserEngines.AUTO).getName());
+        JavaCode heuristic = ParserEngines.get(JavaParser.NAME).parse(originalCode);
+        Assert.assertTrue(ParserEngines.checkRoundTrip(heuristic));
+        if (!ParserEngines.isJavacAvailable()) return;
+
+        // Same String values and injection points:
+        JavaCode javac = new JavacParserEngine().parse(originalCode);
+        Assert.assertTrue(ParserEngines.checkRoundTrip(javac));
+        Assert.assertEquals(heuristic.getStringValues().size(), javac.getStringValues().size());
+        for (int i = 0; i < heuristic.getStringValues().size(); i++) {
+            Assert.assertEquals(heuristic.getStringValues().get(i).start, javac.getStringValues().get(i).start);
+            Assert.assertEquals(heuristic.getStringValues().get(i).end, javac.getStringValues().get(i).end);
+        }
+        Assert.assertEquals(heuristic.getClasses().get(0).name, javac.getClasses().get(0).name);
+        javac.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        javac.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        javac.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+        String code = javac.toCode();
+        Assert.assertTrue(code.contains("\nimport " + InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME + ";"));
+        Assert.assertTrue(code.contains("public static final String DMNGZONJKU = \"moyvMeX1ESB3Q\";"));
+        Assert.assertTrue(new JavacParserEngine().parse(code).getStringValues().size() > 0);
+
+        // Heuristic parsing not consistent (escaped backslash): parsed again by javac
+        String escaped = "class A {\n    @SuppressWarnings(\"x\")\n    String a = \"\\\\\";\n"
+                + "    void b(String s) { switch (s) { case \"b\": break; } }\n}\n";
+        Assert.assertFalse(ParserEngines.checkRoundTrip(new JavaParser().parse(escaped)));
+        AutoParserEngine auto = new AutoParserEngine();
+        JavaCode autoCode = auto.parse(escaped);
+        Assert.assertEquals(1, auto.getJavacCount());
+        Assert.assertTrue(ParserEngines.checkRoundTrip(autoCode));
+        Assert.assertEquals(2, autoCode.getStringValues().size());
+        Assert.assertTrue(autoCode.getStringValues().get(1).isCaseValue);
+        try {
+            new JavacParserEngine().parse("class A { void a() { }");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseCache() throws Exception {
+        File cacheDir = Files.createTempDirectory("enigma-parse-cache").toFile();
+        try {
+            File javaFile = Utils.getFileResource("Utils.java");
+            String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+            String key = JavaCodeCache.getKey(originalCode);
+            File entry = new File(cacheDir, key + ".jcc");
+
+            JavaCodeCache cache = new JavaCodeCache(cacheDir, JavaCodeCache.DEFAULT_MAX_SIZE);
+            JavaCode parsed = cache.parse(originalCode, new JavaParser());
+            Assert.assertTrue(entry.exists());
+
+            // Cached result must be the same as a new parsing:
+            JavaCode cached = cache.get(key, originalCode);
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(parsed.toCode(), cached.toCode());
+            Assert.assertEquals(parsed.getStringValues().size(), cached.getStringValues().size());
+            for (int i = 0; i < parsed.getStringValues().size(); i++) {
+                Assert.assertEquals(parsed.getStringValues().get(i).getValue(), cached.getStringValues().get(i).getValue());
+            }
+            parsed.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            cached.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            Assert.assertEquals(parsed.toCode(), cached.toCode());
+
+            // Cached result read as a compact tree, and compact tree cached:
+            JavaParser compactParser = new JavaParser();
+            compactParser.compactTree = true;
+            JavaCode compact = cache.parse(originalCode, compactParser);
+            Assert.assertNotNull(compact.getCompactTree());
+            compact.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            Assert.assertEquals(parsed.toCode(), compact.toCode());
+            cache.put(key, compactParser.parse(originalCode));
+            cached = cache.get(key, originalCode);
+            cached.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+            Assert.assertEquals(parsed.toCode(), cached.toCode());
+
+            // Corrupted entry is removed, then the code is parsed again:
+            byte[] data = Files.readAllBytes(entry.toPath());
+            data[data.length / 2] ^= 0x5A;
+            Files.write(entry.toPath(), data);
+            Assert.assertNull(cache.get(key, originalCode));
+            Assert.assertFalse(entry.exists());
+            Assert.assertEquals(originalCode, cache.parse(originalCode, new JavaParser()).toCode());
+            Assert.assertTrue(entry.exists());
+
+            // Check of the parsing cached with the entry (the auto engine doesn't scan a cached file):
+            String escaped = "class A {\n    String a = \"\\\\\";\n}\n";
+            JavaParser parser = new JavaParser();
+            Assert.assertFalse(ParserEngines.checkRoundTrip(cache.parse(escaped, parser, true)));
+            Assert.assertFalse(ParserEngines.checkRoundTrip(cache.get(JavaCodeCache.getKey(escaped), escaped)));
+            Assert.assertTrue(ParserEngines.checkRoundTrip(cache.parse(originalCode, parser, true)));
+            Assert.assertTrue(ParserEngines.checkRoundTrip(cache.get(key, originalCode)));
+            Assert.assertEquals(1, new AutoParserEngine().parse(escaped, cache).getStringValues().size());
+
+            // Least recently used entries are removed:
+            JavaCodeCache smallCache = new JavaCodeCache(cacheDir, entry.length());
+            smallCache.parse("public class A { String a = \"a\"; }", new JavaParser());
+            Assert.assertFalse(entry.exists());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testCodeEdits() {
+        CodeEdits edits = new CodeEdits();
+        edits.replace(8, 3, "\"X\"");
+        edits.insert(4, "B");
+        edits.insertFirst(4, "A");
+        CodeEdit edit = edits.insertAfter(edits.insert(8, "C"), "D");
+        Assert.assertEquals("int ABa = CD\"X\";", edits.apply("int a = \"x\";"));
+
+        // Positions in the modified code:
+        Assert.assertEquals(6, edits.getNewPosition(4));
+        Assert.assertEquals(12, edits.getNewPosition(8));
+        Assert.assertEquals(15, edits.getNewEnd(11));
+        Assert.assertEquals(15, edits.getNewPosition(11));
+        Assert.assertEquals(11, edits.getNewPosition(edit));
+        edits.insert(0, "final ");
+        Assert.assertEquals(21, edits.getNewPosition(11));
+
+        // Overlapping edits are rejected (insertions at the start or at the end of a replaced range are not):
+        edits.insert(11, "E");
+        for (int[] overlap : new int[][] {{9, 0}, {8, 3}, {6, 3}, {10, 4}}) {
+            try {
+                edits.replace(overlap[0], overlap[1], "Y");
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Overlapping edits"));
+            }
+        }
+        Assert.assertEquals("final int ABa = CD\"X\"E;", edits.apply("int a = \"x\";"));
+
+        // Imports injection after the last block of the file:
+        String code = "package com.test;\n\nimport java.util.List;";
+        JavaParser javaParser = new JavaParser();
+        JavaCode javaCode = javaParser.parse(code);
+        javaCode.addImport("java.util.Map");
+        Assert.assertEquals(code + "\nimport java.util.Map;\n", javaCode.toCode());
+        Assert.assertEquals(2, javaCode.getImports().size());
+    }
+
+    @Test
+    public void testOutputPositions() throws Exception {
+        File javaFile = Utils.getFileResource("Utils.java");
+        String originalCode = FileUtils.readFileToString(javaFile, "UTF-8");
+
+        JavaCode javaCode = new JavaParser().parse(originalCode);
+        javaCode.addImport(InjectCodeTask.PACKAGE_NAME + "." + InjectCodeTask.CLASS_NAME);
+        javaCode.encryptStrings("LXeyH4qdtk2YqNDnLqZzX5HmPEwEwZEN", InjectCodeTask.FUNCTION_NAME);
+        javaCode.injectFakeKeys("DMNGZONJKU", "moyvMeX1ESB3Q");
+        String code = javaCode.toCode();
+
+        for (CodeBlock block : javaCode.getAllBlocks()) {
+            int start = javaCode.getOutputStart(block);
+            int end = javaCode.getOutputEnd(block);
+            if (block.injected) {
+                Assert.assertEquals(block.toCode(), code.substring(start, end));
+            } else if (block.getEnd() > block.getStart()) {
+                // Same first and last characters (the blocks never start or end into a String value):
+                Assert.assertEquals(originalCode.charAt(block.getStart()), code.charAt(start));
+                Assert.assertEquals(originalCode.charAt(block.getEnd() - 1), code.charAt(end - 1));
+            }
+        }
+
+        // Characters out of the String values are only moved:
+        boolean[] encrypted = new boolean[originalCode.length()];
+        for (CodeString value : javaCode.getStringValues()) {
+            for (int i = value.start; i < value.end; i++) encrypted[i] = true;
+        }
+        for (int i = 0; i < originalCode.length(); i++) {
+            if (!encrypted[i]) Assert.assertEquals(originalCode.charAt(i), code.charAt(javaCode.getOutputPosition(i)));
+        }
+    }
+
+    @Test
+    public void testCodeTemplate() {
+        String pattern = "\n\n    public void $1(boolean $2) {\n        if ($2) {\n            run(\"$3\");\n        }\n    }";
+        String code = "\n\n    public void execute(boolean enabled) {\n        if (enabled) {\n            run(\"$1 value\");\n        }\n    }";
+
+        JavaParser javaParser = new JavaParser();
+        ArrayList<CodeBlock> expected = javaParser.parse(code).getAllBlocks();
+        JavaCode javaCode = CodeTemplate.get(pattern, 3).newCode("execute", "enabled", "$1 value");
+        ArrayList<CodeBlock> blocks = javaCode.getAllBlocks();
+
+        Assert.assertEquals(expected.size(), blocks.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CodeBlock e = expected.get(i);
+            CodeBlock b = blocks.get(i);
+            Assert.assertEquals(e.type, b.type);
+            Assert.assertEquals(e.name, b.name);
+            Assert.assertEquals(e.getStart(), b.getStart());
+            Assert.assertEquals(e.getEnd(), b.getEnd());
+            Assert.assertEquals(e.innerOffset, b.innerOffset);
+            Assert.assertEquals(e.getCode(), b.getCode());
+            Assert.assertEquals(e.wordsToString(), b.wordsToString());
+        }
+        Assert.assertEquals(code + "\n", javaCode.toCode());
+
+        // Template is parsed only once:
+        Assert.assertSame(CodeTemplate.get(pattern, 3), CodeTemplate.get(pattern, 3));
+    }
+
     @Test
     public void testInsertArray() {
 
@@ -81,6 +987,9 @@ public class UnitTests {
         ArrayList<Object> array2 = Utils.toArrayList(new Integer[]{0, 1, 2, 3, 99, 4, 5, 6});
 
         Assert.assertEquals(array1, array2);
+
+        Utils.insertInArray(array1, array1.size(), 100);
+        Assert.assertEquals(Utils.toArrayList(new Integer[]{0, 1, 2, 3, 99, 4, 5, 6, 100}), array1);
     }
 
     @Test